@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openrdf.store.blob.BlobObject;
+import org.openrdf.store.blob.BlobStore;
+import org.openrdf.store.blob.BlobStoreMXBean;
+import org.openrdf.store.blob.BlobVersion;
+import org.openrdf.store.blob.disk.DiskBlobStoreProvider;
+
+/**
+ * A disk blob store in a new temporary directory for each trial, configured
+ * with the same parameters as a repository's blob store. Subclasses declare
+ * the blob sizes to measure.
+ */
+public abstract class BlobStoreState {
+	private static final long COMPRESS_TIMEOUT = 60000;
+
+	/** codec parameter, applied to committed blobs in the background */
+	@Param({ "none", "deflate:6" })
+	public String codec;
+
+	public BlobStore store;
+	public File dir;
+	public byte[] content;
+	private final AtomicLong stamps = new AtomicLong();
+
+	@Setup(Level.Trial)
+	public void openStore() throws IOException {
+		dir = File.createTempFile("blob-benchmark", "");
+		dir.delete();
+		dir.mkdirs();
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("codec", codec);
+		configure(parameters);
+		store = new DiskBlobStoreProvider().createBlobStore(dir.toURI()
+				.toString(), parameters);
+		content = new byte[getBlobSize()];
+		// text like content, so the codec has something to compress
+		Random random = new Random(content.length);
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) ('a' + random.nextInt(16));
+		}
+	}
+
+	/**
+	 * Size of the blobs written.
+	 */
+	public abstract int getBlobSize();
+
+	/**
+	 * Adds any further blob store parameters.
+	 */
+	protected void configure(Map<String, String> parameters) {
+		// none
+	}
+
+	@TearDown(Level.Trial)
+	public void closeStore() throws IOException {
+		store.erase();
+		deltree(dir);
+	}
+
+	/**
+	 * Writes the content to the blob and commits it in a new version.
+	 */
+	public void write(String uri) throws IOException {
+		BlobVersion version = store.newVersion();
+		write(version.open(uri));
+		version.commit();
+	}
+
+	/**
+	 * Writes the content followed by a unique stamp, so every write is a
+	 * change to the blob.
+	 */
+	public void write(BlobObject blob) throws IOException {
+		OutputStream out = blob.openOutputStream();
+		try {
+			out.write(content);
+			out.write(Long.toString(stamps.incrementAndGet()).getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the blob and returns the number of bytes read.
+	 */
+	public long read(BlobObject blob, byte[] buf) throws IOException {
+		InputStream in = blob.openInputStream();
+		try {
+			long total = 0;
+			int read;
+			while ((read = in.read(buf)) >= 0) {
+				total += read;
+			}
+			return total;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Waits for the background compressor to catch up with the blobs written
+	 * so far, when compressing.
+	 */
+	public void awaitCompressed(int blobs) throws InterruptedException {
+		if ("none".equals(codec))
+			return;
+		BlobStoreMXBean bean = (BlobStoreMXBean) store;
+		long deadline = System.currentTimeMillis() + COMPRESS_TIMEOUT;
+		while (bean.getRawBytes() < (long) blobs * getBlobSize()
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(100);
+		}
+	}
+
+	private void deltree(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deltree(child);
+			}
+		}
+		file.delete();
+	}
+}
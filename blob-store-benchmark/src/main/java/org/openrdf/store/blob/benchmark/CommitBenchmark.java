@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openrdf.store.blob.BlobVersion;
+
+/**
+ * Commits of a single blob per version. Run with <code>-t N</code> to measure
+ * N threads committing at once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CommitBenchmark {
+	private static final String SHARED = "urn:benchmark:shared";
+	private static final int BLOBS_PER_THREAD = 1024;
+	private static final int MAX_RETRIES = 1000;
+
+	@State(Scope.Benchmark)
+	public static class Store extends BlobStoreState {
+		@Param({ "1024", "65536", "1048576" })
+		public int blobSize;
+
+		public int getBlobSize() {
+			return blobSize;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Blobs {
+		private static final AtomicInteger threads = new AtomicInteger();
+		private final String prefix = "urn:benchmark:"
+				+ threads.incrementAndGet() + ":";
+		private int next;
+
+		public String next() {
+			return prefix + (next++ % BLOBS_PER_THREAD);
+		}
+	}
+
+	/**
+	 * Writes and commits a blob that no other thread writes.
+	 */
+	@Benchmark
+	public void writeAndCommit(Store store, Blobs blobs) throws IOException {
+		store.write(blobs.next());
+	}
+
+	/**
+	 * Writes and commits the blob every thread writes, retrying when another
+	 * thread committed it first.
+	 * 
+	 * @return number of conflicts
+	 */
+	@Benchmark
+	public int writeAndCommitConflicting(Store store) throws IOException {
+		for (int conflicts = 0;; conflicts++) {
+			BlobVersion version = store.store.newVersion();
+			try {
+				store.write(version.open(SHARED));
+				version.commit();
+				return conflicts;
+			} catch (IOException e) {
+				version.rollback();
+				if (conflicts >= MAX_RETRIES)
+					throw e;
+			}
+		}
+	}
+}
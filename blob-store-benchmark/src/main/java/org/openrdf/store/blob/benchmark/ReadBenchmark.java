@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads of committed blobs. Run with <code>-t N</code> to measure N threads
+ * reading at once.
+ */
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReadBenchmark {
+	private static final int SMALL_BLOBS = 1024;
+	private static final String LARGE = "urn:benchmark:large";
+
+	@State(Scope.Benchmark)
+	public static class SmallBlobs extends BlobStoreState {
+		@Param({ "256", "4096", "65536" })
+		public int blobSize;
+
+		/** cache-size parameter, zero for no blob cache */
+		@Param({ "0", "67108864" })
+		public long cacheSize;
+
+		public int getBlobSize() {
+			return blobSize;
+		}
+
+		protected void configure(Map<String, String> parameters) {
+			if (cacheSize > 0) {
+				parameters.put("cache-size", Long.toString(cacheSize));
+				parameters.put("cache-blob-size", Integer.toString(blobSize));
+			}
+		}
+
+		@Setup(Level.Trial)
+		public void writeBlobs() throws IOException, InterruptedException {
+			for (int i = 0; i < SMALL_BLOBS; i++) {
+				write("urn:benchmark:" + i);
+			}
+			awaitCompressed(SMALL_BLOBS);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class LargeBlob extends BlobStoreState {
+		@Param({ "1048576", "16777216" })
+		public int blobSize;
+
+		public int getBlobSize() {
+			return blobSize;
+		}
+
+		@Setup(Level.Trial)
+		public void writeBlob() throws IOException, InterruptedException {
+			write(LARGE);
+			awaitCompressed(1);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Buffers {
+		final byte[] bytes = new byte[8192];
+		final ByteBuffer direct = ByteBuffer.allocateDirect(64 * 1024);
+	}
+
+	/**
+	 * Reads a random small blob through its input stream.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public long readSmallBlob(SmallBlobs store, Buffers buffers)
+			throws IOException {
+		int i = ThreadLocalRandom.current().nextInt(SMALL_BLOBS);
+		return store.read(store.store.open("urn:benchmark:" + i),
+				buffers.bytes);
+	}
+
+	/**
+	 * Streams a large blob through its channel.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public long streamLargeBlob(LargeBlob store, Buffers buffers)
+			throws IOException {
+		ReadableByteChannel ch = store.store.open(LARGE).openChannel();
+		try {
+			long total = 0;
+			int read;
+			while ((read = ch.read(buffers.direct)) >= 0) {
+				total += read;
+				buffers.direct.clear();
+			}
+			return total;
+		} finally {
+			ch.close();
+		}
+	}
+}
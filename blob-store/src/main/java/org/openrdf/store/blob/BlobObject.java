@@ -29,6 +29,8 @@
 package org.openrdf.store.blob;
 
 import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -38,6 +40,9 @@ import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 
 import javax.tools.FileObject;
 
@@ -124,6 +129,71 @@ public abstract class BlobObject implements FileObject {
 		return uri;
 	}
 
+	/**
+	 * Opens a channel to read this blob. If the blob is stored uncompressed in
+	 * a file the returned channel is a {@link FileChannel}, which can transfer
+	 * the blob directly to another channel without copying it through the
+	 * heap.
+	 * 
+	 * @return a channel to read this blob or null if this blob has no content
+	 */
+	public ReadableByteChannel openChannel() throws IOException {
+		InputStream in = openInputStream();
+		if (in == null)
+			return null;
+		if (FileInputStream.class.equals(in.getClass()))
+			return ((FileInputStream) in).getChannel();
+		return Channels.newChannel(in);
+	}
+
+	/**
+	 * Opens a stream to read part of this blob.
+	 * 
+	 * @param offset
+	 *            number of bytes to skip from the start of the blob
+	 * @param length
+	 *            maximum number of bytes to read or -1 to read to the end
+	 * @return a stream of the requested bytes or null if this blob has no
+	 *         content
+	 */
+	public InputStream openInputStream(long offset, long length)
+			throws IOException {
+		InputStream in = openInputStream();
+		if (in == null)
+			return null;
+		if (FileInputStream.class.equals(in.getClass())) {
+			((FileInputStream) in).getChannel().position(offset);
+		} else {
+			long skip = offset;
+			while (skip > 0) {
+				long n = in.skip(skip);
+				if (n <= 0) {
+					if (in.read() < 0)
+						break;
+					n = 1;
+				}
+				skip -= n;
+			}
+		}
+		return limit(in, length);
+	}
+
+	/**
+	 * Opens a channel to read this blob from the given offset. The returned
+	 * channel is a {@link FileChannel} when the blob is stored uncompressed in
+	 * a file.
+	 * 
+	 * @return a channel to read this blob or null if this blob has no content
+	 */
+	public ReadableByteChannel openChannel(long offset) throws IOException {
+		InputStream in = openInputStream(offset, -1);
+		if (in == null)
+			return null;
+		if (FileInputStream.class.equals(in.getClass()))
+			return ((FileInputStream) in).getChannel();
+		return Channels.newChannel(in);
+	}
+
 	public Reader openReader(boolean ignoreEncodingErrors) throws IOException {
 		InputStream in = openInputStream();
 		if (in == null)
@@ -148,4 +218,50 @@ public abstract class BlobObject implements FileObject {
 
 	public abstract boolean equals(Object obj);
 
+	/**
+	 * Limits the given stream to at most length bytes, unless length is
+	 * negative.
+	 */
+	protected static InputStream limit(InputStream in, final long length) {
+		if (length < 0)
+			return in;
+		return new FilterInputStream(in) {
+			private long remaining = length;
+
+			public int read() throws IOException {
+				if (remaining <= 0)
+					return -1;
+				int read = super.read();
+				if (read >= 0) {
+					remaining--;
+				}
+				return read;
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (remaining <= 0)
+					return -1;
+				int read = super.read(b, off, (int) Math.min(len, remaining));
+				if (read > 0) {
+					remaining -= read;
+				}
+				return read;
+			}
+
+			public long skip(long n) throws IOException {
+				long skipped = super.skip(Math.min(n, remaining));
+				remaining -= skipped;
+				return skipped;
+			}
+
+			public int available() throws IOException {
+				return (int) Math.min(super.available(), remaining);
+			}
+
+			public boolean markSupported() {
+				return false;
+			}
+		};
+	}
+
 }
@@ -36,11 +36,16 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.ServiceLoader;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Creates new {@link BlobStore}s, storing blobs to the given directories.
+ * Stores that implement {@link BlobStoreMXBean} are registered with the
+ * platform MBeanServer until they are no longer referenced.
  * 
  * @author James Leigh
  * 
@@ -56,6 +61,8 @@ public class BlobStoreFactory {
 	private final Logger logger = LoggerFactory
 			.getLogger(BlobStoreFactory.class);
 	private final Map<Map<String, String>, WeakReference<BlobStore>> stores = new HashMap<Map<String, String>, WeakReference<BlobStore>>();
+	/** registered MXBean -> key of its store */
+	private final Map<ObjectName, Map<String, String>> mbeans = new HashMap<ObjectName, Map<String, String>>();
 
 	private BlobStoreFactory() {
 		super();
@@ -76,10 +83,14 @@ public class BlobStoreFactory {
 		}
 		key.put(URL_KEY, url);
 		synchronized (stores) {
-			Iterator<WeakReference<BlobStore>> iter = stores.values().iterator();
+			Iterator<Map.Entry<Map<String, String>, WeakReference<BlobStore>>> iter = stores
+					.entrySet().iterator();
 			while (iter.hasNext()) {
-				if (iter.next().get() == null) {
+				Map.Entry<Map<String, String>, WeakReference<BlobStore>> e = iter
+						.next();
+				if (e.getValue().get() == null) {
 					iter.remove();
+					unregister(e.getKey());
 				}
 			}
 			WeakReference<BlobStore> ref = stores.get(key);
@@ -94,7 +105,11 @@ public class BlobStoreFactory {
 			throw new IllegalArgumentException(
 					"No blob store provider is available for: " + url);
 		synchronized (stores) {
-			stores.put(key, new WeakReference<BlobStore>(store));
+			WeakReference<BlobStore> ref = new WeakReference<BlobStore>(store);
+			stores.put(key, ref);
+			if (store instanceof BlobStoreMXBean) {
+				register(key, ref);
+			}
 		}
 		return store;
 	}
@@ -113,6 +128,41 @@ public class BlobStoreFactory {
 		return openBlobStore(dir.toURI().toString());
 	}
 
+	/**
+	 * Registers a proxy to the store, so the MBeanServer does not keep the
+	 * store from being collected.
+	 */
+	private void register(Map<String, String> key,
+			WeakReference<BlobStore> ref) {
+		try {
+			BlobStoreMXBean store = (BlobStoreMXBean) ref.get();
+			ObjectName name = new ObjectName(BlobStore.class.getPackage()
+					.getName()
+					+ ":type="
+					+ store.getClass().getSimpleName()
+					+ ",name="
+					+ ObjectName.quote(store.getLocation()));
+			WeakMXBeans.unregister(name);
+			if (WeakMXBeans.register(name, BlobStoreMXBean.class, ref)) {
+				mbeans.put(name, key);
+			}
+		} catch (JMException e) {
+			logger.warn(e.toString(), e);
+		}
+	}
+
+	private void unregister(Map<String, String> key) {
+		Iterator<Map.Entry<ObjectName, Map<String, String>>> iter = mbeans
+				.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<ObjectName, Map<String, String>> e = iter.next();
+			if (e.getValue().equals(key)) {
+				iter.remove();
+				WeakMXBeans.unregister(e.getKey());
+			}
+		}
+	}
+
 	private BlobStore getBlobStoreProvider(String url,
 			Map<String, String> parameters) {
 		ClassLoader ccl = getClass().getClassLoader();
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob;
+
+/**
+ * Interface to monitor a {@link BlobStore} from MXBeans.
+ */
+public interface BlobStoreMXBean {
+
+	/**
+	 * Absolute path of the directory of this store.
+	 */
+	String getLocation();
+
+	/**
+	 * Upper bound in milliseconds of each latency histogram bucket, the last
+	 * bucket is unbounded.
+	 */
+	long[] getLatencyBucketMillis();
+
+	long getCommitCount();
+
+	double getCommitMeanMillis();
+
+	double getCommitMaxMillis();
+
+	long[] getCommitLatencyHistogram();
+
+	long getPrepareCount();
+
+	double getPrepareMeanMillis();
+
+	double getPrepareMaxMillis();
+
+	long[] getPrepareLatencyHistogram();
+
+	/**
+	 * Time spent waiting for blob write locks while preparing versions.
+	 */
+	long getWriteLockWaitMillis();
+
+	/**
+	 * Bytes of committed blob content opened for reading.
+	 */
+	long getBytesRead();
+
+	/**
+	 * Bytes of blob content written, committed or not.
+	 */
+	long getBytesWritten();
+
+	/**
+	 * Uncompressed size of the blobs compressed in the background.
+	 */
+	long getRawBytes();
+
+	/**
+	 * Compressed size of the blobs compressed in the background.
+	 */
+	long getCompressedBytes();
+
+	/**
+	 * Versions that have been opened and are still referenced.
+	 */
+	int getOpenVersionCount();
+
+	/**
+	 * Blobs tracked for conflicting changes.
+	 */
+	int getWatchedBlobCount();
+
+	/**
+	 * Bytes in the version journal, zero if there is no journal.
+	 */
+	long getJournalSize();
+
+	long getCacheHitCount();
+
+	long getCacheMissCount();
+
+	/**
+	 * Restarts the latency and byte counters from zero.
+	 */
+	void resetStatistics();
+}
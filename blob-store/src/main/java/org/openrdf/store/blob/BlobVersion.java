@@ -57,8 +57,9 @@ public interface BlobVersion {
 	BlobObject open(String uri) throws IOException, IllegalStateException;
 
 	/**
-	 * Prevents any further changes to the store from other threads until
-	 * {@link #commit()} or {@link #rollback()} is called from this thread.
+	 * Prevents any further changes to the blobs opened in this
+	 * {@link BlobVersion} from other threads until {@link #commit()} or
+	 * {@link #rollback()} is called from this thread.
 	 * Checks that the blobs read or written in this {@link BlobVersion} were
 	 * not changed in another {@link BlobVersion} since they were opened.
 	 * 
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers MXBeans with the platform MBeanServer through a proxy that only
+ * weakly references its target, so the MBeanServer does not keep the target
+ * from being collected.
+ */
+public final class WeakMXBeans {
+	private static final Logger logger = LoggerFactory
+			.getLogger(WeakMXBeans.class);
+
+	/**
+	 * Registers a proxy of <code>type</code> to the referent of
+	 * <code>ref</code>, unless something is already registered by this name.
+	 * 
+	 * @return <code>true</code> if the proxy was registered
+	 */
+	public static <T> boolean register(ObjectName name, Class<T> type,
+			WeakReference<?> ref) throws JMException {
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		if (mbs.isRegistered(name))
+			return false;
+		mbs.registerMBean(new StandardMBean(createProxy(type, ref), type,
+				true), name);
+		return true;
+	}
+
+	/**
+	 * Unregisters the named MBean, if it is still registered.
+	 */
+	public static void unregister(ObjectName name) {
+		if (name == null)
+			return;
+		try {
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			mbs.unregisterMBean(name);
+		} catch (InstanceNotFoundException e) {
+			// already unregistered
+		} catch (JMException e) {
+			logger.warn(e.toString(), e);
+		}
+	}
+
+	private static <T> T createProxy(Class<T> type, final WeakReference<?> ref) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+				new Class<?>[] { type }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						Object target = ref.get();
+						if (target == null)
+							throw new IllegalStateException(
+									"Blob store is no longer open");
+						try {
+							return method.invoke(target, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				}));
+	}
+
+	private WeakMXBeans() {
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.disk;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of the latest committed index entry of blobs,
+ * along with the uncompressed content of small blobs, bounded by a byte
+ * budget. Entries are only added or invalidated while holding the blob's
+ * lock, so a commit can never be overtaken by a stale entry.
+ */
+public class BlobCache {
+	/** estimated bytes used by an entry, excluding its content */
+	private static final int ENTRY_OVERHEAD = 160;
+
+	/**
+	 * Latest committed version of a blob.
+	 */
+	public static class Entry {
+		final String version;
+		final File file;
+		final String packed;
+		final long length;
+		final byte[] digest;
+		volatile byte[] content;
+
+		Entry(String version, File file, String packed, long length,
+				byte[] digest) {
+			this.version = version;
+			this.file = file;
+			this.packed = packed;
+			this.length = length;
+			this.digest = digest;
+		}
+	}
+
+	private final long maxBytes;
+	private final int maxBlobSize;
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+	private long size;
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param maxBytes
+	 *            budget for all cached entries and content
+	 * @param maxBlobSize
+	 *            largest blob whose content is cached
+	 */
+	public BlobCache(long maxBytes, int maxBlobSize) {
+		this.maxBytes = maxBytes;
+		this.maxBlobSize = maxBlobSize;
+	}
+
+	public String toString() {
+		return size + "/" + maxBytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public int getMaxBlobSize() {
+		return maxBlobSize;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	synchronized Entry get(String uri) {
+		Entry entry = entries.get(uri);
+		if (entry == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return entry;
+	}
+
+	/**
+	 * Cached content of this entry, if any. Not counted as a hit or miss, as
+	 * the entry was already counted when it was looked up.
+	 */
+	byte[] getContent(Entry entry) {
+		return entry.content;
+	}
+
+	synchronized Entry put(String uri, String version, File file,
+			String packed, long length, byte[] digest) {
+		Entry entry = new Entry(version, file, packed, length, digest);
+		remove(uri);
+		entries.put(uri, entry);
+		size += weigh(uri, entry);
+		evict();
+		return entry;
+	}
+
+	synchronized void putContent(String uri, Entry entry, byte[] content) {
+		if (content.length > maxBlobSize || entries.get(uri) != entry
+				|| entry.content != null)
+			return;
+		entry.content = content;
+		size += content.length;
+		evict();
+	}
+
+	synchronized void invalidate(String uri) {
+		remove(uri);
+	}
+
+	private void remove(String uri) {
+		Entry previous = entries.remove(uri);
+		if (previous != null) {
+			size -= weigh(uri, previous);
+		}
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+		while (size > maxBytes && iter.hasNext()) {
+			Map.Entry<String, Entry> e = iter.next();
+			size -= weigh(e.getKey(), e.getValue());
+			iter.remove();
+		}
+	}
+
+	private long weigh(String uri, Entry entry) {
+		long weight = ENTRY_OVERHEAD + 2 * uri.length();
+		if (entry.version != null) {
+			weight += 2 * entry.version.length();
+		}
+		byte[] content = entry.content;
+		if (content != null) {
+			weight += content.length;
+		}
+		return weight;
+	}
+}
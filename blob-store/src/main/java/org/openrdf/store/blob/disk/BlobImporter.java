@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.disk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openrdf.store.blob.BlobObject;
+
+/**
+ * Writes and syncs the blobs of a bulk import on a bounded pool of threads.
+ * When the pool is busy the calling thread runs the next task itself, so no
+ * more than a few input streams are ever waiting to be read.
+ */
+class BlobImporter {
+	private static final int BUFFER_SIZE = 8192;
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	private final DiskBlobStore store;
+	private final ThreadPoolExecutor executor;
+	private final List<Future<Void>> written = new ArrayList<Future<Void>>();
+	/** last scheduled write of each blob */
+	private final Map<String, Future<Void>> writing = new HashMap<String, Future<Void>>();
+	private volatile IOException failure;
+	private volatile boolean aborted;
+
+	BlobImporter(DiskBlobStore store, int threads) {
+		assert threads > 0;
+		this.store = store;
+		final String name = "Importer " + counter.incrementAndGet() + " of "
+				+ store.getDirectory().getName();
+		executor = new ThreadPoolExecutor(threads, threads, 60,
+				TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(threads),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, name);
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**
+	 * Schedules the content of this stream to be written to the blob, closing
+	 * the stream when done. If the blob was already scheduled, this waits for
+	 * that write to finish first, so the last content given is kept.
+	 */
+	public void write(final BlobObject blob, final InputStream in)
+			throws IOException {
+		checkFailure();
+		Future<Void> previous = writing.get(blob.toString());
+		if (previous != null) {
+			await(previous);
+		}
+		Future<Void> future = executor.submit(new Callable<Void>() {
+			public Void call() throws IOException {
+				try {
+					if (failure == null && !aborted) {
+						copy(in, blob);
+					}
+					return null;
+				} catch (IOException e) {
+					failure = e;
+					throw e;
+				} finally {
+					in.close();
+				}
+			}
+		});
+		written.add(future);
+		writing.put(blob.toString(), future);
+	}
+
+	/**
+	 * Waits for every scheduled blob to be written.
+	 * 
+	 * @throws IOException
+	 *             the first error of any blob
+	 */
+	public void awaitWritten() throws IOException {
+		for (Future<Void> future : written) {
+			await(future);
+		}
+		written.clear();
+		writing.clear();
+		checkFailure();
+	}
+
+	/**
+	 * Syncs these blobs in parallel. Blobs of the same lock stripe share a
+	 * task, as they may share an index file.
+	 * 
+	 * @return the blobs that had changes to sync
+	 */
+	public Set<DiskBlob> sync(Collection<DiskBlob> blobs) throws IOException {
+		Map<Integer, List<DiskBlob>> stripes = new LinkedHashMap<Integer, List<DiskBlob>>();
+		for (DiskBlob blob : blobs) {
+			Integer stripe = store.stripeOf(blob.toString());
+			List<DiskBlob> list = stripes.get(stripe);
+			if (list == null) {
+				stripes.put(stripe, list = new ArrayList<DiskBlob>());
+			}
+			list.add(blob);
+		}
+		List<Future<List<DiskBlob>>> futures = new ArrayList<Future<List<DiskBlob>>>(stripes.size());
+		for (final List<DiskBlob> list : stripes.values()) {
+			futures.add(executor.submit(new Callable<List<DiskBlob>>() {
+				public List<DiskBlob> call() throws IOException {
+					List<DiskBlob> synced = new ArrayList<DiskBlob>(list.size());
+					for (DiskBlob blob : list) {
+						if (blob.sync()) {
+							synced.add(blob);
+						}
+					}
+					return synced;
+				}
+			}));
+		}
+		Set<DiskBlob> synced = new HashSet<DiskBlob>(blobs.size());
+		IOException error = null;
+		for (Future<List<DiskBlob>> future : futures) {
+			try {
+				synced.addAll(await(future));
+			} catch (IOException e) {
+				if (error == null) {
+					error = e;
+				}
+			}
+		}
+		if (error != null)
+			throw error;
+		return synced;
+	}
+
+	/**
+	 * Skips the blobs that have not started and waits for the others to stop.
+	 */
+	public void abort() {
+		aborted = true;
+		for (Future<Void> future : written) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				// reported by awaitWritten
+			}
+		}
+		written.clear();
+		writing.clear();
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	void copy(InputStream in, BlobObject blob) throws IOException {
+		OutputStream out = blob.openOutputStream();
+		try {
+			byte[] buf = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buf)) >= 0) {
+				out.write(buf, 0, read);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = failure;
+		if (e != null)
+			throw new IOException(e.toString(), e);
+	}
+
+	private <V> V await(Future<V> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			InterruptedIOException exc = new InterruptedIOException();
+			exc.initCause(e);
+			throw exc;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause.toString(), cause);
+		}
+	}
+}
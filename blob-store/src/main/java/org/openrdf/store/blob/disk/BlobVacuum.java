@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.disk;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.openrdf.store.blob.WeakMXBeans;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Erases obsolete blob versions that fall outside the retention policy,
+ * deleting their files and rewriting the per-blob indexes. Versions are
+ * obsolete once none of their blobs are current. A version is retained if it
+ * is one of the most recent versions of any of its blobs or if it is younger
+ * than the retention period. Each vacuum also compacts the pack segments.
+ * Neither the background thread nor the MBeanServer keep the vacuum or its
+ * store from being collected; the thread stops itself once they are.
+ */
+public class BlobVacuum implements BlobVacuumMXBean {
+	private static final long DEFAULT_INTERVAL = 60 * 60;
+	private static final Logger logger = LoggerFactory
+			.getLogger(BlobVacuum.class);
+
+	/**
+	 * Runs the vacuum until it is no longer referenced, then shuts down its
+	 * thread and unregisters its MBean.
+	 */
+	private static class VacuumTask implements Runnable {
+		private final WeakReference<BlobVacuum> ref;
+		private final ScheduledThreadPoolExecutor executor;
+		private final ObjectName mbean;
+
+		VacuumTask(WeakReference<BlobVacuum> ref,
+				ScheduledThreadPoolExecutor executor, ObjectName mbean) {
+			this.ref = ref;
+			this.executor = executor;
+			this.mbean = mbean;
+		}
+
+		public void run() {
+			BlobVacuum vacuum = ref.get();
+			if (vacuum == null) {
+				executor.shutdown();
+				WeakMXBeans.unregister(mbean);
+				return;
+			}
+			try {
+				vacuum.vacuum();
+			} catch (IOException e) {
+				logger.error(e.toString(), e);
+			} catch (RuntimeException e) {
+				logger.error(e.toString(), e);
+			}
+		}
+	}
+
+	private static class VacuumThreadFactory implements ThreadFactory {
+		private final String name;
+
+		VacuumThreadFactory(String name) {
+			this.name = name;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, name);
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	}
+
+	private final WeakReference<BlobVacuum> self = new WeakReference<BlobVacuum>(
+			this);
+	private final DiskBlobStore store;
+	private volatile int retainVersions;
+	private volatile long retainSeconds;
+	private volatile long maxBytesPerSecond;
+	private long interval = DEFAULT_INTERVAL;
+	private final AtomicLong reclaimed = new AtomicLong();
+	private final AtomicLong erased = new AtomicLong();
+	private volatile long lastVacuum;
+	private volatile boolean vacuuming;
+	/** only one vacuum runs at a time */
+	private final Object running = new Object();
+	private ScheduledThreadPoolExecutor executor;
+	private ScheduledFuture<?> scheduled;
+	private ObjectName mbean;
+
+	protected BlobVacuum(DiskBlobStore store) {
+		assert store != null;
+		this.store = store;
+	}
+
+	public String toString() {
+		return store.toString();
+	}
+
+	public String getDirectory() {
+		return store.getDirectory().getAbsolutePath();
+	}
+
+	public int getRetainVersions() {
+		return retainVersions;
+	}
+
+	public void setRetainVersions(int versions) {
+		this.retainVersions = versions;
+	}
+
+	public long getRetainSeconds() {
+		return retainSeconds;
+	}
+
+	public void setRetainSeconds(long seconds) {
+		this.retainSeconds = seconds;
+	}
+
+	public synchronized long getIntervalSeconds() {
+		return interval;
+	}
+
+	public synchronized void setIntervalSeconds(long seconds) {
+		this.interval = seconds;
+		if (scheduled != null) {
+			stop();
+			start();
+		}
+	}
+
+	public long getMaxBytesPerSecond() {
+		return maxBytesPerSecond;
+	}
+
+	public void setMaxBytesPerSecond(long rate) {
+		this.maxBytesPerSecond = rate;
+	}
+
+	public long getReclaimedBytes() {
+		return reclaimed.get();
+	}
+
+	public long getErasedVersionCount() {
+		return erased.get();
+	}
+
+	public long getLastVacuumTime() {
+		return lastVacuum;
+	}
+
+	public boolean isVacuuming() {
+		return vacuuming;
+	}
+
+	public synchronized boolean isStarted() {
+		return scheduled != null;
+	}
+
+	/**
+	 * Schedules this vacuum to run periodically in a background thread and
+	 * registers it with the platform MBeanServer.
+	 */
+	public synchronized void start() {
+		if (scheduled != null || interval <= 0)
+			return;
+		if (executor == null) {
+			String name = "Vacuum of " + store.getDirectory().getName();
+			executor = new ScheduledThreadPoolExecutor(1,
+					new VacuumThreadFactory(name));
+		}
+		register();
+		scheduled = executor.scheduleWithFixedDelay(new VacuumTask(self,
+				executor, mbean), interval, interval, TimeUnit.SECONDS);
+	}
+
+	public synchronized void stop() {
+		if (scheduled != null) {
+			scheduled.cancel(false);
+			scheduled = null;
+		}
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+		unregister();
+	}
+
+	/**
+	 * Erases the obsolete versions that are not retained and compacts the
+	 * pack segments.
+	 */
+	public void vacuum() throws IOException {
+		synchronized (running) {
+			vacuuming = true;
+			try {
+				if (retainVersions > 0 || retainSeconds > 0) {
+					Set<String> done = new HashSet<String>();
+					try {
+						for (String version : store.readObsolete()) {
+							if (!done.contains(version)
+									&& !isRetained(version)) {
+								erase(version);
+								done.add(version);
+							}
+						}
+					} finally {
+						store.removeObsolete(done);
+					}
+				}
+				reclaimed.addAndGet(store.getPackStore().compact());
+			} finally {
+				vacuuming = false;
+				lastVacuum = System.currentTimeMillis();
+			}
+		}
+	}
+
+	private boolean isRetained(String version) throws IOException {
+		DiskBlobVersion obsolete;
+		try {
+			obsolete = store.openVersion(version);
+		} catch (IllegalArgumentException e) {
+			return false; // already erased
+		}
+		long age = System.currentTimeMillis() - obsolete.getLastModified();
+		if (retainSeconds > 0 && age < retainSeconds * 1000)
+			return true;
+		if (!obsolete.isObsolete())
+			return true;
+		if (retainVersions > 0) {
+			for (String uri : obsolete.getModifications()) {
+				String[] history = store.open(uri).getRecentVersions();
+				List<String> recent = Arrays.asList(history).subList(0,
+						Math.min(retainVersions, history.length));
+				if (recent.contains(version))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private void erase(String version) throws IOException {
+		DiskBlobVersion obsolete;
+		try {
+			obsolete = store.openVersion(version);
+		} catch (IllegalArgumentException e) {
+			return; // already erased
+		}
+		long start = System.currentTimeMillis();
+		obsolete.erase();
+		long bytes = obsolete.getReclaimedBytes();
+		reclaimed.addAndGet(bytes);
+		erased.incrementAndGet();
+		throttle(start, bytes);
+	}
+
+	/**
+	 * Sleeps long enough to keep the deletion rate under the maximum.
+	 */
+	private void throttle(long start, long bytes) throws IOException {
+		long rate = maxBytesPerSecond;
+		if (rate <= 0)
+			return;
+		long pause = bytes * 1000 / rate - (System.currentTimeMillis() - start);
+		if (pause > 0) {
+			try {
+				Thread.sleep(pause);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Vacuum interrupted");
+			}
+		}
+	}
+
+	/**
+	 * Registers a proxy to this vacuum, so the MBeanServer does not keep the
+	 * store from being collected.
+	 */
+	private void register() {
+		try {
+			ObjectName name = new ObjectName(BlobVacuum.class.getPackage()
+					.getName()
+					+ ":type="
+					+ BlobVacuum.class.getSimpleName()
+					+ ",name="
+					+ ObjectName.quote(getDirectory()));
+			if (WeakMXBeans.register(name, BlobVacuumMXBean.class, self)) {
+				mbean = name;
+			}
+		} catch (JMException e) {
+			logger.warn(e.toString(), e);
+		}
+	}
+
+	private void unregister() {
+		if (mbean != null) {
+			try {
+				WeakMXBeans.unregister(mbean);
+			} finally {
+				mbean = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.disk;
+
+import java.io.IOException;
+
+/**
+ * Interface to manage the vacuum of obsolete blob versions from MXBeans.
+ */
+public interface BlobVacuumMXBean {
+
+	String getDirectory();
+
+	/**
+	 * Number of recent versions of each blob that are never vacuumed, zero to
+	 * retain none by count.
+	 */
+	int getRetainVersions();
+
+	void setRetainVersions(int versions);
+
+	/**
+	 * Versions younger than this are never vacuumed, zero to retain none by
+	 * age.
+	 */
+	long getRetainSeconds();
+
+	void setRetainSeconds(long seconds);
+
+	/**
+	 * Delay between scheduled vacuums, zero to stop scheduling them.
+	 */
+	long getIntervalSeconds();
+
+	void setIntervalSeconds(long seconds);
+
+	/**
+	 * Upper bound on the rate that blob files are deleted, zero for no limit.
+	 */
+	long getMaxBytesPerSecond();
+
+	void setMaxBytesPerSecond(long rate);
+
+	long getReclaimedBytes();
+
+	long getErasedVersionCount();
+
+	long getLastVacuumTime();
+
+	boolean isVacuuming();
+
+	void vacuum() throws IOException;
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.disk;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a gzip file of one or more members from an uncompressed offset.
+ * Members written by {@link BlockGzipOutputStream} are skipped without being
+ * inflated; any other gzip member before the offset is inflated and
+ * discarded.
+ */
+public class BlockGzipInputStream extends InputStream {
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private final FileChannel ch;
+	private final long size;
+	private final Inflater inflater = new Inflater(true);
+	private final CRC32 crc = new CRC32();
+	private final ByteBuffer input = ByteBuffer.allocate(8192);
+	private final byte[] single = new byte[1];
+	/** file position of the next member header */
+	private long next;
+	/** file position of the next compressed bytes of the current member */
+	private long pos;
+	private boolean inMember;
+	/** uncompressed bytes still to be skipped */
+	private long skip;
+	private boolean closed;
+
+	public BlockGzipInputStream(File file, long offset) throws IOException {
+		this.ch = new FileInputStream(file).getChannel();
+		this.size = ch.size();
+		this.skip = offset;
+	}
+
+	public int read() throws IOException {
+		int n;
+		do {
+			n = read(single, 0, 1);
+		} while (n == 0);
+		if (n < 0)
+			return -1;
+		return single[0] & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		while (skip > 0) {
+			byte[] discard = new byte[(int) Math.min(skip, 8192)];
+			int n = inflate(discard, 0, discard.length);
+			if (n < 0)
+				return -1;
+			skip -= n;
+		}
+		return inflate(b, off, len);
+	}
+
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			try {
+				ch.close();
+			} finally {
+				inflater.end();
+			}
+		}
+	}
+
+	private int inflate(byte[] b, int off, int len) throws IOException {
+		while (true) {
+			if (!inMember && !startMember())
+				return -1;
+			try {
+				int n = inflater.inflate(b, off, len);
+				if (n > 0) {
+					crc.update(b, off, n);
+					return n;
+				}
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage());
+			}
+			if (inflater.finished()) {
+				endMember();
+			} else if (inflater.needsDictionary()) {
+				throw new ZipException("Unexpected preset dictionary");
+			} else if (inflater.needsInput()) {
+				input.clear();
+				int n = ch.read(input, pos);
+				if (n <= 0)
+					throw new EOFException("Unexpected end of gzip file");
+				pos += n;
+				inflater.setInput(input.array(), 0, n);
+			}
+		}
+	}
+
+	/**
+	 * Reads the next member header, skipping whole members that end before
+	 * the offset.
+	 * 
+	 * @return <code>false</code> if there are no more members
+	 */
+	private boolean startMember() throws IOException {
+		while (next < size) {
+			ByteBuffer fixed = read(next, 10);
+			if (fixed.get(0) != 0x1f || (fixed.get(1) & 0xff) != 0x8b)
+				return false; // trailing garbage
+			if (fixed.get(2) != 8)
+				throw new ZipException("Unsupported compression method");
+			int flg = fixed.get(3) & 0xff;
+			long p = next + 10;
+			long memberSize = -1;
+			if ((flg & FEXTRA) != 0) {
+				int xlen = read(p, 2).getShort(0) & 0xffff;
+				ByteBuffer extra = read(p + 2, xlen);
+				p += 2 + xlen;
+				for (int i = 0; i + 4 <= xlen;) {
+					int len = extra.getShort(i + 2) & 0xffff;
+					if (extra.get(i) == BlockGzipOutputStream.SI1
+							&& extra.get(i + 1) == BlockGzipOutputStream.SI2
+							&& len == 4 && i + 8 <= xlen) {
+						memberSize = extra.getInt(i + 4) & 0xffffffffL;
+					}
+					i += 4 + len;
+				}
+			}
+			if ((flg & FNAME) != 0) {
+				p = skipString(p);
+			}
+			if ((flg & FCOMMENT) != 0) {
+				p = skipString(p);
+			}
+			if ((flg & FHCRC) != 0) {
+				p += 2;
+			}
+			if (skip > 0 && memberSize > 0) {
+				long isize = read(next + memberSize - 4, 4).getInt(0) & 0xffffffffL;
+				if (skip >= isize) {
+					skip -= isize;
+					next += memberSize;
+					continue;
+				}
+			}
+			inflater.reset();
+			crc.reset();
+			pos = p;
+			inMember = true;
+			return true;
+		}
+		return false;
+	}
+
+	private void endMember() throws IOException {
+		long trailer = pos - inflater.getRemaining();
+		ByteBuffer buf = read(trailer, 8);
+		long expected = buf.getInt(0) & 0xffffffffL;
+		long isize = buf.getInt(4) & 0xffffffffL;
+		if (expected != crc.getValue()
+				|| isize != (inflater.getTotalOut() & 0xffffffffL))
+			throw new ZipException("Corrupt gzip trailer");
+		next = trailer + 8;
+		inMember = false;
+	}
+
+	private long skipString(long p) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(256);
+		while (true) {
+			buf.clear();
+			int n = ch.read(buf, p);
+			if (n <= 0)
+				throw new EOFException("Unexpected end of gzip header");
+			for (int i = 0; i < n; i++) {
+				if (buf.get(i) == 0)
+					return p + i + 1;
+			}
+			p += n;
+		}
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		while (buf.hasRemaining()) {
+			int n = ch.read(buf, position + buf.position());
+			if (n < 0)
+				throw new EOFException("Unexpected end of gzip file");
+		}
+		return buf;
+	}
+}
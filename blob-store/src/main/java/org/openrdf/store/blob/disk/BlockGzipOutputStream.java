@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.disk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a gzip file as a series of members of at most {@link #BLOCK_SIZE}
+ * uncompressed bytes. Each member header carries the compressed size of the
+ * member, so {@link BlockGzipInputStream} can seek without inflating the
+ * members before the offset. The result is still a valid gzip file.
+ */
+public class BlockGzipOutputStream extends OutputStream {
+	public static final int BLOCK_SIZE = 64 * 1024;
+	/** extra subfield identifier of the member size */
+	static final byte SI1 = 'B';
+	static final byte SI2 = 'S';
+	static final int HEADER_SIZE = 20;
+
+	private final OutputStream out;
+	private final Deflater deflater;
+	private final CRC32 crc = new CRC32();
+	private final byte[] block = new byte[BLOCK_SIZE];
+	private int count;
+	private final ByteArrayOutputStream member = new ByteArrayOutputStream();
+	private final byte[] buf = new byte[8192];
+	private boolean closed;
+
+	public BlockGzipOutputStream(OutputStream out, int level) {
+		this.out = out;
+		this.deflater = new Deflater(level, true);
+	}
+
+	public void write(int b) throws IOException {
+		block[count++] = (byte) b;
+		if (count == BLOCK_SIZE) {
+			writeBlock();
+		}
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = Math.min(len, BLOCK_SIZE - count);
+			System.arraycopy(b, off, block, count, n);
+			count += n;
+			off += n;
+			len -= n;
+			if (count == BLOCK_SIZE) {
+				writeBlock();
+			}
+		}
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			try {
+				if (count > 0) {
+					writeBlock();
+				}
+			} finally {
+				try {
+					out.close();
+				} finally {
+					deflater.end();
+				}
+			}
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		deflater.reset();
+		deflater.setInput(block, 0, count);
+		deflater.finish();
+		member.reset();
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buf);
+			member.write(buf, 0, n);
+		}
+		crc.reset();
+		crc.update(block, 0, count);
+		int size = HEADER_SIZE + member.size() + 8;
+		byte[] header = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 4, 0, 0, 0, 0,
+				0, (byte) 255, 8, 0, SI1, SI2, 4, 0, 0, 0, 0, 0 };
+		writeInt(header, 16, size);
+		out.write(header);
+		member.writeTo(out);
+		byte[] trailer = new byte[8];
+		writeInt(trailer, 0, (int) crc.getValue());
+		writeInt(trailer, 4, count);
+		out.write(trailer);
+		count = 0;
+	}
+
+	private void writeInt(byte[] b, int off, int value) {
+		b[off] = (byte) value;
+		b[off + 1] = (byte) (value >> 8);
+		b[off + 2] = (byte) (value >> 16);
+		b[off + 3] = (byte) (value >> 24);
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.disk;
+
+import java.net.URLConnection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decides how committed blobs are compressed by the background compactor.
+ * Blobs are always written in their natural form; a policy is only applied
+ * after the blob version has been committed.
+ */
+public abstract class CodecPolicy {
+	/** level returned when a blob should be left uncompressed */
+	public static final int NONE = -1;
+
+	private static final CodecPolicy IDENTITY = new CodecPolicy() {
+		public int getCompressionLevel(String uri, String mediaType,
+				long length) {
+			return NONE;
+		}
+
+		public String toString() {
+			return "none";
+		}
+	};
+
+	/**
+	 * Leaves every blob uncompressed.
+	 */
+	public static CodecPolicy none() {
+		return IDENTITY;
+	}
+
+	/**
+	 * Deflates every blob at the given level.
+	 */
+	public static CodecPolicy deflate(final int level) {
+		if (level < 0 || level > 9)
+			throw new IllegalArgumentException("Invalid deflate level: "
+					+ level);
+		return new CodecPolicy() {
+			public int getCompressionLevel(String uri, String mediaType,
+					long length) {
+				return level;
+			}
+
+			public String toString() {
+				return "deflate:" + level;
+			}
+		};
+	}
+
+	/**
+	 * Picks a policy by the media type of the blob, guessed from its URI. The
+	 * keys may be a full media type, a <code>type/*</code> pattern or
+	 * <code>*&#47;*</code> for all other blobs.
+	 */
+	public static CodecPolicy byMediaType(Map<String, CodecPolicy> policies) {
+		final Map<String, CodecPolicy> map = new LinkedHashMap<String, CodecPolicy>(
+				policies);
+		return new CodecPolicy() {
+			public int getCompressionLevel(String uri, String type, long length) {
+				CodecPolicy policy = null;
+				if (type != null) {
+					policy = map.get(type);
+					if (policy == null && type.indexOf('/') > 0) {
+						String main = type.substring(0, type.indexOf('/'));
+						policy = map.get(main + "/*");
+					}
+				}
+				if (policy == null) {
+					policy = map.get("*/*");
+				}
+				if (policy == null)
+					return NONE;
+				return policy.getCompressionLevel(uri, type, length);
+			}
+
+			public String toString() {
+				StringBuilder sb = new StringBuilder();
+				for (Map.Entry<String, CodecPolicy> e : map.entrySet()) {
+					if (sb.length() > 0) {
+						sb.append(',');
+					}
+					sb.append(e.getKey()).append('=').append(e.getValue());
+				}
+				return sb.toString();
+			}
+		};
+	}
+
+	/**
+	 * Parses <code>none</code>, <code>deflate</code>, <code>deflate:N</code> or
+	 * a comma separated list of <code>media/type=codec</code>.
+	 */
+	public static CodecPolicy valueOf(String value) {
+		String str = value.trim();
+		if (str.indexOf('=') >= 0) {
+			Map<String, CodecPolicy> map = new LinkedHashMap<String, CodecPolicy>();
+			for (String entry : str.split(",")) {
+				int idx = entry.indexOf('=');
+				if (idx <= 0)
+					throw new IllegalArgumentException("Invalid codec: " + entry);
+				String type = entry.substring(0, idx).trim().toLowerCase();
+				map.put(type, valueOf(entry.substring(idx + 1)));
+			}
+			return byMediaType(map);
+		} else if ("none".equalsIgnoreCase(str)) {
+			return none();
+		} else if ("deflate".equalsIgnoreCase(str)) {
+			return deflate(6);
+		} else if (str.toLowerCase().startsWith("deflate:")) {
+			String level = str.substring("deflate:".length()).trim();
+			try {
+				return deflate(Integer.parseInt(level));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid codec: " + value);
+			}
+		}
+		throw new IllegalArgumentException("Invalid codec: " + value);
+	}
+
+	/**
+	 * Guesses the media type of a blob from the file extension of its URI.
+	 * 
+	 * @return a media type or null if unknown
+	 */
+	public static String guessMediaType(String uri) {
+		int end = uri.length();
+		if (uri.indexOf('#') >= 0) {
+			end = uri.indexOf('#');
+		}
+		if (uri.lastIndexOf('?', end) >= 0) {
+			end = uri.lastIndexOf('?', end);
+		}
+		return URLConnection.guessContentTypeFromName(uri.substring(0, end));
+	}
+
+	/**
+	 * Deflate level to use for this blob.
+	 * 
+	 * @param uri
+	 *            of the blob
+	 * @param mediaType
+	 *            guessed from the URI or null
+	 * @param length
+	 *            of the uncompressed blob
+	 * @return level between 0 and 9, or {@link #NONE}
+	 */
+	public abstract int getCompressionLevel(String uri, String mediaType,
+			long length);
+}
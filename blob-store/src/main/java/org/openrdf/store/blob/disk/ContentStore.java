@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.disk;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Blob bodies stored once per SHA-1 digest and shared by reference count
+ * across blobs and versions. Reference counts are kept in an append-only log
+ * of digest and delta records.
+ */
+public class ContentStore {
+	/** prefix of per-blob index names that refer to shared content */
+	public static final String PREFIX = "sha1:";
+	private static final int RECORD_SIZE = 20 + 4;
+	private static final int MIN_COMPACT = 1024;
+
+	private final Logger logger = LoggerFactory.getLogger(ContentStore.class);
+	private final DiskBlobStore store;
+	private final File dir;
+	private final File log;
+	/** hex digest -> reference count */
+	private final Map<String, Integer> refs = new HashMap<String, Integer>();
+	private int records;
+	private DataOutputStream out;
+
+	public ContentStore(DiskBlobStore store, File dir) {
+		assert store != null;
+		assert dir != null;
+		this.store = store;
+		this.dir = dir;
+		this.log = new File(dir, "refs");
+	}
+
+	public String toString() {
+		return dir.toString();
+	}
+
+	public synchronized void load() throws IOException {
+		refs.clear();
+		records = 0;
+		if (!log.exists())
+			return;
+		long valid = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(log)));
+		try {
+			byte[] sha1 = new byte[20];
+			while (true) {
+				in.readFully(sha1);
+				int delta = in.readInt();
+				count(new String(Hex.encodeHex(sha1)), delta);
+				records++;
+				valid += RECORD_SIZE;
+			}
+		} catch (EOFException e) {
+			// end of log
+		} finally {
+			in.close();
+		}
+		if (valid < log.length()) {
+			logger.warn("Truncating incomplete records from {}", log);
+			RandomAccessFile raf = new RandomAccessFile(log, "rw");
+			try {
+				raf.setLength(valid);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+
+	/**
+	 * If this per-blob index name refers to shared content.
+	 */
+	public static boolean isShared(String name) {
+		return name.startsWith(PREFIX);
+	}
+
+	/**
+	 * The shared content file for a per-blob index name.
+	 */
+	public File resolve(String name) {
+		assert isShared(name);
+		String hex = name.substring(PREFIX.length());
+		return new File(new File(dir, hex.substring(0, 2)), hex.substring(2));
+	}
+
+	/**
+	 * Adds a reference to the content of this file, moving the file into the
+	 * store if no other blob has the same content or deleting it otherwise.
+	 * 
+	 * @return the per-blob index name of the shared content
+	 */
+	public synchronized String share(File file, byte[] sha1) throws IOException {
+		String hex = new String(Hex.encodeHex(sha1));
+		String name = PREFIX + hex;
+		File shared = resolve(name);
+		if (refs.containsKey(hex) && shared.exists()) {
+			file.delete();
+		} else {
+			store.mkdirs(shared.getParentFile());
+			shared.delete();
+			if (!file.renameTo(shared))
+				throw new IOException("Cannot move " + file + " to " + shared);
+		}
+		append(sha1, 1);
+		return name;
+	}
+
+	/**
+	 * Removes a reference to this shared content, deleting the content file
+	 * when it is no longer referenced.
+	 * 
+	 * @return <code>true</code> if the content file was deleted
+	 */
+	public synchronized boolean release(String name) throws IOException {
+		String hex = name.substring(PREFIX.length());
+		if (!refs.containsKey(hex))
+			return false;
+		byte[] sha1;
+		try {
+			sha1 = Hex.decodeHex(hex.toCharArray());
+		} catch (DecoderException e) {
+			throw new IOException(e.toString());
+		}
+		append(sha1, -1);
+		if (refs.containsKey(hex))
+			return false;
+		File file = resolve(name);
+		boolean ret = file.delete();
+		File d = file.getParentFile();
+		String[] list = d.list();
+		if (list != null && list.length == 0) {
+			d.delete();
+		}
+		if (refs.isEmpty()) {
+			close();
+			log.delete();
+			records = 0;
+			list = dir.list();
+			if (list != null && list.length == 0) {
+				dir.delete();
+			}
+		} else if (records > MIN_COMPACT && records > 2 * refs.size()) {
+			compact();
+		}
+		return ret;
+	}
+
+	/**
+	 * Number of blob versions that share this content.
+	 */
+	public synchronized int getReferenceCount(byte[] sha1) {
+		Integer count = refs.get(new String(Hex.encodeHex(sha1)));
+		if (count == null)
+			return 0;
+		return count;
+	}
+
+	/**
+	 * The log of reference count changes.
+	 */
+	public File getReferenceLog() {
+		return log;
+	}
+
+	public synchronized void close() throws IOException {
+		if (out != null) {
+			try {
+				out.close();
+			} finally {
+				out = null;
+			}
+		}
+	}
+
+	private void append(byte[] sha1, int delta) throws IOException {
+		assert sha1.length == 20;
+		if (out == null) {
+			OutputStream stream = store.openOutputStream(log, true);
+			out = new DataOutputStream(stream);
+		}
+		out.write(sha1);
+		out.writeInt(delta);
+		out.flush();
+		records++;
+		count(new String(Hex.encodeHex(sha1)), delta);
+	}
+
+	private void count(String hex, int delta) {
+		Integer count = refs.get(hex);
+		int total = count == null ? delta : count + delta;
+		if (total > 0) {
+			refs.put(hex, total);
+		} else {
+			refs.remove(hex);
+		}
+	}
+
+	private void compact() throws IOException {
+		close();
+		File tmp = new File(dir, log.getName() + '$');
+		DataOutputStream dout = new DataOutputStream(
+				store.openOutputStream(tmp));
+		try {
+			for (Map.Entry<String, Integer> e : refs.entrySet()) {
+				dout.write(Hex.decodeHex(e.getKey().toCharArray()));
+				dout.writeInt(e.getValue());
+			}
+		} catch (DecoderException e) {
+			throw new AssertionError(e);
+		} finally {
+			dout.close();
+		}
+		VersionJournal.replace(tmp, log);
+		records = refs.size();
+	}
+}
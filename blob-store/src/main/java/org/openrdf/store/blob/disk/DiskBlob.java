@@ -29,6 +29,8 @@
 package org.openrdf.store.blob.disk;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -38,13 +40,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
@@ -52,7 +54,7 @@ import org.openrdf.store.blob.BlobObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class DiskBlob extends BlobObject implements DiskListener {
+public class DiskBlob extends BlobObject {
 	private static final int MAX_HISTORY = 1000;
 	private static final byte[] EMPTY_SHA1;
 	static {
@@ -64,7 +66,8 @@ public class DiskBlob extends BlobObject implements DiskListener {
 	}
 
 	private interface Closure<V> {
-		V call(String name, long length, byte[] sha1, String iri);
+		V call(String name, long length, byte[] sha1, String iri)
+				throws IOException;
 	};
 
 	private final Logger logger = LoggerFactory.getLogger(DiskBlob.class);
@@ -72,10 +75,10 @@ public class DiskBlob extends BlobObject implements DiskListener {
 	private final String uri;
 	final File dir;
 
-	/** listening for changes by other transactions */
+	/** opened for reading or writing in this version */
 	private boolean open;
-	/** Blob was changed and committed by another transaction */
-	private volatile boolean changed;
+	/** store sequence when opened, later commits are conflicts */
+	private long openSequence;
 	/** uncommitted delete of readFile */
 	private boolean deleted;
 
@@ -84,12 +87,20 @@ public class DiskBlob extends BlobObject implements DiskListener {
 	boolean readCompressed;
 	long readLength;
 	byte[] readDigest;
+	/** per-blob index name of the read version if packed */
+	String readPacked;
+	/** cache entry of the read version, if cached */
+	private BlobCache.Entry cached;
 
 	private File writeFile;
-	private boolean writeCompressed;
 	private long writeLength;
 	private byte[] writeDigest;
+	/** uncommitted content that is small enough to be packed */
+	private byte[] writeContent;
+	private long writeModified;
 	private OutputStream writeStream;
+	/** bytes of files deleted by erase */
+	private long reclaimed;
 
 	protected DiskBlob(DiskBlobVersion disk, String uri) {
 		super(uri);
@@ -122,16 +133,26 @@ public class DiskBlob extends BlobObject implements DiskListener {
 
 	public synchronized String[] getRecentVersions() throws IOException {
 		init(false);
+		String[] recent = disk.getRecentVersions(uri);
+		if (recent != null)
+			return recent;
 		final LinkedList<String> history = new LinkedList<String>();
-		eachVersion(new Closure<Void>() {
-			public Void call(String name, long length, byte[] sha1, String iri) {
-				history.addFirst(iri);
-				if (history.size() > MAX_HISTORY) {
-					history.removeLast();
+		Lock read = disk.readLock(uri);
+		try {
+			read.lock();
+			eachVersion(new Closure<Void>() {
+				public Void call(String name, long length, byte[] sha1, String iri) {
+					history.addFirst(iri);
+					if (history.size() > MAX_HISTORY) {
+						history.removeLast();
+					}
+					return null;
 				}
-				return null;
-			}
-		});
+			});
+			disk.putRecentVersions(uri, history);
+		} finally {
+			read.unlock();
+		}
 		return history.toArray(new String[history.size()]);
 	}
 
@@ -142,13 +163,14 @@ public class DiskBlob extends BlobObject implements DiskListener {
 			logger.error(e.toString(), e);
 			return false;
 		}
-		Lock read = disk.readLock();
+		Lock read = disk.readLock(uri);
 		try {
 			read.lock();
 			deleted = readFile != null && readFile.exists()
+					|| readPacked != null || writeContent != null
 					|| writeFile != null && writeFile.exists()
 					&& writeFile.getParentFile().canWrite();
-			if (writeFile != null) {
+			if (writeFile != null || writeContent != null) {
 				return deleteWriteFile();
 			} else {
 				return deleted;
@@ -165,7 +187,7 @@ public class DiskBlob extends BlobObject implements DiskListener {
 		init(false);
 		if (deleted)
 			return 0;
-		if (writeFile != null)
+		if (writeFile != null || writeContent != null)
 			return writeLength;
 		return readLength;
 	}
@@ -181,11 +203,15 @@ public class DiskBlob extends BlobObject implements DiskListener {
 			return 0;
 		if (writeFile != null)
 			return writeFile.lastModified();
-		if (readFile == null)
+		if (writeContent != null)
+			return writeModified;
+		if (readFile == null && readPacked == null)
 			return 0;
-		Lock read = disk.readLock();
+		Lock read = disk.readLock(uri);
 		try {
 			read.lock();
+			if (readPacked != null)
+				return disk.getPackStore().lastModified(readPacked);
 			return readFile.lastModified();
 		} finally {
 			read.unlock();
@@ -200,7 +226,7 @@ public class DiskBlob extends BlobObject implements DiskListener {
 			return writeFile;
 		if (readFile == null)
 			return null;
-		Lock read = disk.readLock();
+		Lock read = disk.readLock(uri);
 		try {
 			read.lock();
 			return readFile;
@@ -213,19 +239,79 @@ public class DiskBlob extends BlobObject implements DiskListener {
 		init(false);
 		if (deleted)
 			return null;
-		if (writeFile != null && writeCompressed)
-			return new GZIPInputStream(new FileInputStream(writeFile));
 		if (writeFile != null)
 			return new FileInputStream(writeFile);
-		if (readFile == null)
+		if (writeContent != null)
+			return new ByteArrayInputStream(writeContent);
+		if (readFile == null && readPacked == null)
 			return null;
-		Lock read = disk.readLock();
+		disk.read(readLength);
+		Lock read = disk.readLock(uri);
 		try {
 			read.lock();
+			BlobCache cache = disk.getBlobCache();
+			boolean caching = cached != null && cache != null
+					&& readLength <= cache.getMaxBlobSize();
+			if (caching) {
+				byte[] content = cache.getContent(cached);
+				if (content != null)
+					return new ByteArrayInputStream(content);
+			}
+			if (readPacked != null) {
+				byte[] content = readPackedContent();
+				if (caching) {
+					cache.putContent(uri, cached, content);
+				}
+				return new ByteArrayInputStream(content);
+			}
 			FileInputStream fin = new FileInputStream(readFile);
+			// the compactor may have since compressed the file
+			readCompressed = readLength > readFile.length();
+			InputStream in = fin;
+			if (readCompressed) {
+				fin.close();
+				in = new BlockGzipInputStream(readFile, 0);
+			}
+			if (caching) {
+				byte[] content = readFully(in, (int) readLength);
+				cache.putContent(uri, cached, content);
+				return new ByteArrayInputStream(content);
+			}
+			return in;
+		} finally {
+			read.unlock();
+		}
+	}
+
+	public synchronized InputStream openInputStream(long offset, long length)
+			throws IOException {
+		init(false);
+		if (deleted)
+			return null;
+		if (writeFile != null || writeContent != null)
+			return super.openInputStream(offset, length);
+		if (readFile == null && readPacked == null)
+			return null;
+		long remaining = Math.max(0, readLength - offset);
+		disk.read(length < 0 ? remaining : Math.min(length, remaining));
+		Lock read = disk.readLock(uri);
+		try {
+			read.lock();
+			BlobCache cache = disk.getBlobCache();
+			if (cached != null && cache != null) {
+				byte[] content = cache.getContent(cached);
+				if (content != null)
+					return slice(content, offset, length);
+			}
+			if (readPacked != null)
+				return slice(readPackedContent(), offset, length);
+			// the compactor may have since compressed the file
+			readCompressed = readLength > readFile.length();
 			if (readCompressed)
-				return new GZIPInputStream(fin);
-			return fin;
+				return limit(new BlockGzipInputStream(readFile, offset), length);
+			FileInputStream fin = new FileInputStream(readFile);
+			fin.getChannel().position(offset);
+			return limit(fin, length);
 		} finally {
 			read.unlock();
 		}
@@ -233,15 +319,17 @@ public class DiskBlob extends BlobObject implements DiskListener {
 
 	public synchronized OutputStream openOutputStream() throws IOException {
 		init(true);
-		if (writeFile == null) {
-			writeFile = new File(dir, newWriteFileName());
-			writeCompressed = readCompressed || readFile.length() <= 512;
-			writeLength = 0;
-			writeDigest = EMPTY_SHA1;
-		}
-		OutputStream out = disk.openOutputStream(writeFile);
-		if (writeCompressed) {
-			out = new GZIPOutputStream(out);
+		OutputStream out;
+		int threshold = disk.getPackThreshold();
+		if (threshold > 0 && !disk.isDeduplicating()) {
+			out = new SpillOutputStream(threshold);
+		} else {
+			if (writeFile == null) {
+				writeFile = new File(dir, newWriteFileName());
+				writeLength = 0;
+				writeDigest = EMPTY_SHA1;
+			}
+			out = disk.openOutputStream(writeFile);
 		}
 		final MessageDigest md;
 		try {
@@ -280,29 +368,34 @@ public class DiskBlob extends BlobObject implements DiskListener {
 				if (!closed) {
 					closed = true;
 					super.close();
-					written(fatal == null, size, md.digest(), this);
+					byte[] content = null;
+					if (out instanceof SpillOutputStream) {
+						content = ((SpillOutputStream) out).getContent();
+					}
+					written(fatal == null, size, md.digest(), content, this);
 				}
 			}
 		};
 	}
 
-	public void changed(String uri) {
-		changed = true;
-	}
-
 	protected synchronized boolean hasConflict() {
-		return changed;
+		return open && disk.isModifiedSince(uri, openSequence);
 	}
 
 	protected synchronized boolean isChangePending() {
-		return deleted || writeFile != null;
+		return deleted || writeFile != null || writeContent != null;
 	}
 
 	protected synchronized boolean resync() throws IOException {
 		final String erasing = disk.getVersion();
 		filterVersion(new Closure<Boolean>() {
 			public Boolean call(String name, long length, byte[] sha1,
-					String iri) {
+					String iri) throws IOException {
+				if (iri.equals(erasing) && ContentStore.isShared(name)) {
+					disk.getContentStore().release(name);
+				} else if (iri.equals(erasing) && PackStore.isPacked(name)) {
+					disk.getPackStore().release(name);
+				}
 				return !iri.equals(erasing);
 			}
 		});
@@ -320,17 +413,37 @@ public class DiskBlob extends BlobObject implements DiskListener {
 			String iri = disk.getVersion();
 			if (deleted) {
 				appendIndexFile(null, 0, EMPTY_SHA1, iri);
+				cached = null;
 				readVersion = iri;
 				return true;
+			} else if (writeContent != null) {
+				String name = disk.getPackStore().append(writeContent);
+				appendIndexFile(name, writeLength, writeDigest, iri);
+				cached = null;
+				readVersion = iri;
+				readFile = null;
+				readPacked = name;
+				readCompressed = false;
+				readLength = writeLength;
+				readDigest = writeDigest;
+				return true;
 			} else if (writeFile != null) {
-				if (writeCompressed && writeFile.length() >= writeLength / 2) {
-					uncompress(writeFile);
-					writeCompressed = false;
+				String name;
+				if (disk.isDeduplicating()) {
+					File local = writeFile;
+					ContentStore content = disk.getContentStore();
+					name = content.share(local, writeDigest);
+					writeFile = content.resolve(name);
+					deleteEmptyDirectories(local.getParentFile());
+				} else {
+					name = getLocalName(writeFile);
 				}
-				appendIndexFile(writeFile, writeLength, writeDigest, iri);
+				appendIndexFile(name, writeLength, writeDigest, iri);
+				cached = null;
 				readVersion = iri;
 				readFile = writeFile;
-				readCompressed = writeCompressed;
+				readPacked = null;
+				readCompressed = writeLength > writeFile.length();
 				readLength = writeLength;
 				readDigest = writeDigest;
 				return true;
@@ -338,20 +451,30 @@ public class DiskBlob extends BlobObject implements DiskListener {
 			return false;
 		} finally {
 			if (open) {
-				disk.unwatch(uri, this);
 				open = false;
-				changed = false;
 				writeFile = null;
+				writeContent = null;
 				deleted = false;
 			}
 		}
 	}
 
+	/**
+	 * Adds the files that must be on disk for the last sync to be durable.
+	 */
+	protected synchronized void addCommittedFiles(Collection<File> files) {
+		files.add(new File(dir, getIndexFileName(null)));
+		if (readFile != null && disk.getVersion().equals(readVersion)) {
+			files.add(readFile);
+		}
+		if (readPacked != null && disk.getVersion().equals(readVersion)) {
+			disk.getPackStore().addFiles(readPacked, files);
+		}
+	}
+
 	protected synchronized void abort() {
 		if (open) {
-			disk.unwatch(uri, this);
 			open = false;
-			changed = false;
 			deleted = false;
 			try {
 				deleteWriteFile();
@@ -365,10 +488,23 @@ public class DiskBlob extends BlobObject implements DiskListener {
 		final String erasing = disk.getVersion();
 		return filterVersion(new Closure<Boolean>() {
 			public Boolean call(String name, long length, byte[] sha1,
-					String iri) {
-				if (iri.equals(erasing) && name.length() > 0) {
+					String iri) throws IOException {
+				if (iri.equals(erasing) && ContentStore.isShared(name)) {
+					ContentStore content = disk.getContentStore();
+					long size = content.resolve(name).length();
+					if (content.release(name)) {
+						reclaimed += size;
+					}
+					return false;
+				} else if (iri.equals(erasing) && PackStore.isPacked(name)) {
+					reclaimed += disk.getPackStore().release(name);
+					return false;
+				} else if (iri.equals(erasing) && name.length() > 0) {
 					File file = new File(dir, name);
-					file.delete();
+					long size = file.length();
+					if (file.delete()) {
+						reclaimed += size;
+					}
 					File d = file.getParentFile();
 					String[] dlist = d.list();
 					if (dlist != null && dlist.length == 0) {
@@ -385,10 +521,82 @@ public class DiskBlob extends BlobObject implements DiskListener {
 		});
 	}
 
-	synchronized void written(boolean success, long size,
-			byte[] digest, OutputStream stream) throws IOException {
+	/**
+	 * Replaces the committed file of this blob with a smaller gzip copy, if
+	 * the policy calls for it. The copy is made without holding any lock and
+	 * is only swapped in if the blob has not changed since.
+	 * 
+	 * @return <code>true</code> if the file was compressed
+	 */
+	protected boolean compress(CodecPolicy policy) throws IOException {
+		final File file;
+		final long length;
+		final byte[] digest;
+		synchronized (this) {
+			if (writeFile != null || deleted || readFile == null
+					|| readCompressed || readLength == 0)
+				return false;
+			String dpath = dir.getAbsolutePath() + File.separatorChar;
+			if (!readFile.getAbsolutePath().startsWith(dpath))
+				return false; // shared content
+			file = readFile;
+			length = readLength;
+			digest = readDigest;
+		}
+		final int level = policy.getCompressionLevel(uri,
+				CodecPolicy.guessMediaType(uri), length);
+		if (level == CodecPolicy.NONE)
+			return false;
+		File gz = new File(file.getParentFile(), file.getName() + ".gz");
+		try {
+			if (!file.exists() || !gzip(file, gz, level, digest)
+					|| gz.length() >= length)
+				return false;
+			synchronized (this) {
+				Lock lock = disk.writeLock(uri);
+				// never wait for the lock while holding this monitor
+				if (!lock.tryLock())
+					return false;
+				try {
+					if (writeFile != null || deleted || !file.equals(readFile)
+							|| !MessageDigest.isEqual(digest, readDigest)
+							|| file.length() != length || !isCommitted(file, digest))
+						return false;
+					long compressed = gz.length();
+					if (!gz.renameTo(file))
+						return false;
+					readCompressed = true;
+					disk.compressed(length, compressed);
+					return true;
+				} finally {
+					lock.unlock();
+				}
+			}
+		} catch (FileNotFoundException e) {
+			return false; // erased
+		} finally {
+			gz.delete();
+		}
+	}
+
+	/**
+	 * Bytes of blob files deleted when this blob version was erased.
+	 */
+	protected synchronized long getReclaimedBytes() {
+		return reclaimed;
+	}
+
+	synchronized void written(boolean success, long size, byte[] digest,
+			byte[] content, OutputStream stream) throws IOException {
 		if (success) {
-			if (readFile != null && !readFile.equals(writeFile)
+			disk.written(size);
+			if (content != null) {
+				// replaces any earlier uncommitted write
+				deleteWriteFile();
+				writeContent = content;
+				writeModified = System.currentTimeMillis();
+			}
+			if ((readFile != null && !readFile.equals(writeFile) || readPacked != null)
 					&& readLength == size
 					&& MessageDigest.isEqual(readDigest, digest)) {
 				// no change to file
@@ -412,7 +620,8 @@ public class DiskBlob extends BlobObject implements DiskListener {
 		final PrintWriter writer = new PrintWriter(disk.openWriter(rest, false));
 		try {
 			eachVersion(new Closure<Void>() {
-				public Void call(String name, long length, byte[] sha1, String iri) {
+				public Void call(String name, long length, byte[] sha1,
+						String iri) throws IOException {
 					if (closure.call(name, length, sha1, iri)) {
 						writer.print(name);
 						writer.print(' ');
@@ -449,30 +658,55 @@ public class DiskBlob extends BlobObject implements DiskListener {
 		return false;
 	}
 
-	private void uncompress(File file) throws IOException {
-		File dir = file.getParentFile();
-		File gz = new File(dir, file.getName() + ".gz");
-		if (!file.renameTo(gz))
-			throw new IOException("Cannot rename " + file);
+	/**
+	 * Writes a gzip copy of the file.
+	 * 
+	 * @return <code>false</code> if the file no longer has the given digest
+	 */
+	private boolean gzip(File file, File gz, int level, byte[] digest)
+			throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA1");
+		} catch (NoSuchAlgorithmException exc) {
+			throw new AssertionError(exc);
+		}
+		InputStream in = new DigestInputStream(new FileInputStream(file), md);
 		try {
-			InputStream in = new GZIPInputStream(new FileInputStream(gz));
+			OutputStream out = new BlockGzipOutputStream(
+					disk.openOutputStream(gz), level);
 			try {
-				OutputStream out = disk.openOutputStream(file);
-				try {
-					int read;
-					byte[] buf = new byte[512];
-					while ((read = in.read(buf)) >= 0) {
-						out.write(buf, 0, read);
-					}
-				} finally {
-					out.close();
+				int read;
+				byte[] buf = new byte[8192];
+				while ((read = in.read(buf)) >= 0) {
+					out.write(buf, 0, read);
 				}
 			} finally {
-				in.close();
+				out.close();
 			}
 		} finally {
-			gz.delete();
+			in.close();
 		}
+		return MessageDigest.isEqual(digest, md.digest());
+	}
+
+	/**
+	 * If the per-blob index still lists this file for this version.
+	 */
+	private boolean isCommitted(File file, final byte[] digest)
+			throws IOException {
+		final String current = disk.getVersion();
+		final String local = getLocalName(file);
+		Boolean found = eachVersion(new Closure<Boolean>() {
+			public Boolean call(String name, long length, byte[] sha1,
+					String iri) {
+				if (iri.equals(current) && name.equals(local)
+						&& MessageDigest.isEqual(digest, sha1))
+					return Boolean.TRUE;
+				return null;
+			}
+		});
+		return found != null && found;
 	}
 
 	private boolean deleteWriteFile() throws IOException {
@@ -480,44 +714,113 @@ public class DiskBlob extends BlobObject implements DiskListener {
 			writeStream.close();
 			writeStream = null;
 		}
+		boolean buffered = writeContent != null;
+		writeContent = null;
 		if (writeFile != null && writeFile.delete()) {
-			File d = writeFile.getParentFile();
-			while (!d.equals(disk.getDirectory()) && d.delete()) {
-				d = d.getParentFile();
-			}
+			deleteEmptyDirectories(writeFile.getParentFile());
 			writeFile = null;
 			return true;
 		}
-		return false;
+		return buffered;
+	}
+
+	private void deleteEmptyDirectories(File d) {
+		while (!d.equals(disk.getDirectory()) && d.delete()) {
+			d = d.getParentFile();
+		}
 	}
 
 	private void init(boolean write) throws IOException {
 		if (!open) {
 			open = true;
-			disk.watch(uri, this);
+			openSequence = disk.getStoreSequence();
 		}
 		if (readDigest == null) {
-			Lock readLock = disk.readLock();
+			Lock readLock = disk.readLock(uri);
 			try {
 				readLock.lock();
-				initReadWriteFile();
+				BlobCache cache = disk.getBlobCache();
+				if (cache == null || disk.isCommitted()) {
+					initReadWriteFile();
+				} else {
+					initCachedReadFile(cache);
+				}
 			} finally {
 				readLock.unlock();
 			}
 		}
 	}
 
+	/**
+	 * Initialises the latest committed version from the cache, caching it if
+	 * absent. Must be called while holding the read lock.
+	 */
+	private void initCachedReadFile(BlobCache cache) throws IOException {
+		BlobCache.Entry entry = cache.get(uri);
+		if (entry == null) {
+			initReadWriteFile();
+			entry = cache.put(uri, readVersion, readFile, readPacked,
+					readLength, readDigest);
+		} else {
+			readVersion = entry.version;
+			readFile = entry.file;
+			readPacked = entry.packed;
+			readLength = entry.length;
+			readDigest = entry.digest;
+			// checked again when opened
+			readCompressed = false;
+		}
+		cached = entry;
+	}
+
+	private byte[] readPackedContent() throws IOException {
+		byte[] content = disk.getPackStore().read(readPacked);
+		if (content == null)
+			throw new FileNotFoundException(readPacked);
+		return content;
+	}
+
+	private InputStream slice(byte[] content, long offset, long length) {
+		int off = (int) Math.min(offset, content.length);
+		int len = content.length - off;
+		if (length >= 0 && length < len) {
+			len = (int) length;
+		}
+		return new ByteArrayInputStream(content, off, len);
+	}
+
+	private byte[] readFully(InputStream in, int length) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+			int read;
+			byte[] buf = new byte[Math.max(1, Math.min(length, 8192))];
+			while ((read = in.read(buf)) >= 0) {
+				out.write(buf, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
 	private void initReadWriteFile() throws IOException {
 		final String current = disk.getVersion();
 		readVersion = null;
 		readFile = null;
+		readPacked = null;
 		readLength = 0;
 		readDigest = EMPTY_SHA1;
 		eachVersion(new Closure<String>() {
 			public String call(String name, long l, byte[] d, String iri) {
 				readVersion = iri;
+				readPacked = null;
 				if (name.length() == 0) {
 					readFile = null;
+				} else if (ContentStore.isShared(name)) {
+					readFile = disk.getContentStore().resolve(name);
+				} else if (PackStore.isPacked(name)) {
+					readFile = null;
+					readPacked = name;
 				} else {
 					readFile = new File(dir, name);
 				}
@@ -529,7 +832,8 @@ public class DiskBlob extends BlobObject implements DiskListener {
 				return null;
 			}
 		});
-		readCompressed = readFile == null || readLength > readFile.length();
+		readCompressed = readPacked == null
+				&& (readFile == null || readLength > readFile.length());
 	}
 
 	private String newWriteFileName() throws IOException {
@@ -551,7 +855,7 @@ public class DiskBlob extends BlobObject implements DiskListener {
 	}
 
 	private <V> V eachVersion(Closure<V> closure) throws IOException {
-		Lock read = disk.readLock();
+		Lock read = disk.readLock(uri);
 		try {
 			read.lock();
 			File index = new File(dir, getIndexFileName(null));
@@ -587,22 +891,14 @@ public class DiskBlob extends BlobObject implements DiskListener {
 		return null;
 	}
 
-	private void appendIndexFile(File file, long length, byte[] sha1, String iri)
-			throws IOException {
+	private void appendIndexFile(String name, long length, byte[] sha1,
+			String iri) throws IOException {
 		assert sha1 != null && sha1.length > 0;
 		File index = new File(dir, getIndexFileName(null));
 		PrintWriter writer = new PrintWriter(disk.openWriter(index, true));
 		try {
-			if (file != null) {
-				String jpath = dir.getAbsolutePath();
-				String path = file.getAbsolutePath();
-				if (path.startsWith(jpath)
-						&& path.charAt(jpath.length()) == File.separatorChar) {
-					path = path.substring(jpath.length() + 1);
-				} else {
-					throw new AssertionError("Invalid blob entry path: " + path);
-				}
-				writer.print(path.replace(File.separatorChar, '/'));
+			if (name != null) {
+				writer.print(name);
 			}
 			writer.print(' ');
 			writer.print(Long.toString(length));
@@ -615,6 +911,18 @@ public class DiskBlob extends BlobObject implements DiskListener {
 		}
 	}
 
+	private String getLocalName(File file) {
+		String jpath = dir.getAbsolutePath();
+		String path = file.getAbsolutePath();
+		if (path.startsWith(jpath)
+				&& path.charAt(jpath.length()) == File.separatorChar) {
+			path = path.substring(jpath.length() + 1);
+		} else {
+			throw new AssertionError("Invalid blob entry path: " + path);
+		}
+		return path.replace(File.separatorChar, '/');
+	}
+
 	private String safe(String path) {
 		if (path == null)
 			return "";
@@ -645,4 +953,68 @@ public class DiskBlob extends BlobObject implements DiskListener {
 		return sb.toString();
 	}
 
+	/**
+	 * Keeps a new blob in memory until it grows past the pack threshold, then
+	 * writes it to a file.
+	 */
+	private class SpillOutputStream extends OutputStream {
+		private final int threshold;
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private OutputStream file;
+
+		SpillOutputStream(int threshold) {
+			this.threshold = threshold;
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (file == null && buffer.size() + len > threshold) {
+				spill();
+			}
+			if (file == null) {
+				buffer.write(b, off, len);
+			} else {
+				file.write(b, off, len);
+			}
+		}
+
+		public void flush() throws IOException {
+			if (file != null) {
+				file.flush();
+			}
+		}
+
+		public void close() throws IOException {
+			if (file != null) {
+				file.close();
+			}
+		}
+
+		/**
+		 * The buffered content, or null if it was written to a file.
+		 */
+		byte[] getContent() {
+			if (buffer == null)
+				return null;
+			return buffer.toByteArray();
+		}
+
+		private void spill() throws IOException {
+			synchronized (DiskBlob.this) {
+				writeContent = null;
+				if (writeFile == null) {
+					writeFile = new File(dir, newWriteFileName());
+					writeLength = 0;
+					writeDigest = EMPTY_SHA1;
+				}
+				file = disk.openOutputStream(writeFile);
+			}
+			buffer.writeTo(file);
+			buffer = null;
+		}
+	}
+
 }
@@ -30,42 +30,84 @@ package org.openrdf.store.blob.disk;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.openrdf.store.blob.BlobObject;
 import org.openrdf.store.blob.BlobStore;
+import org.openrdf.store.blob.BlobStoreImporter;
+import org.openrdf.store.blob.BlobStoreMXBean;
+import org.openrdf.store.blob.LatencyHistogram;
+import org.openrdf.store.blob.disk.StripedLock.StripeSet;
 
-public class DiskBlobStore implements BlobStore {
+public class DiskBlobStore implements BlobStore, BlobStoreImporter,
+		BlobStoreMXBean {
 	private static final int MAX_HISTORY = 1000;
-
-	private interface Closure<V> {
-		V call(String name, String iri) throws IOException;
-	};
+	private static final int LOCK_STRIPES = 128;
+	private static final int MIN_PRUNE = 1024;
+	private static final int MAX_HISTORIES = 256;
 
 	private final File dir;
 	final File journal;
 	final String prefix;
+	/** committed version -> change file */
+	private final VersionJournal versions;
+	/** blob bodies shared by digest */
+	private final ContentStore content;
+	private volatile boolean deduplicating;
+	private final PackStore packs;
+	/** largest blob appended to a pack segment, zero to never pack */
+	private volatile int packThreshold;
+	private volatile int importThreads = Runtime.getRuntime()
+			.availableProcessors();
+	/** compresses committed blobs in the background */
+	private final BlobCompactor compactor;
+	/** erases obsolete versions in the background */
+	private final BlobVacuum vacuum;
+	/** latest index entry and content of hot blobs, if enabled */
+	private volatile BlobCache cache;
 	final AtomicLong seq = new AtomicLong(0);
-	private final ReentrantReadWriteLock diskLock = new ReentrantReadWriteLock();
-	private final Map<String, Set<DiskListener>> listeners = new HashMap<String, Set<DiskListener>>();
+	/** locks blob files and per-blob indexes */
+	private final StripedLock blobLocks = new StripedLock(LOCK_STRIPES);
+	/** locks the version index, obsolete list and version change files */
+	private final Lock journalLock = new ReentrantLock();
+	/** incremented by every commit */
+	private final AtomicLong sequence = new AtomicLong(0);
+	/** blob -> sequence of its last commit, pruned of old commits */
+	private final ConcurrentMap<String, Long> committed = new ConcurrentHashMap<String, Long>();
+	private volatile int pruneAt = MIN_PRUNE;
+	/** recently committed blobs and blob histories */
+	private final RecentChanges recent = new RecentChanges(MAX_HISTORY,
+			MAX_HISTORIES);
+	private final LatencyHistogram commits = new LatencyHistogram();
+	private final LatencyHistogram prepares = new LatencyHistogram();
+	private final AtomicLong lockWait = new AtomicLong();
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong rawBytes = new AtomicLong();
+	private final AtomicLong compressedBytes = new AtomicLong();
 	/** version -> open DiskTransaction */
 	private final Map<String, WeakReference<DiskBlobVersion>> transactions;
 
@@ -75,19 +117,24 @@ public class DiskBlobStore implements BlobStore {
 		this.journal = new File(dir, "$versions");
 		this.transactions = new WeakHashMap<String, WeakReference<DiskBlobVersion>>();
 		this.prefix = new File(getDirectory(), "trx").toURI().toString();
-		eachEntry(new Closure<Void>() {
-			public Void call(String name, String iri) {
-				if (iri.startsWith(prefix)) {
-					try {
-						String suffix = iri.substring(prefix.length());
-						seq.set(Math.max(seq.get(), Long.parseLong(suffix)));
-					} catch (NumberFormatException exc) {
-						// ignore
-					}
+		this.versions = new VersionJournal(this, new File(journal, "journal"));
+		versions.load(new File(journal, "index"));
+		this.content = new ContentStore(this, new File(dir, "$content"));
+		this.packs = new PackStore(this, new File(dir, "$packs"));
+		this.compactor = new BlobCompactor(dir.getName());
+		this.vacuum = new BlobVacuum(this);
+		content.load();
+		packs.load();
+		for (String iri : versions.getVersions()) {
+			if (iri.startsWith(prefix)) {
+				try {
+					String suffix = iri.substring(prefix.length());
+					seq.set(Math.max(seq.get(), Long.parseLong(suffix)));
+				} catch (NumberFormatException exc) {
+					// ignore
 				}
-				return null;
 			}
-		});
+		}
 	}
 
 	public String toString() {
@@ -111,10 +158,214 @@ public class DiskBlobStore implements BlobStore {
 		return true;
 	}
 
+	/**
+	 * If new blob bodies are stored once per SHA-1 digest and shared by
+	 * reference count, instead of once per blob version.
+	 */
+	public boolean isDeduplicating() {
+		return deduplicating;
+	}
+
+	public void setDeduplicating(boolean deduplicating) {
+		this.deduplicating = deduplicating;
+	}
+
+	/**
+	 * New blobs of at most this many bytes are appended to shared pack
+	 * segments instead of a file per version, unless deduplicating. Zero (the
+	 * default) never packs blobs.
+	 */
+	public int getPackThreshold() {
+		return packThreshold;
+	}
+
+	public void setPackThreshold(int bytes) {
+		this.packThreshold = bytes;
+	}
+
+	/**
+	 * Number of threads that write and sync blobs in
+	 * {@link #importAll(Iterator)}, the number of processors by default.
+	 */
+	public int getImportThreads() {
+		return importThreads;
+	}
+
+	public void setImportThreads(int threads) {
+		assert threads > 0;
+		this.importThreads = threads;
+	}
+
+	/**
+	 * When committed versions are forced to disk, {@link Durability#NONE} by
+	 * default.
+	 */
+	public Durability getDurability() {
+		return versions.getDurability();
+	}
+
+	public void setDurability(Durability durability) {
+		versions.setDurability(durability);
+	}
+
+	/**
+	 * How committed blobs are compressed in the background, none by default.
+	 * Blobs are always written uncompressed.
+	 */
+	public CodecPolicy getCodecPolicy() {
+		return compactor.getCodecPolicy();
+	}
+
+	public void setCodecPolicy(CodecPolicy policy) {
+		compactor.setCodecPolicy(policy);
+	}
+
+	/**
+	 * Cache of recently read blobs, or null if not caching.
+	 */
+	public BlobCache getBlobCache() {
+		return cache;
+	}
+
+	public void setBlobCache(BlobCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Erases obsolete versions by a retention policy, once started.
+	 */
+	public BlobVacuum getVacuum() {
+		return vacuum;
+	}
+
+	public String getLocation() {
+		return dir.getAbsolutePath();
+	}
+
+	public long[] getLatencyBucketMillis() {
+		return LatencyHistogram.getBucketMillis();
+	}
+
+	public long getCommitCount() {
+		return commits.getCount();
+	}
+
+	public double getCommitMeanMillis() {
+		return commits.getMeanMillis();
+	}
+
+	public double getCommitMaxMillis() {
+		return commits.getMaxMillis();
+	}
+
+	public long[] getCommitLatencyHistogram() {
+		return commits.getHistogram();
+	}
+
+	public long getPrepareCount() {
+		return prepares.getCount();
+	}
+
+	public double getPrepareMeanMillis() {
+		return prepares.getMeanMillis();
+	}
+
+	public double getPrepareMaxMillis() {
+		return prepares.getMaxMillis();
+	}
+
+	public long[] getPrepareLatencyHistogram() {
+		return prepares.getHistogram();
+	}
+
+	public long getWriteLockWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(lockWait.get());
+	}
+
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	public long getRawBytes() {
+		return rawBytes.get();
+	}
+
+	public long getCompressedBytes() {
+		return compressedBytes.get();
+	}
+
+	public int getOpenVersionCount() {
+		int count = 0;
+		synchronized (transactions) {
+			for (WeakReference<DiskBlobVersion> ref : transactions.values()) {
+				if (ref.get() != null) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	public int getWatchedBlobCount() {
+		return committed.size();
+	}
+
+	public long getJournalSize() {
+		return versions.getSize();
+	}
+
+	public long getCacheHitCount() {
+		BlobCache c = cache;
+		return c == null ? 0 : c.getHitCount();
+	}
+
+	public long getCacheMissCount() {
+		BlobCache c = cache;
+		return c == null ? 0 : c.getMissCount();
+	}
+
+	public void resetStatistics() {
+		commits.reset();
+		prepares.reset();
+		lockWait.set(0);
+		bytesRead.set(0);
+		bytesWritten.set(0);
+		rawBytes.set(0);
+		compressedBytes.set(0);
+	}
+
 	public BlobObject open(String uri) throws IOException {
 		return new LiveDiskBlob(this, uri);
 	}
 
+	public DiskBlobVersion importAll(
+			Iterator<? extends Map.Entry<String, ? extends InputStream>> blobs)
+			throws IOException {
+		DiskBlobVersion version = newVersion();
+		BlobImporter importer = new BlobImporter(this, importThreads);
+		boolean committed = false;
+		try {
+			while (blobs.hasNext()) {
+				Map.Entry<String, ? extends InputStream> e = blobs.next();
+				importer.write(version.open(e.getKey()), e.getValue());
+			}
+			importer.awaitWritten();
+			version.commit(importer);
+			committed = true;
+			return version;
+		} finally {
+			if (!committed) {
+				importer.abort();
+				version.rollback();
+			}
+			importer.shutdown();
+		}
+	}
+
 	public DiskBlobVersion newVersion() throws IOException {
 		return newVersion(prefix + seq.incrementAndGet());
 	}
@@ -134,16 +385,11 @@ public class DiskBlobStore implements BlobStore {
 		}
 	}
 
-	public DiskBlobVersion openVersion(final String version) throws IOException {
-		File entry = eachEntry(new Closure<File>() {
-			public File call(String name, String id) {
-				if (id.equals(version))
-					return new File(journal, name);
-				return null;
-			}
-		});
-		if (entry == null)
+	public DiskBlobVersion openVersion(String version) throws IOException {
+		String name = versions.get(version);
+		if (name == null)
 			throw new IllegalArgumentException("Unknown blob version: " + version);
+		File entry = new File(journal, name);
 		synchronized (transactions) {
 			WeakReference<DiskBlobVersion> ref = transactions.get(version);
 			if (ref != null) {
@@ -159,59 +405,39 @@ public class DiskBlobStore implements BlobStore {
 	}
 
 	public String[] getRecentModifications() throws IOException {
-		Lock readLock = readLock();
-		try {
-			readLock.lock();
-			final LinkedList<String> history = new LinkedList<String>();
-			final Map<String, String> map = new HashMap<String, String>(MAX_HISTORY);
-			eachEntry(new Closure<Void>() {
-				public Void call(String name, String iri) {
-					history.addFirst(name);
-					if (history.size() > MAX_HISTORY) {
-						history.removeLast();
-						map.remove(name);
-					}
-					map.put(name, iri);
-					return null;
-				}
-			});
-			final LinkedList<String> blobs = new LinkedList<String>();
-			for (String name : history) {
-				String version = map.get(name);
-				File entry = new File(journal, name);
-				new DiskBlobVersion(this, version, entry).addOpenBlobs(blobs);
-				if (blobs.size() >= MAX_HISTORY)
-					break;
-			}
-			return blobs.toArray(new String[blobs.size()]);
-		} finally {
-			readLock.unlock();
+		if (!recent.isLoaded()) {
+			loadRecentModifications();
 		}
+		return recent.getModifications();
 	}
 
 	public boolean erase() throws IOException {
-		File index = new File(journal, "index");
-		File tmp = new File(journal, "index$");
-		lock();
+		StripeSet lock = blobLocks.writeLock();
+		lock.lock();
 		try {
-			new File(journal, "obsolete").delete();
-			if (index.exists()) {
-				copy(index, tmp, null);
+			List<String> erasing;
+			journalLock.lock();
+			try {
+				new File(journal, "obsolete").delete();
+				erasing = versions.getVersions();
+			} finally {
+				journalLock.unlock();
 			}
-			eachEntry(tmp, new Closure<Void>() {
-				public Void call(String name, String iri) throws IOException {
-					openVersion(iri).erase();
-					return null;
-				}
-			});
+			for (String version : erasing) {
+				openVersion(version).erase();
+			}
+			BlobCache c = cache;
+			if (c != null) {
+				c.clear();
+			}
+			recent.clear();
 			return true;
 		} finally {
-			tmp.delete();
 			String[] list = journal.list();
 			if (list != null && list.length == 0) {
 				journal.delete();
 			}
-			unlock();
+			lock.unlock();
 		}
 	}
 
@@ -219,6 +445,14 @@ public class DiskBlobStore implements BlobStore {
 		return dir;
 	}
 
+	protected ContentStore getContentStore() {
+		return content;
+	}
+
+	protected PackStore getPackStore() {
+		return packs;
+	}
+
 	protected boolean mkdirs(File dir) {
 		if (dir.isDirectory())
 			return false;
@@ -234,24 +468,23 @@ public class DiskBlobStore implements BlobStore {
 	}
 
 	protected OutputStream openOutputStream(File file) throws IOException {
-		File dir = file.getParentFile();
-		mkdirs(dir);
-		if (!dir.canWrite() || file.exists() && !file.canWrite())
+		return openOutputStream(file, false);
+	}
+
+	protected OutputStream openOutputStream(File file, boolean append)
+			throws IOException {
+		if (!createNewFile(file))
 			throw new IOException("Cannot open blob file for writing");
-		file.createNewFile();
 		file.setReadable(false, false);
 		file.setReadable(true);
 		file.setWritable(false, false);
 		file.setWritable(true);
-		return new FileOutputStream(file);
+		return new FileOutputStream(file, append);
 	}
 
 	protected Writer openWriter(File file, boolean append) throws IOException {
-		File dir = file.getParentFile();
-		mkdirs(dir);
-		if (!dir.canWrite() || file.exists() && !file.canWrite())
+		if (!createNewFile(file))
 			throw new IOException("Cannot open file for writing");
-		file.createNewFile();
 		file.setReadable(false, false);
 		file.setReadable(true);
 		file.setWritable(false, false);
@@ -259,42 +492,100 @@ public class DiskBlobStore implements BlobStore {
 		return new FileWriter(file, append);
 	}
 
-	protected void watch(String uri, DiskListener listener) {
-		synchronized (listeners) {
-			Set<DiskListener> set = listeners.get(uri);
-			if (set == null) {
-				listeners.put(uri, set = new HashSet<DiskListener>());
-			}
-			set.add(listener);
-		}
+	/**
+	 * Sequence number of the last commit, which increases with every commit.
+	 */
+	protected long getSequence() {
+		return sequence.get();
 	}
 
-	protected boolean unwatch(String uri, DiskListener listener) {
-		synchronized (listeners) {
-			Set<DiskListener> set = listeners.get(uri);
-			if (set == null)
-				return false;
-			boolean ret = set.remove(listener);
-			if (set.isEmpty()) {
-				listeners.remove(uri);
-			}
-			return ret;
-		}
+	/**
+	 * If this blob has been committed since the given sequence number.
+	 */
+	protected boolean isModifiedSince(String uri, long since) {
+		Long last = committed.get(uri);
+		return last != null && last > since;
+	}
+
+	/**
+	 * Blobs of different stripes never share an index file.
+	 */
+	protected int stripeOf(String uri) {
+		return blobLocks.indexOf(uri);
+	}
+
+	/**
+	 * Records how long a version took to commit, from the given
+	 * {@link System#nanoTime()}.
+	 */
+	protected void committed(long start) {
+		commits.since(start);
 	}
 
-	protected Lock readLock() {
-		return diskLock.readLock();
+	protected void prepared(long start, long lockWaitNanos) {
+		prepares.since(start);
+		lockWait.addAndGet(lockWaitNanos);
 	}
 
-	protected void lock() {
-		diskLock.writeLock().lock();
+	protected void read(long bytes) {
+		bytesRead.addAndGet(bytes);
 	}
 
-	protected void unlock() {
-		diskLock.writeLock().unlock();
+	protected void written(long bytes) {
+		bytesWritten.addAndGet(bytes);
 	}
 
-	protected void changed(String version, Collection<String> blobs, File entry, Collection<String> previousVersions)
+	protected void compressed(long raw, long compressed) {
+		rawBytes.addAndGet(raw);
+		compressedBytes.addAndGet(compressed);
+	}
+
+	protected Lock readLock(String uri) {
+		return blobLocks.readLock(uri);
+	}
+
+	protected StripeSet writeLock(Collection<String> uris) {
+		return blobLocks.writeLock(uris);
+	}
+
+	protected Lock journalLock() {
+		return journalLock;
+	}
+
+	/**
+	 * Records the sequence of these committed changes, so other open blobs
+	 * can detect the conflict. Must be called while holding the write lock of
+	 * the blobs.
+	 */
+	protected void changed(String version, Collection<String> blobs, File entry)
+			throws IOException {
+		Long seq = sequence.incrementAndGet();
+		for (String uri : blobs) {
+			invalidate(uri);
+			committed.put(uri, seq);
+		}
+		recent.committed(version, blobs);
+		if (committed.size() > pruneAt) {
+			prune();
+		}
+	}
+
+	/**
+	 * Removes the cached entry of a blob, must be called while holding the
+	 * write lock of the blob.
+	 */
+	protected void invalidate(String uri) {
+		BlobCache c = cache;
+		if (c != null) {
+			c.invalidate(uri);
+		}
+	}
+
+	/**
+	 * Records which of these previous versions no longer have any current
+	 * blobs, called after the blob write locks are released.
+	 */
+	protected void superseded(Collection<String> previousVersions)
 			throws IOException {
 		Set<String> obsolete = new HashSet<String>();
 		for (String previous : previousVersions) {
@@ -302,134 +593,226 @@ public class DiskBlobStore implements BlobStore {
 				obsolete.add(previous);
 			}
 		}
-		for (String uri : blobs) {
-			Set<DiskListener> set = listeners.get(uri);
-			if (set != null) {
-				for (DiskListener listener : set) {
-					listener.changed(uri);
-				}
-			}
-		}
 		if (!obsolete.isEmpty()) {
 			appendObsolete(obsolete);
 		}
 	}
 
-	protected void newBlobVersion(String version, File file) throws IOException {
-		lock();
+	/**
+	 * Appends a new version to the journal once the given files it depends on
+	 * are forced to disk. The returned flush should be awaited after the
+	 * journal lock is released, so concurrent commits can be forced together.
+	 */
+	protected VersionJournal.Flush newBlobVersion(String version, File file,
+			Collection<File> written) throws IOException {
+		journalLock.lock();
 		try {
-			File f = new File(journal, "index");
-			PrintWriter index = new PrintWriter(openWriter(f, true));
-			try {
-				String jpath = journal.getAbsolutePath();
-				String path = file.getAbsolutePath();
-				if (path.startsWith(jpath) && path.charAt(jpath.length()) == File.separatorChar) {
-					path = path.substring(jpath.length() + 1);
-				} else {
-					throw new AssertionError("Invalid version entry path: " + path);
-				}
-				index.print(path.replace(File.separatorChar, '/'));
-				index.print(' ');
-				index.println(version);
-			} finally {
-				index.close();
+			String jpath = journal.getAbsolutePath();
+			String path = file.getAbsolutePath();
+			if (path.startsWith(jpath) && path.charAt(jpath.length()) == File.separatorChar) {
+				path = path.substring(jpath.length() + 1);
+			} else {
+				throw new AssertionError("Invalid version entry path: " + path);
 			}
+			return versions.add(version, path.replace(File.separatorChar, '/'),
+					written);
 		} finally {
-			unlock();
+			journalLock.unlock();
 		}
 	}
 
-	protected void removeFromIndex(String erasing) throws IOException {
-		lock();
+	/**
+	 * Schedules a newly committed blob to be compressed by the codec policy.
+	 */
+	protected void compact(DiskBlob blob) {
+		compactor.committed(blob);
+	}
+
+	/**
+	 * Forces the given files of an existing version to disk.
+	 */
+	protected VersionJournal.Flush flush(Collection<File> written)
+			throws IOException {
+		return versions.flush(written);
+	}
+
+	/**
+	 * Recent versions of this blob held in memory, or null if not held.
+	 */
+	protected String[] getRecentVersions(String uri) {
+		return recent.getVersions(uri);
+	}
+
+	/**
+	 * Holds the recent versions of this blob in memory, must be called while
+	 * holding the read lock of the blob.
+	 */
+	protected void putRecentVersions(String uri, List<String> history) {
+		recent.putVersions(uri, history);
+	}
+
+	/**
+	 * Removes an erased version from the index, must be called while holding
+	 * the write lock of its blobs.
+	 */
+	protected void removeFromIndex(String erasing, Collection<String> blobs)
+			throws IOException {
+		journalLock.lock();
 		try {
-			File index = new File(journal, "index");
-			File rest = new File(journal, "index$"
-					+ Integer.toHexString(erasing.hashCode()));
-			boolean empty = copy(index, rest, erasing);
-			index.delete();
-			if (empty) {
-				rest.delete();
+			recent.erased(erasing, blobs);
+			if (versions.remove(erasing) && versions.isEmpty()) {
 				String[] list = journal.list();
 				if (list != null && list.length == 0) {
 					journal.delete();
 				}
-			} else {
-				rest.renameTo(index);
 			}
 		} finally {
-			unlock();
+			journalLock.unlock();
 		}
 	}
 
-	private boolean copy(File source, File destintation, String exclude)
-			throws FileNotFoundException, IOException {
-		boolean empty = true;
-		BufferedReader reader = new BufferedReader(new FileReader(source));
+	/**
+	 * Forgets commits that are older than every open version, as no blob
+	 * could have read before them.
+	 */
+	private void prune() {
+		long oldest = sequence.get();
+		synchronized (transactions) {
+			for (WeakReference<DiskBlobVersion> ref : transactions.values()) {
+				DiskBlobVersion version = ref.get();
+				if (version != null) {
+					oldest = Math.min(oldest, version.getSequence());
+				}
+			}
+		}
+		Iterator<Long> iter = committed.values().iterator();
+		while (iter.hasNext()) {
+			if (iter.next() <= oldest) {
+				iter.remove();
+			}
+		}
+		pruneAt = Math.max(MIN_PRUNE, committed.size() * 2);
+	}
+
+	private void loadRecentModifications() throws IOException {
+		journalLock.lock();
 		try {
-			PrintWriter writer = new PrintWriter(openWriter(destintation, false));
+			if (recent.isLoaded())
+				return;
+			List<String[]> modifications = new ArrayList<String[]>();
+			List<String> blobs = new ArrayList<String>();
+			for (String version : versions.getRecentVersions(MAX_HISTORY)) {
+				String name = versions.get(version);
+				if (name == null)
+					continue;
+				File entry = new File(journal, name);
+				blobs.clear();
+				new DiskBlobVersion(this, version, entry).addOpenBlobs(blobs);
+				for (String uri : blobs) {
+					modifications.add(new String[] { version, uri });
+				}
+				if (modifications.size() >= MAX_HISTORY)
+					break;
+			}
+			recent.load(modifications);
+		} finally {
+			journalLock.unlock();
+		}
+	}
+
+	private boolean createNewFile(File file) {
+		File dir = file.getParentFile();
+		for (int i = 0; i < 3; i++) {
+			// empty directories can be removed by a concurrent commit
+			mkdirs(dir);
+			if (!dir.canWrite() || file.exists() && !file.canWrite())
+				continue;
+			try {
+				file.createNewFile();
+				return true;
+			} catch (IOException e) {
+				continue;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Versions that were recorded as having no current blobs, oldest first.
+	 */
+	protected Set<String> readObsolete() throws IOException {
+		journalLock.lock();
+		try {
+			Set<String> obsolete = new LinkedHashSet<String>();
+			File f = new File(journal, "obsolete");
+			if (!f.exists())
+				return obsolete;
+			BufferedReader reader = new BufferedReader(new FileReader(f));
 			try {
 				String line;
 				while ((line = reader.readLine()) != null) {
-					String iri = line.substring(line.indexOf(' ') + 1);
-					if (!iri.equals(exclude)) {
-						writer.println(line);
-						empty = false;
+					if (line.length() > 0) {
+						obsolete.add(line);
 					}
 				}
 			} finally {
-				writer.close();
+				reader.close();
 			}
+			return obsolete;
 		} finally {
-			reader.close();
+			journalLock.unlock();
 		}
-		return empty;
 	}
 
-	private void appendObsolete(Set<String> obsolete) throws IOException {
-		lock();
+	/**
+	 * Removes these versions from the obsolete list, once they are erased.
+	 */
+	protected void removeObsolete(Set<String> erased) throws IOException {
+		if (erased.isEmpty())
+			return;
+		journalLock.lock();
 		try {
+			Set<String> obsolete = readObsolete();
+			obsolete.removeAll(erased);
 			File f = new File(journal, "obsolete");
-			PrintWriter index = new PrintWriter(openWriter(f, true));
-			try {
-				for (String o : obsolete) {
-					index.println(o);
+			if (obsolete.isEmpty()) {
+				f.delete();
+				String[] list = journal.list();
+				if (list != null && list.length == 0) {
+					journal.delete();
 				}
-			} finally {
-				index.close();
+			} else {
+				File tmp = new File(journal, "obsolete$");
+				PrintWriter writer = new PrintWriter(openWriter(tmp, false));
+				try {
+					for (String o : obsolete) {
+						writer.println(o);
+					}
+				} finally {
+					writer.close();
+				}
+				VersionJournal.replace(tmp, f);
 			}
 		} finally {
-			unlock();
+			journalLock.unlock();
 		}
 	}
 
-	private <V> V eachEntry(Closure<V> closure) throws IOException {
-		return eachEntry(new File(journal, "index"), closure);
-	}
-
-	private <V> V eachEntry(File index, Closure<V> closure) throws IOException {
-		Lock readLock = readLock();
+	private void appendObsolete(Set<String> obsolete) throws IOException {
+		journalLock.lock();
 		try {
-			readLock.lock();
-			if (!index.exists())
-				return null;
-			BufferedReader reader = new BufferedReader(new FileReader(index));
+			File f = new File(journal, "obsolete");
+			PrintWriter index = new PrintWriter(openWriter(f, true));
 			try {
-				String line;
-				while ((line = reader.readLine()) != null) {
-					String[] split = line.split("\\s+", 2);
-					V ret = closure.call(split[0], split[1]);
-					if (ret != null)
-						return ret;
+				for (String o : obsolete) {
+					index.println(o);
 				}
 			} finally {
-				reader.close();
+				index.close();
 			}
-		} catch (FileNotFoundException e) {
-			// same as empty file
 		} finally {
-			readLock.unlock();
+			journalLock.unlock();
 		}
-		return null;
 	}
 
 }
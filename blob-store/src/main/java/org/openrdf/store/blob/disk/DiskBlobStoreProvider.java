@@ -37,9 +37,33 @@ import org.openrdf.store.blob.BlobStore;
 import org.openrdf.store.blob.BlobStoreProvider;
 
 /**
- * Create a DiskBlobStore with history.
+ * Create a DiskBlobStore with history. Set the <code>dedup</code> parameter to
+ * <code>true</code> to store identical blob bodies only once. Set the
+ * <code>durability</code> parameter to <code>batched</code> or
+ * <code>per-commit</code> to force committed versions to disk. Set the
+ * <code>codec</code> parameter to <code>deflate:N</code> or a list of
+ * <code>media/type=codec</code> to compress committed blobs in the background.
+ * Set <code>retain-versions</code> (per blob) and/or <code>retain-seconds</code>
+ * to vacuum obsolete versions every <code>vacuum-interval</code> seconds,
+ * deleting at most <code>vacuum-rate</code> bytes per second. Set
+ * <code>cache-size</code> to cache hot blobs of up to <code>cache-blob-size</code>
+ * bytes in memory. Set <code>pack-size</code> to append blobs of up to that
+ * many bytes to shared pack segments, which are compacted by the vacuum. Set
+ * <code>import-threads</code> to the number of threads that write bulk imports.
  */
 public class DiskBlobStoreProvider implements BlobStoreProvider {
+	private static final String DEDUP = "dedup";
+	private static final String DURABILITY = "durability";
+	private static final String CODEC = "codec";
+	private static final String RETAIN_VERSIONS = "retain-versions";
+	private static final String RETAIN_SECONDS = "retain-seconds";
+	private static final String VACUUM_INTERVAL = "vacuum-interval";
+	private static final String VACUUM_RATE = "vacuum-rate";
+	private static final String CACHE_SIZE = "cache-size";
+	private static final String CACHE_BLOB_SIZE = "cache-blob-size";
+	private static final String PACK_SIZE = "pack-size";
+	private static final String IMPORT_THREADS = "import-threads";
+	private static final int DEFAULT_CACHE_BLOB_SIZE = 64 * 1024;
 
 	public BlobStore createBlobStore(String url, Map<String, String> map)
 			throws IOException {
@@ -49,8 +73,50 @@ public class DiskBlobStoreProvider implements BlobStoreProvider {
 		URI uri = URI.create(url);
 		if (uri.isAbsolute() && "file".equalsIgnoreCase(uri.getScheme())) {
 			File dir = new File(uri);
-			if (!dir.exists() || dir.isDirectory())
-				return new DiskBlobStore(dir);
+			if (!dir.exists() || dir.isDirectory()) {
+				DiskBlobStore store = new DiskBlobStore(dir);
+				if (map != null && map.containsKey(DEDUP)) {
+					store.setDeduplicating(Boolean.parseBoolean(map.get(DEDUP)));
+				}
+				if (map != null && map.containsKey(DURABILITY)) {
+					store.setDurability(Durability.valueOfName(map.get(DURABILITY)));
+				}
+				if (map != null && map.containsKey(CODEC)) {
+					store.setCodecPolicy(CodecPolicy.valueOf(map.get(CODEC)));
+				}
+				if (map != null && map.containsKey(CACHE_SIZE)) {
+					long size = Long.parseLong(map.get(CACHE_SIZE));
+					int blob = DEFAULT_CACHE_BLOB_SIZE;
+					if (map.containsKey(CACHE_BLOB_SIZE)) {
+						blob = Integer.parseInt(map.get(CACHE_BLOB_SIZE));
+					}
+					store.setBlobCache(new BlobCache(size, blob));
+				}
+				if (map != null && map.containsKey(PACK_SIZE)) {
+					store.setPackThreshold(Integer.parseInt(map.get(PACK_SIZE)));
+				}
+				if (map != null && map.containsKey(IMPORT_THREADS)) {
+					store.setImportThreads(Integer.parseInt(map.get(IMPORT_THREADS)));
+				}
+				if (map != null && (map.containsKey(RETAIN_VERSIONS)
+						|| map.containsKey(RETAIN_SECONDS) || map.containsKey(PACK_SIZE))) {
+					BlobVacuum vacuum = store.getVacuum();
+					if (map.containsKey(RETAIN_VERSIONS)) {
+						vacuum.setRetainVersions(Integer.parseInt(map.get(RETAIN_VERSIONS)));
+					}
+					if (map.containsKey(RETAIN_SECONDS)) {
+						vacuum.setRetainSeconds(Long.parseLong(map.get(RETAIN_SECONDS)));
+					}
+					if (map.containsKey(VACUUM_INTERVAL)) {
+						vacuum.setIntervalSeconds(Long.parseLong(map.get(VACUUM_INTERVAL)));
+					}
+					if (map.containsKey(VACUUM_RATE)) {
+						vacuum.setMaxBytesPerSecond(Long.parseLong(map.get(VACUUM_RATE)));
+					}
+					vacuum.start();
+				}
+				return store;
+			}
 		}
 		return null;
 	}
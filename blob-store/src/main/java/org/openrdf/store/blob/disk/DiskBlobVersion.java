@@ -38,8 +38,11 @@ import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -47,6 +50,7 @@ import java.util.concurrent.locks.Lock;
 
 import org.openrdf.store.blob.BlobObject;
 import org.openrdf.store.blob.BlobVersion;
+import org.openrdf.store.blob.disk.StripedLock.StripeSet;
 
 /**
  * Contains version information for a DiskBlob.
@@ -59,6 +63,12 @@ public class DiskBlobVersion implements BlobVersion {
 	private final Set<String> committed;
 	private final Map<String, DiskBlob> open;
 	private boolean prepared;
+	/** write lock of the open blobs while prepared */
+	private StripeSet locked;
+	/** bytes of the change file deleted by erase */
+	private long reclaimed;
+	/** store sequence when this version was opened */
+	private final long sequence;
 
 	protected DiskBlobVersion(DiskBlobStore store, final String version,
 			File file) throws IOException {
@@ -67,6 +77,7 @@ public class DiskBlobVersion implements BlobVersion {
 		assert file != null;
 		this.store = store;
 		this.version = version;
+		this.sequence = store.getSequence();
 		if (file.isFile()) {
 			this.journal = file.getParentFile();
 			this.open = readChanges(entry = file);
@@ -121,7 +132,11 @@ public class DiskBlobVersion implements BlobVersion {
 	public synchronized void prepare() throws IOException {
 		if (prepared)
 			return;
-		store.lock();
+		long start = System.nanoTime();
+		StripeSet lock = store.writeLock(open.keySet());
+		lock.lock();
+		long acquired = System.nanoTime();
+		locked = lock;
 		prepared = true;
 		boolean faild = true;
 		try {
@@ -133,43 +148,96 @@ public class DiskBlobVersion implements BlobVersion {
 			faild = false;
 		} finally {
 			if (faild) {
-				prepared = false;
-				store.unlock();
+				unprepare();
 			}
+			store.prepared(start, acquired - start);
 		}
 	}
 
 	public synchronized void commit() throws IOException {
+		commit(null);
+	}
+
+	/**
+	 * Commits the open blobs, syncing new blobs on the importer's threads if
+	 * one is given.
+	 */
+	protected synchronized void commit(BlobImporter importer)
+			throws IOException {
+		long start = System.nanoTime();
 		boolean newversion = committed.isEmpty();
+		if (prepared && !locked.covers(open.keySet())) {
+			// blobs were opened since prepare, lock and check them too
+			unprepare();
+		}
 		if (!prepared) {
 			prepare();
 		}
 		Set<String> obsolete = new HashSet<String>(open.size());
+		Set<File> written = new LinkedHashSet<File>();
+		Map<DiskBlob, String> pending = new LinkedHashMap<DiskBlob, String>();
 		for (Map.Entry<String, DiskBlob> e : open.entrySet()) {
 			if (e.getValue().isChangePending()) {
 				String version = e.getValue().getCommittedVersion();
 				if (committed.contains(e.getKey())) {
 					if (e.getValue().resync()) {
+						e.getValue().addCommittedFiles(written);
 						obsolete.add(version);
 					}
-				} else {
+				} else if (importer == null) {
 					if (e.getValue().sync()) {
+						e.getValue().addCommittedFiles(written);
 						committed.add(e.getKey());
 						obsolete.add(version);
 					}
+				} else {
+					pending.put(e.getValue(), version);
+				}
+			}
+		}
+		if (!pending.isEmpty()) {
+			Set<DiskBlob> synced = importer.sync(pending.keySet());
+			for (Map.Entry<DiskBlob, String> e : pending.entrySet()) {
+				if (synced.contains(e.getKey())) {
+					e.getKey().addCommittedFiles(written);
+					committed.add(e.getKey().toString());
+					obsolete.add(e.getValue());
 				}
 			}
 		}
 		open.keySet().retainAll(committed);
 		if (!committed.isEmpty()) {
-			File file = writeChanges(this.getVersion(), committed);
-			if (newversion) {
-				store.newBlobVersion(this.getVersion(), file);
+			if (isDeduplicating()) {
+				written.add(getContentStore().getReferenceLog());
 			}
-			store.changed(this.getVersion(), committed, file, obsolete);
+			Lock journalLock = store.journalLock();
+			File file;
+			VersionJournal.Flush flush;
+			journalLock.lock();
+			try {
+				file = writeChanges(this.getVersion(), committed);
+				written.add(file);
+				if (newversion) {
+					flush = store.newBlobVersion(this.getVersion(), file,
+							written);
+				} else {
+					flush = store.flush(written);
+				}
+			} finally {
+				journalLock.unlock();
+			}
+			// other commits can join the flush while we wait
+			flush.await();
+			store.changed(this.getVersion(), committed, file);
 		}
-		prepared = false;
-		store.unlock();
+		unprepare();
+		if (!obsolete.isEmpty()) {
+			store.superseded(obsolete);
+		}
+		for (String uri : committed) {
+			store.compact(open.get(uri));
+		}
+		store.committed(start);
 	}
 
 	public synchronized void rollback() {
@@ -179,32 +247,63 @@ public class DiskBlobVersion implements BlobVersion {
 			}
 		} finally {
 			if (prepared) {
-				prepared = false;
-				store.unlock();
+				unprepare();
 			}
 		}
 	}
 
 	public synchronized boolean erase() throws IOException {
 		assert entry != null;
-		store.lock();
+		StripeSet lock = store.writeLock(committed);
+		lock.lock();
 		try {
 			for (String key : committed) {
 				open.get(key).erase();
+				store.invalidate(key);
 			}
-			boolean ret = entry.delete();
-			File d = entry.getParentFile();
-			if (d.list().length == 0) {
-				d.delete();
-			}
-			if (d.getParentFile().list().length == 0) {
-				d.getParentFile().delete();
+			Lock journalLock = store.journalLock();
+			journalLock.lock();
+			try {
+				long size = entry.length();
+				boolean ret = entry.delete();
+				if (ret) {
+					reclaimed += size;
+				}
+				File d = entry.getParentFile();
+				if (d.list().length == 0) {
+					d.delete();
+				}
+				if (d.getParentFile().list().length == 0) {
+					d.getParentFile().delete();
+				}
+				store.removeFromIndex(getVersion(), committed);
+				return ret;
+			} finally {
+				journalLock.unlock();
 			}
-			store.removeFromIndex(getVersion());
-			return ret;
 		} finally {
-			store.unlock();
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Bytes of files deleted when this version was erased.
+	 */
+	protected synchronized long getReclaimedBytes() {
+		long total = reclaimed;
+		for (DiskBlob blob : open.values()) {
+			total += blob.getReclaimedBytes();
 		}
+		return total;
+	}
+
+	/**
+	 * When this version was committed, or zero if it is not committed.
+	 */
+	protected synchronized long getLastModified() {
+		if (entry == null)
+			return 0;
+		return entry.lastModified();
 	}
 
 	protected synchronized void addOpenBlobs(Collection<String> set) {
@@ -237,26 +336,88 @@ public class DiskBlobVersion implements BlobVersion {
 		return store.openWriter(file, append);
 	}
 
+	/**
+	 * If this version has been committed or was opened as a past version.
+	 */
+	protected synchronized boolean isCommitted() {
+		return entry != null;
+	}
+
+	protected BlobCache getBlobCache() {
+		return store.getBlobCache();
+	}
+
+	protected boolean isDeduplicating() {
+		return store.isDeduplicating();
+	}
+
+	protected ContentStore getContentStore() {
+		return store.getContentStore();
+	}
+
+	protected PackStore getPackStore() {
+		return store.getPackStore();
+	}
+
+	protected int getPackThreshold() {
+		return store.getPackThreshold();
+	}
+
 	protected String getVersion() {
 		return version;
 	}
 
-	protected void watch(String uri, DiskListener listener) {
-		store.watch(uri, listener);
+	protected long getSequence() {
+		return sequence;
+	}
+
+	protected long getStoreSequence() {
+		return store.getSequence();
+	}
+
+	protected boolean isModifiedSince(String uri, long since) {
+		return store.isModifiedSince(uri, since);
+	}
+
+	protected String[] getRecentVersions(String uri) {
+		return store.getRecentVersions(uri);
+	}
+
+	protected void putRecentVersions(String uri, List<String> history) {
+		store.putRecentVersions(uri, history);
+	}
+
+	protected void read(long bytes) {
+		store.read(bytes);
 	}
 
-	protected boolean unwatch(String uri, DiskListener listener) {
-		return store.unwatch(uri, listener);
+	protected void written(long bytes) {
+		store.written(bytes);
 	}
 
-	protected Lock readLock() {
-		return store.readLock();
+	protected void compressed(long raw, long compressed) {
+		store.compressed(raw, compressed);
+	}
+
+	protected Lock readLock(String uri) {
+		return store.readLock(uri);
+	}
+
+	protected Lock writeLock(String uri) {
+		return store.writeLock(Collections.singleton(uri));
+	}
+
+	private void unprepare() {
+		prepared = false;
+		StripeSet lock = locked;
+		locked = null;
+		lock.unlock();
 	}
 
 	private Map<String, DiskBlob> readChanges(File changes) throws IOException {
-		Lock readLock = store.readLock();
+		Lock journalLock = store.journalLock();
 		try {
-			readLock.lock();
+			journalLock.lock();
 			BufferedReader reader = new BufferedReader(new FileReader(changes));
 			try {
 				String uri;
@@ -271,7 +432,7 @@ public class DiskBlobVersion implements BlobVersion {
 		} catch (FileNotFoundException e) {
 			return new HashMap<String, DiskBlob>();
 		} finally {
-			readLock.unlock();
+			journalLock.unlock();
 		}
 	}
 
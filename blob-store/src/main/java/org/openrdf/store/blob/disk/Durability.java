@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2011, 3 Round Stones Inc. Some rights reserved.
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
  * 
  * Redistribution and use in source and binary forms, with or without
  * modification, are permitted provided that the following conditions are met:
@@ -29,9 +29,31 @@
 package org.openrdf.store.blob.disk;
 
 /**
- * Listens for notification of changes to blobs.
+ * When committed blob versions are forced to the storage device.
  */
-public interface DiskListener {
+public enum Durability {
+	/** left to the operating system to write out */
+	NONE("none"),
+	/** concurrent commits are forced together by a single flusher thread */
+	BATCHED("batched"),
+	/** every commit is forced before it returns */
+	PER_COMMIT("per-commit");
 
-	void changed(String uri);
+	public static Durability valueOfName(String name) {
+		for (Durability d : values()) {
+			if (d.name.equalsIgnoreCase(name) || d.name().equalsIgnoreCase(name))
+				return d;
+		}
+		throw new IllegalArgumentException("Unknown durability: " + name);
+	}
+
+	private final String name;
+
+	private Durability(String name) {
+		this.name = name;
+	}
+
+	public String toString() {
+		return name;
+	}
 }
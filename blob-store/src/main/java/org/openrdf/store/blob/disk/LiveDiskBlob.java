@@ -107,7 +107,6 @@ public class LiveDiskBlob extends BlobObject {
 	}
 
 	public boolean delete() {
-		store.lock();
 		try {
 			BlobVersion version = store.newVersion();
 			boolean ret = version.open(uri).delete();
@@ -124,8 +123,6 @@ public class LiveDiskBlob extends BlobObject {
 		} catch (IOException exc) {
 			logger.error(exc.toString(), exc);
 			return false;
-		} finally {
-			store.unlock();
 		}
 	}
 
@@ -172,6 +169,11 @@ public class LiveDiskBlob extends BlobObject {
 		return store.newVersion().open(uri).openInputStream();
 	}
 
+	public InputStream openInputStream(long offset, long length)
+			throws IOException {
+		return store.newVersion().open(uri).openInputStream(offset, length);
+	}
+
 	public File toFile() throws IOException {
 		return store.newVersion().open(uri).toFile();
 	}
@@ -0,0 +1,533 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.disk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Small blob bodies appended to shared segment files, instead of a file per
+ * blob version. Each segment has an index of the offset of every entry
+ * appended to it and of the entries since removed. Segments that are mostly
+ * removed entries are compacted by copying their live entries into the
+ * current segment.
+ */
+public class PackStore {
+	/** prefix of per-blob index names that refer to packed content */
+	public static final String PREFIX = "pack:";
+	/** id, offset, length (-1 if removed), and last modified */
+	private static final int RECORD_SIZE = 8 + 8 + 4 + 8;
+	private static final long MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static class Location {
+		final Segment segment;
+		final long offset;
+		final int length;
+		final long modified;
+
+		Location(Segment segment, long offset, int length, long modified) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.modified = modified;
+		}
+	}
+
+	private static class Segment {
+		final int number;
+		final File data;
+		final File index;
+		long size;
+		/** bytes and number of live entries */
+		long live;
+		int count;
+		FileChannel reader;
+
+		Segment(File dir, int number) {
+			this.number = number;
+			String name = Integer.toHexString(number);
+			while (name.length() < 8) {
+				name = '0' + name;
+			}
+			this.data = new File(dir, name + ".pack");
+			this.index = new File(dir, name + ".idx");
+		}
+
+		public String toString() {
+			return data.getName();
+		}
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(PackStore.class);
+	private final DiskBlobStore store;
+	private final File dir;
+	private final Map<Long, Location> entries = new HashMap<Long, Location>();
+	private final SortedMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+	private long nextId = 1;
+	/** segment being appended to */
+	private Segment current;
+	private OutputStream dataOut;
+	private DataOutputStream indexOut;
+	/** only one compaction runs at a time */
+	private final Object compacting = new Object();
+
+	public PackStore(DiskBlobStore store, File dir) {
+		assert store != null;
+		assert dir != null;
+		this.store = store;
+		this.dir = dir;
+	}
+
+	public String toString() {
+		return dir.toString();
+	}
+
+	/**
+	 * If this per-blob index name refers to packed content.
+	 */
+	public static boolean isPacked(String name) {
+		return name.startsWith(PREFIX);
+	}
+
+	public synchronized void load() throws IOException {
+		close();
+		entries.clear();
+		segments.clear();
+		current = null;
+		String[] list = dir.list();
+		if (list == null)
+			return;
+		for (String name : list) {
+			if (name.endsWith(".idx")) {
+				try {
+					int number = Integer.parseInt(
+							name.substring(0, name.length() - 4), 16);
+					segments.put(number, new Segment(dir, number));
+				} catch (NumberFormatException e) {
+					logger.warn("Ignoring {} in {}", name, dir);
+				}
+			}
+		}
+		for (Segment segment : segments.values()) {
+			load(segment);
+			current = segment;
+		}
+	}
+
+	/**
+	 * Appends this content to the current segment.
+	 * 
+	 * @return the per-blob index name of the packed content
+	 */
+	public synchronized String append(byte[] content) throws IOException {
+		long id = nextId++;
+		append(id, content, System.currentTimeMillis());
+		return PREFIX + Long.toHexString(id);
+	}
+
+	/**
+	 * The packed content of this per-blob index name, or null if it has been
+	 * removed.
+	 */
+	public byte[] read(String name) throws IOException {
+		long id = getId(name);
+		while (true) {
+			Location location;
+			FileChannel reader;
+			synchronized (this) {
+				location = entries.get(id);
+				if (location == null)
+					return null;
+				reader = getReader(location.segment);
+			}
+			try {
+				ByteBuffer buf = ByteBuffer.allocate(location.length);
+				while (buf.hasRemaining()) {
+					int n = reader.read(buf, location.offset + buf.position());
+					if (n < 0)
+						throw new EOFException("Truncated " + location.segment);
+				}
+				return buf.array();
+			} catch (ClosedByInterruptException e) {
+				throw e;
+			} catch (ClosedChannelException e) {
+				continue; // segment was compacted, look it up again
+			}
+		}
+	}
+
+	/**
+	 * When this packed content was appended, or zero if it has been removed.
+	 */
+	public synchronized long lastModified(String name) {
+		Location location = entries.get(getId(name));
+		if (location == null)
+			return 0;
+		return location.modified;
+	}
+
+	/**
+	 * Adds the files that must be on disk for this packed content to be
+	 * durable.
+	 */
+	public synchronized void addFiles(String name, Collection<File> files) {
+		Location location = entries.get(getId(name));
+		if (location != null) {
+			files.add(location.segment.data);
+			files.add(location.segment.index);
+		}
+	}
+
+	/**
+	 * Removes this packed content, deleting its segment if nothing else in
+	 * it is live. Otherwise the space is reclaimed by {@link #compact()}.
+	 * 
+	 * @return number of bytes deleted from disk
+	 */
+	public synchronized long release(String name) throws IOException {
+		long id = getId(name);
+		Location location = entries.remove(id);
+		if (location == null)
+			return 0;
+		Segment segment = location.segment;
+		segment.live -= location.length;
+		segment.count--;
+		if (segment.count > 0) {
+			// the tombstone must be deleted along with the entry
+			writeIndex(segment, id, 0, -1, 0);
+			return 0;
+		}
+		long size = segment.size + segment.index.length();
+		delete(segment);
+		return size;
+	}
+
+	/**
+	 * Copies the live entries of segments that are mostly removed entries
+	 * into a new segment and deletes the old segments. The entries are copied
+	 * and forced to disk without holding this store's monitor, so reads and
+	 * appends are only blocked while the copies replace the originals.
+	 * 
+	 * @return number of bytes reclaimed
+	 */
+	public long compact() throws IOException {
+		synchronized (compacting) {
+			List<Segment> sparse = new ArrayList<Segment>();
+			Map<Long, Location> live;
+			Segment target;
+			long reclaimed = 0;
+			synchronized (this) {
+				for (Segment segment : segments.values()) {
+					if (segment.live * 2 < segment.size) {
+						sparse.add(segment);
+					}
+				}
+				if (sparse.isEmpty())
+					return 0;
+				if (sparse.contains(current)) {
+					closeWriters();
+					current = null;
+				}
+				live = new TreeMap<Long, Location>();
+				for (Segment segment : sparse) {
+					reclaimed += segment.size - segment.live;
+					live.putAll(entriesIn(segment));
+				}
+				int number = segments.lastKey() + 1;
+				target = new Segment(dir, number);
+				segments.put(number, target);
+			}
+			Map<Long, Location> copies = copy(live, target);
+			boolean removed = false;
+			synchronized (this) {
+				for (Map.Entry<Long, Location> e : copies.entrySet()) {
+					Location original = live.get(e.getKey());
+					Location copy = e.getValue();
+					if (entries.get(e.getKey()) == original) {
+						entries.put(e.getKey(), copy);
+						target.live += copy.length;
+						target.count++;
+						original.segment.live -= original.length;
+						original.segment.count--;
+					} else {
+						// released while it was being copied
+						writeIndex(target, e.getKey(), 0, -1, 0);
+						removed = true;
+					}
+				}
+			}
+			if (removed) {
+				VersionJournal.force(target.index);
+			}
+			synchronized (this) {
+				for (Segment segment : sparse) {
+					if (segments.get(segment.number) == segment) {
+						delete(segment);
+					}
+				}
+				if (target.count == 0 && segments.get(target.number) == target) {
+					delete(target);
+				}
+			}
+			return reclaimed;
+		}
+	}
+
+	public synchronized void close() throws IOException {
+		try {
+			closeWriters();
+		} finally {
+			for (Segment segment : segments.values()) {
+				if (segment.reader != null) {
+					segment.reader.close();
+					segment.reader = null;
+				}
+			}
+		}
+	}
+
+	private long getId(String name) {
+		assert isPacked(name);
+		return Long.parseLong(name.substring(PREFIX.length()), 16);
+	}
+
+	private void load(Segment segment) throws IOException {
+		segment.size = segment.data.length();
+		long valid = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(segment.index)));
+		try {
+			while (true) {
+				long id = in.readLong();
+				long offset = in.readLong();
+				int length = in.readInt();
+				long modified = in.readLong();
+				valid += RECORD_SIZE;
+				nextId = Math.max(nextId, id + 1);
+				Location previous;
+				if (length < 0) {
+					previous = entries.remove(id);
+				} else if (offset + length > segment.size) {
+					logger.warn("Ignoring incomplete entry in {}", segment);
+					continue;
+				} else {
+					Location location = new Location(segment, offset, length,
+							modified);
+					previous = entries.put(id, location);
+					segment.live += length;
+					segment.count++;
+				}
+				if (previous != null) {
+					previous.segment.live -= previous.length;
+					previous.segment.count--;
+				}
+			}
+		} catch (EOFException e) {
+			// end of index
+		} finally {
+			in.close();
+		}
+		if (valid < segment.index.length()) {
+			logger.warn("Truncating incomplete records from {}", segment.index);
+			RandomAccessFile raf = new RandomAccessFile(segment.index, "rw");
+			try {
+				raf.setLength(valid);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+
+	private void append(long id, byte[] content, long modified)
+			throws IOException {
+		if (current != null && current.size > 0
+				&& current.size + content.length > MAX_SEGMENT_SIZE) {
+			closeWriters();
+			current = null;
+		}
+		if (current == null) {
+			int number = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+			current = new Segment(dir, number);
+			segments.put(number, current);
+		}
+		if (dataOut == null) {
+			dataOut = store.openOutputStream(current.data, true);
+		}
+		long offset = current.size;
+		dataOut.write(content);
+		current.size += content.length;
+		writeIndex(current, id, offset, content.length, modified);
+		Location previous = entries.put(id, new Location(current, offset,
+				content.length, modified));
+		current.live += content.length;
+		current.count++;
+		if (previous != null) {
+			previous.segment.live -= previous.length;
+			previous.segment.count--;
+		}
+	}
+
+	private void writeIndex(Segment segment, long id, long offset,
+			int length, long modified) throws IOException {
+		DataOutputStream out = indexOut;
+		if (segment != current || out == null) {
+			OutputStream stream = store.openOutputStream(segment.index, true);
+			out = new DataOutputStream(new BufferedOutputStream(stream,
+					RECORD_SIZE));
+		}
+		try {
+			out.writeLong(id);
+			out.writeLong(offset);
+			out.writeInt(length);
+			out.writeLong(modified);
+			out.flush();
+		} finally {
+			if (segment == current) {
+				indexOut = out;
+			} else {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Appends the content of these entries that are still live to the target
+	 * segment and forces it to disk, before the originals can be deleted.
+	 * 
+	 * @return the location of each copied entry
+	 */
+	private Map<Long, Location> copy(Map<Long, Location> live, Segment target)
+			throws IOException {
+		Map<Long, Location> copies = new HashMap<Long, Location>();
+		OutputStream data = store.openOutputStream(target.data, true);
+		try {
+			DataOutputStream index = new DataOutputStream(
+					new BufferedOutputStream(store.openOutputStream(
+							target.index, true)));
+			try {
+				for (Map.Entry<Long, Location> e : live.entrySet()) {
+					long id = e.getKey();
+					byte[] content = read(PREFIX + Long.toHexString(id));
+					if (content == null)
+						continue; // already released
+					long modified = e.getValue().modified;
+					data.write(content);
+					index.writeLong(id);
+					index.writeLong(target.size);
+					index.writeInt(content.length);
+					index.writeLong(modified);
+					copies.put(id, new Location(target, target.size,
+							content.length, modified));
+					target.size += content.length;
+				}
+			} finally {
+				index.close();
+			}
+		} finally {
+			data.close();
+		}
+		VersionJournal.force(target.data);
+		VersionJournal.force(target.index);
+		return copies;
+	}
+
+	private FileChannel getReader(Segment segment) throws IOException {
+		if (segment.reader == null || !segment.reader.isOpen()) {
+			segment.reader = new RandomAccessFile(segment.data, "r")
+					.getChannel();
+		}
+		return segment.reader;
+	}
+
+	private Map<Long, Location> entriesIn(Segment segment) {
+		Map<Long, Location> map = new TreeMap<Long, Location>();
+		for (Map.Entry<Long, Location> e : entries.entrySet()) {
+			if (e.getValue().segment == segment) {
+				map.put(e.getKey(), e.getValue());
+			}
+		}
+		return map;
+	}
+
+	private void delete(Segment segment) throws IOException {
+		if (segment == current) {
+			closeWriters();
+			current = null;
+		}
+		if (segment.reader != null) {
+			segment.reader.close();
+			segment.reader = null;
+		}
+		segments.remove(segment.number);
+		segment.data.delete();
+		segment.index.delete();
+		if (segments.isEmpty()) {
+			dir.delete();
+		}
+	}
+
+	private void closeWriters() throws IOException {
+		try {
+			if (dataOut != null) {
+				dataOut.close();
+			}
+		} finally {
+			dataOut = null;
+			if (indexOut != null) {
+				try {
+					indexOut.close();
+				} finally {
+					indexOut = null;
+				}
+			}
+		}
+	}
+}
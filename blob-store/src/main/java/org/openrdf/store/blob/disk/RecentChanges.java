@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.disk;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recent committed changes held in memory: a ring buffer of the latest
+ * (version, blob) pairs of the store and the recent versions of the most
+ * recently read blob histories. The ring is loaded once from the journal and
+ * then kept up to date as versions are committed and erased.
+ */
+class RecentChanges {
+	private final int capacity;
+	private final int maxHistories;
+	private final String[] versions;
+	private final String[] blobs;
+	/** index of the next slot to write */
+	private int head;
+	private int size;
+	private boolean loaded;
+	/** blob -> recent versions, most recent first */
+	private final Map<String, LinkedList<String>> histories = new LinkedHashMap<String, LinkedList<String>>(
+			16, 0.75f, true);
+
+	/**
+	 * @param capacity
+	 *            most (version, blob) pairs and versions per blob history
+	 * @param maxHistories
+	 *            most blob histories to keep
+	 */
+	RecentChanges(int capacity, int maxHistories) {
+		assert capacity > 0;
+		this.capacity = capacity;
+		this.maxHistories = maxHistories;
+		this.versions = new String[capacity];
+		this.blobs = new String[capacity];
+	}
+
+	public synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Replaces the ring with these modifications, read from the journal.
+	 * 
+	 * @param modifications
+	 *            pairs of version and blob, most recent first
+	 */
+	public synchronized void load(List<String[]> modifications) {
+		head = size = 0;
+		int n = Math.min(capacity, modifications.size());
+		for (int i = n - 1; i >= 0; i--) {
+			String[] pair = modifications.get(i);
+			append(pair[0], pair[1]);
+		}
+		loaded = true;
+	}
+
+	/**
+	 * Blobs of the recent modifications, most recent first, if loaded.
+	 */
+	public synchronized String[] getModifications() {
+		String[] result = new String[size];
+		for (int i = 0; i < size; i++) {
+			result[i] = blobs[slot(i)];
+		}
+		return result;
+	}
+
+	/**
+	 * Recent versions of this blob, most recent first, or null if its history
+	 * is not held in memory.
+	 */
+	public synchronized String[] getVersions(String uri) {
+		LinkedList<String> history = histories.get(uri);
+		if (history == null)
+			return null;
+		return history.toArray(new String[history.size()]);
+	}
+
+	/**
+	 * Holds the history of this blob read from its index, must be called
+	 * while holding the read lock of the blob.
+	 */
+	public synchronized void putVersions(String uri, List<String> history) {
+		if (maxHistories <= 0)
+			return;
+		histories.put(uri, new LinkedList<String>(history));
+		Iterator<String> iter = histories.keySet().iterator();
+		while (histories.size() > maxHistories && iter.hasNext()) {
+			iter.next();
+			iter.remove();
+		}
+	}
+
+	/**
+	 * Records these blobs as modified by this version, replacing any earlier
+	 * commit of the same version. Must be called while holding the write lock
+	 * of the blobs.
+	 */
+	public synchronized void committed(String version, Collection<String> uris) {
+		if (loaded) {
+			removeVersion(version);
+			for (String uri : uris) {
+				append(version, uri);
+			}
+		}
+		for (String uri : uris) {
+			LinkedList<String> history = histories.get(uri);
+			if (history != null) {
+				history.remove(version);
+				history.addFirst(version);
+				if (history.size() > capacity) {
+					history.removeLast();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forgets this erased version, must be called while holding the write
+	 * lock of the blobs.
+	 */
+	public synchronized void erased(String version, Collection<String> uris) {
+		removeVersion(version);
+		for (String uri : uris) {
+			// older versions may now be in the most recent
+			histories.remove(uri);
+		}
+	}
+
+	public synchronized void clear() {
+		Arrays.fill(versions, null);
+		Arrays.fill(blobs, null);
+		head = size = 0;
+		loaded = false;
+		histories.clear();
+	}
+
+	private void append(String version, String uri) {
+		versions[head] = version;
+		blobs[head] = uri;
+		head = (head + 1) % capacity;
+		if (size < capacity) {
+			size++;
+		}
+	}
+
+	private void removeVersion(String version) {
+		if (!containsVersion(version))
+			return;
+		int kept = 0;
+		String[] v = new String[size];
+		String[] b = new String[size];
+		for (int i = size - 1; i >= 0; i--) {
+			int s = slot(i);
+			if (!version.equals(versions[s])) {
+				v[kept] = versions[s];
+				b[kept] = blobs[s];
+				kept++;
+			}
+		}
+		Arrays.fill(versions, null);
+		Arrays.fill(blobs, null);
+		head = size = 0;
+		for (int i = 0; i < kept; i++) {
+			append(v[i], b[i]);
+		}
+	}
+
+	private boolean containsVersion(String version) {
+		for (int i = 0; i < size; i++) {
+			if (version.equals(versions[slot(i)]))
+				return true;
+		}
+		return false;
+	}
+
+	/** slot of the i-th most recent pair */
+	private int slot(int i) {
+		return (head - 1 - i + capacity) % capacity;
+	}
+}
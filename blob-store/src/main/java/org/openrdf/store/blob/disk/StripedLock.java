@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.disk;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read/write locks for blob URIs, striped by URI hash. Write locks for a set of
+ * blobs are always acquired in ascending stripe order, so two versions that
+ * lock overlapping sets of blobs cannot deadlock.
+ */
+public class StripedLock {
+
+	/**
+	 * Holds the write locks of a fixed set of stripes. Can be used wherever a
+	 * {@link Lock} is expected, except that it has no conditions.
+	 */
+	public class StripeSet implements Lock {
+		private final boolean[] stripes;
+
+		StripeSet(boolean[] stripes) {
+			this.stripes = stripes;
+		}
+
+		/**
+		 * If the write lock of every given blob is included in this set.
+		 */
+		public boolean covers(Collection<String> uris) {
+			for (String uri : uris) {
+				if (!stripes[indexOf(uri)])
+					return false;
+			}
+			return true;
+		}
+
+		public void lock() {
+			for (int i = 0; i < stripes.length; i++) {
+				if (this.stripes[i]) {
+					locks[i].writeLock().lock();
+				}
+			}
+		}
+
+		public void lockInterruptibly() throws InterruptedException {
+			for (int i = 0; i < stripes.length; i++) {
+				if (this.stripes[i]) {
+					try {
+						locks[i].writeLock().lockInterruptibly();
+					} catch (InterruptedException e) {
+						unlock(i);
+						throw e;
+					}
+				}
+			}
+		}
+
+		public boolean tryLock() {
+			for (int i = 0; i < stripes.length; i++) {
+				if (this.stripes[i] && !locks[i].writeLock().tryLock()) {
+					unlock(i);
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public boolean tryLock(long time, TimeUnit unit)
+				throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(time);
+			for (int i = 0; i < stripes.length; i++) {
+				if (this.stripes[i]) {
+					long remaining = deadline - System.nanoTime();
+					boolean locked = false;
+					try {
+						locked = locks[i].writeLock().tryLock(remaining,
+								TimeUnit.NANOSECONDS);
+					} finally {
+						if (!locked) {
+							unlock(i);
+						}
+					}
+					if (!locked)
+						return false;
+				}
+			}
+			return true;
+		}
+
+		public void unlock() {
+			unlock(stripes.length);
+		}
+
+		/**
+		 * Conditions are not supported, as a condition can only release and
+		 * reacquire a single lock, while this set spans many stripe locks that
+		 * must be reacquired in ascending order.
+		 *
+		 * @throws UnsupportedOperationException
+		 *             always
+		 */
+		public Condition newCondition() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void unlock(int end) {
+			for (int i = end - 1; i >= 0; i--) {
+				if (this.stripes[i]) {
+					locks[i].writeLock().unlock();
+				}
+			}
+		}
+	}
+
+	private final ReentrantReadWriteLock[] locks;
+
+	public StripedLock(int stripes) {
+		assert stripes > 0;
+		locks = new ReentrantReadWriteLock[stripes];
+		for (int i = 0; i < stripes; i++) {
+			locks[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	/**
+	 * Shared lock for reading the given blob.
+	 */
+	public Lock readLock(String uri) {
+		return locks[indexOf(uri)].readLock();
+	}
+
+	/**
+	 * Exclusive lock for changing all of the given blobs.
+	 */
+	public StripeSet writeLock(Collection<String> uris) {
+		boolean[] stripes = new boolean[locks.length];
+		for (String uri : uris) {
+			stripes[indexOf(uri)] = true;
+		}
+		return new StripeSet(stripes);
+	}
+
+	/**
+	 * Exclusive lock for changing any blob.
+	 */
+	public StripeSet writeLock() {
+		boolean[] stripes = new boolean[locks.length];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = true;
+		}
+		return new StripeSet(stripes);
+	}
+
+	int indexOf(String uri) {
+		int h = uri.hashCode();
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return (h & 0x7fffffff) % locks.length;
+	}
+}
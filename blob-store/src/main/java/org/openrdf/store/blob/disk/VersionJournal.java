@@ -0,0 +1,569 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.store.blob.disk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only binary log of committed blob versions, with an in-memory index
+ * of the live versions. Erasing a version appends a tombstone record and the
+ * log is rewritten with only the live versions once most of its records are
+ * tombstones. Unless the durability is {@link Durability#NONE}, records are
+ * only written after the files they depend on have been forced to disk. In
+ * {@link Durability#BATCHED} mode a single flusher thread forces the records
+ * of concurrent commits together.
+ */
+public class VersionJournal {
+	private static final int ADD = 1;
+	private static final int REMOVE = 2;
+	private static final int MIN_COMPACT = 1024;
+	/** milliseconds before an idle flusher thread exits */
+	private static final int FLUSHER_IDLE = 60000;
+
+	/**
+	 * Completes once its record, and the files it depends on, are on disk.
+	 */
+	public static class Flush {
+		final byte[] record;
+		final Collection<File> files;
+		private boolean done;
+		private IOException error;
+
+		Flush(byte[] record, Collection<File> files) {
+			this.record = record;
+			this.files = files;
+		}
+
+		/**
+		 * Blocks until this flush has completed.
+		 * 
+		 * @throws IOException
+		 *             if the record or its files could not be forced to disk
+		 */
+		public synchronized void await() throws IOException {
+			boolean interrupted = false;
+			while (!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (error != null)
+				throw new IOException(error.toString(), error);
+		}
+
+		synchronized void complete(IOException error) {
+			this.error = error;
+			this.done = true;
+			notifyAll();
+		}
+	}
+
+	private static class Entry {
+		final long ordinal;
+		final String path;
+
+		Entry(long ordinal, String path) {
+			this.ordinal = ordinal;
+			this.path = path;
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		public int read() throws IOException {
+			int read = super.read();
+			if (read >= 0) {
+				count++;
+			}
+			return read;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(VersionJournal.class);
+	private final DiskBlobStore store;
+	private final File file;
+	/** version -> journal entry */
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	/** commit order -> version */
+	private final NavigableMap<Long, String> history = new TreeMap<Long, String>();
+	private long counter;
+	private int tombstones;
+	private volatile Durability durability = Durability.NONE;
+	/** guards the output stream, never held while waiting on a flush */
+	private final Object writing = new Object();
+	private OutputStream out;
+	/** flushes waiting for the flusher thread */
+	private final LinkedList<Flush> queue = new LinkedList<Flush>();
+	/** most recently queued flush */
+	private Flush queued;
+	private Thread flusher;
+
+	public VersionJournal(DiskBlobStore store, File file) {
+		assert store != null;
+		assert file != null;
+		this.store = store;
+		this.file = file;
+	}
+
+	public String toString() {
+		return file.toString();
+	}
+
+	public Durability getDurability() {
+		return durability;
+	}
+
+	public void setDurability(Durability durability) {
+		assert durability != null;
+		this.durability = durability;
+	}
+
+	/**
+	 * Reads the journal into memory, importing the entries of a legacy text
+	 * index file if present.
+	 */
+	public synchronized void load(File legacy) throws IOException {
+		entries.clear();
+		history.clear();
+		tombstones = 0;
+		if (file.exists()) {
+			readJournal();
+		}
+		if (legacy.exists()) {
+			readLegacyIndex(legacy);
+			if (entries.isEmpty()) {
+				file.delete();
+			} else {
+				compact();
+			}
+			legacy.delete();
+		}
+	}
+
+	/**
+	 * Path of the change file relative to the journal directory.
+	 * 
+	 * @return the path or null if the version is not in the journal
+	 */
+	public synchronized String get(String version) {
+		Entry entry = entries.get(version);
+		if (entry == null)
+			return null;
+		return entry.path;
+	}
+
+	/**
+	 * Bytes in the journal file.
+	 */
+	public long getSize() {
+		return file.length();
+	}
+
+	public synchronized boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * All versions in the order they were first committed.
+	 */
+	public synchronized List<String> getVersions() {
+		return new ArrayList<String>(history.values());
+	}
+
+	/**
+	 * Most recently committed versions first.
+	 */
+	public synchronized List<String> getRecentVersions(int max) {
+		List<String> list = new ArrayList<String>(Math.min(max, history.size()));
+		Iterator<String> iter = history.descendingMap().values().iterator();
+		while (iter.hasNext() && list.size() < max) {
+			list.add(iter.next());
+		}
+		return list;
+	}
+
+	/**
+	 * Appends a committed version, after forcing the given files to disk.
+	 * 
+	 * @return a flush that completes when the version is durable
+	 */
+	public synchronized Flush add(String version, String path,
+			Collection<File> files) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream record = new DataOutputStream(buf);
+		record.writeByte(ADD);
+		record.writeUTF(version);
+		record.writeUTF(path);
+		record.flush();
+		Flush flush = submit(buf.toByteArray(), files);
+		put(version, path);
+		return flush;
+	}
+
+	/**
+	 * Forces the given files to disk, without appending a record.
+	 * 
+	 * @return a flush that completes when the files are durable
+	 */
+	public Flush flush(Collection<File> files) throws IOException {
+		return submit(null, files);
+	}
+
+	public synchronized boolean remove(String version) throws IOException {
+		if (!entries.containsKey(version))
+			return false;
+		delete(version);
+		if (entries.isEmpty()) {
+			close();
+			file.delete();
+			tombstones = 0;
+		} else if (tombstones > MIN_COMPACT && tombstones > entries.size()) {
+			compact();
+		} else {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			DataOutputStream record = new DataOutputStream(buf);
+			record.writeByte(REMOVE);
+			record.writeUTF(version);
+			record.flush();
+			Collection<File> none = Collections.emptySet();
+			submit(buf.toByteArray(), none).await();
+			tombstones++;
+		}
+		return true;
+	}
+
+	/**
+	 * Rewrites the journal with only the live versions.
+	 */
+	public synchronized void compact() throws IOException {
+		close();
+		File tmp = new File(file.getParentFile(), file.getName() + '$');
+		DataOutputStream dout = new DataOutputStream(store.openOutputStream(tmp));
+		try {
+			for (String version : history.values()) {
+				dout.writeByte(ADD);
+				dout.writeUTF(version);
+				dout.writeUTF(entries.get(version).path);
+			}
+			dout.flush();
+			if (durability != Durability.NONE) {
+				force(tmp);
+			}
+		} finally {
+			dout.close();
+		}
+		replace(tmp, file);
+		tombstones = 0;
+	}
+
+	public synchronized void close() throws IOException {
+		drain();
+		synchronized (writing) {
+			if (out != null) {
+				try {
+					out.close();
+				} finally {
+					out = null;
+				}
+			}
+		}
+	}
+
+	private Flush submit(byte[] record, Collection<File> files)
+			throws IOException {
+		Durability mode = durability;
+		if (mode == Durability.BATCHED) {
+			Flush flush = new Flush(record, files);
+			synchronized (queue) {
+				queue.add(flush);
+				queued = flush;
+				if (flusher == null) {
+					flusher = new Thread(new Runnable() {
+						public void run() {
+							flushQueue();
+						}
+					}, "Flusher of " + file);
+					flusher.setDaemon(true);
+					flusher.start();
+				} else {
+					queue.notifyAll();
+				}
+			}
+			return flush;
+		}
+		// records queued before the durability was changed go first
+		drain();
+		Flush flush = new Flush(record, files);
+		if (mode == Durability.NONE) {
+			if (record != null) {
+				synchronized (writing) {
+					append(record);
+					out.flush();
+				}
+			}
+		} else {
+			write(Collections.singletonList(flush));
+		}
+		flush.complete(null);
+		return flush;
+	}
+
+	/**
+	 * Waits for all queued flushes to complete.
+	 */
+	private void drain() throws IOException {
+		Flush last;
+		synchronized (queue) {
+			last = queued;
+		}
+		if (last != null) {
+			last.await();
+		}
+	}
+
+	private void flushQueue() {
+		while (true) {
+			List<Flush> batch;
+			synchronized (queue) {
+				long idle = System.currentTimeMillis() + FLUSHER_IDLE;
+				while (queue.isEmpty()) {
+					long wait = idle - System.currentTimeMillis();
+					if (wait <= 0) {
+						flusher = null;
+						return;
+					}
+					try {
+						queue.wait(wait);
+					} catch (InterruptedException e) {
+						// only exit when idle
+					}
+				}
+				batch = new ArrayList<Flush>(queue);
+				queue.clear();
+			}
+			IOException error = null;
+			try {
+				write(batch);
+			} catch (IOException e) {
+				logger.error(e.toString(), e);
+				error = e;
+			} catch (RuntimeException e) {
+				logger.error(e.toString(), e);
+				error = new IOException(e.toString(), e);
+			} catch (Error e) {
+				logger.error(e.toString(), e);
+				error = new IOException(e.toString(), e);
+			}
+			for (Flush flush : batch) {
+				flush.complete(error);
+			}
+		}
+	}
+
+	/**
+	 * Forces the files of these flushes to disk, then appends their records
+	 * and forces the journal.
+	 */
+	private void write(List<Flush> batch) throws IOException {
+		Set<File> files = new LinkedHashSet<File>();
+		for (Flush flush : batch) {
+			files.addAll(flush.files);
+		}
+		for (File f : files) {
+			force(f);
+		}
+		synchronized (writing) {
+			boolean appended = false;
+			for (Flush flush : batch) {
+				if (flush.record != null) {
+					append(flush.record);
+					appended = true;
+				}
+			}
+			if (appended) {
+				out.flush();
+				force(file);
+			}
+		}
+	}
+
+	private void append(byte[] record) throws IOException {
+		if (out == null) {
+			out = store.openOutputStream(file, true);
+		}
+		out.write(record);
+	}
+
+	/**
+	 * Renames tmp over file, so a reader or a crash sees either the old or the
+	 * new file. The existing file is only deleted first on platforms that
+	 * cannot rename over it.
+	 */
+	static void replace(File tmp, File file) throws IOException {
+		if (tmp.renameTo(file))
+			return;
+		if (!file.exists() || !file.delete() || !tmp.renameTo(file))
+			throw new IOException("Cannot rename " + tmp);
+	}
+
+	static void force(File file) throws IOException {
+		if (!file.isFile())
+			return;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.getChannel().force(true);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void put(String version, String path) {
+		delete(version);
+		long ordinal = counter++;
+		entries.put(version, new Entry(ordinal, path));
+		history.put(ordinal, version);
+	}
+
+	private void delete(String version) {
+		Entry previous = entries.remove(version);
+		if (previous != null) {
+			history.remove(previous.ordinal);
+		}
+	}
+
+	private void readJournal() throws IOException {
+		long valid = 0;
+		CountingInputStream counter = new CountingInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+		DataInputStream in = new DataInputStream(counter);
+		try {
+			int op;
+			while ((op = in.read()) >= 0) {
+				if (op == ADD) {
+					String version = in.readUTF();
+					String path = in.readUTF();
+					put(version, path);
+				} else if (op == REMOVE) {
+					delete(in.readUTF());
+					tombstones++;
+				} else {
+					break;
+				}
+				valid = counter.count;
+			}
+		} catch (EOFException e) {
+			// incomplete record at the end
+		} catch (UTFDataFormatException e) {
+			// incomplete record at the end
+		} finally {
+			in.close();
+		}
+		if (valid < file.length()) {
+			logger.warn("Truncating incomplete records from {}", file);
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(valid);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+
+	private void readLegacyIndex(File index) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(index));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] split = line.split("\\s+", 2);
+				if (split.length == 2) {
+					put(split[1], split[0]);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -193,6 +193,7 @@ public class FileBlob extends BlobObject implements FileListener {
 			read.lock();
 			if (readFile == null || !readFile.exists())
 				return null;
+			disk.read(readFile.length());
 			return new FileInputStream(readFile);
 		} finally {
 			read.unlock();
@@ -230,6 +231,9 @@ public class FileBlob extends BlobObject implements FileListener {
 			public void close() throws IOException {
 				fout.close();
 				written(fatal == null);
+				if (fatal == null) {
+					disk.written(writeFile.length());
+				}
 			}
 		};
 	}
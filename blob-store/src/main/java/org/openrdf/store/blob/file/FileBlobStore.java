@@ -30,25 +30,39 @@ package org.openrdf.store.blob.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.openrdf.store.blob.BlobObject;
 import org.openrdf.store.blob.BlobStore;
+import org.openrdf.store.blob.BlobStoreImporter;
+import org.openrdf.store.blob.BlobStoreMXBean;
+import org.openrdf.store.blob.LatencyHistogram;
 
 /**
  * Set of blob objects that do not support version history.
  */
 @Deprecated
-public class FileBlobStore implements BlobStore {
+public class FileBlobStore implements BlobStore, BlobStoreImporter,
+		BlobStoreMXBean {
 	private final File dir;
 	private final ReentrantReadWriteLock diskLock = new ReentrantReadWriteLock();
 	private final Map<String, Set<FileListener>> listeners = new HashMap<String, Set<FileListener>>();
+	private final LatencyHistogram commits = new LatencyHistogram();
+	private final LatencyHistogram prepares = new LatencyHistogram();
+	private final AtomicLong lockWait = new AtomicLong();
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
 
 	public FileBlobStore(File dir) throws IOException {
 		assert dir != null;
@@ -76,6 +90,96 @@ public class FileBlobStore implements BlobStore {
 		return true;
 	}
 
+	public String getLocation() {
+		return dir.getAbsolutePath();
+	}
+
+	public long[] getLatencyBucketMillis() {
+		return LatencyHistogram.getBucketMillis();
+	}
+
+	public long getCommitCount() {
+		return commits.getCount();
+	}
+
+	public double getCommitMeanMillis() {
+		return commits.getMeanMillis();
+	}
+
+	public double getCommitMaxMillis() {
+		return commits.getMaxMillis();
+	}
+
+	public long[] getCommitLatencyHistogram() {
+		return commits.getHistogram();
+	}
+
+	public long getPrepareCount() {
+		return prepares.getCount();
+	}
+
+	public double getPrepareMeanMillis() {
+		return prepares.getMeanMillis();
+	}
+
+	public double getPrepareMaxMillis() {
+		return prepares.getMaxMillis();
+	}
+
+	public long[] getPrepareLatencyHistogram() {
+		return prepares.getHistogram();
+	}
+
+	public long getWriteLockWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(lockWait.get());
+	}
+
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	public long getRawBytes() {
+		return 0;
+	}
+
+	public long getCompressedBytes() {
+		return 0;
+	}
+
+	public int getOpenVersionCount() {
+		return 0;
+	}
+
+	public int getWatchedBlobCount() {
+		synchronized (listeners) {
+			return listeners.size();
+		}
+	}
+
+	public long getJournalSize() {
+		return 0;
+	}
+
+	public long getCacheHitCount() {
+		return 0;
+	}
+
+	public long getCacheMissCount() {
+		return 0;
+	}
+
+	public void resetStatistics() {
+		commits.reset();
+		prepares.reset();
+		lockWait.set(0);
+		bytesRead.set(0);
+		bytesWritten.set(0);
+	}
+
 	public BlobObject open(String uri) throws IOException {
 		return new LiveFileBlob(this, uri);
 	}
@@ -96,6 +200,40 @@ public class FileBlobStore implements BlobStore {
 		return new FileBlobVersion(this);
 	}
 
+	public FileBlobVersion importAll(
+			Iterator<? extends Map.Entry<String, ? extends InputStream>> blobs)
+			throws IOException {
+		FileBlobVersion version = newVersion();
+		boolean committed = false;
+		try {
+			byte[] buf = new byte[8192];
+			while (blobs.hasNext()) {
+				Map.Entry<String, ? extends InputStream> e = blobs.next();
+				InputStream in = e.getValue();
+				try {
+					OutputStream out = version.open(e.getKey()).openOutputStream();
+					try {
+						int read;
+						while ((read = in.read(buf)) >= 0) {
+							out.write(buf, 0, read);
+						}
+					} finally {
+						out.close();
+					}
+				} finally {
+					in.close();
+				}
+			}
+			version.commit();
+			committed = true;
+			return version;
+		} finally {
+			if (!committed) {
+				version.rollback();
+			}
+		}
+	}
+
 	public boolean erase() throws IOException {
 		lock();
 		try {
@@ -145,6 +283,23 @@ public class FileBlobStore implements BlobStore {
 		return diskLock.readLock();
 	}
 
+	protected void committed(long start) {
+		commits.since(start);
+	}
+
+	protected void prepared(long start, long lockWaitNanos) {
+		prepares.since(start);
+		lockWait.addAndGet(lockWaitNanos);
+	}
+
+	protected void read(long bytes) {
+		bytesRead.addAndGet(bytes);
+	}
+
+	protected void written(long bytes) {
+		bytesWritten.addAndGet(bytes);
+	}
+
 	protected void lock() {
 		diskLock.writeLock().lock();
 	}
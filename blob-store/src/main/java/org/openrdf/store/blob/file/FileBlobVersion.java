@@ -97,7 +97,9 @@ public class FileBlobVersion implements BlobVersion {
 	public synchronized void prepare() throws IOException {
 		if (prepared)
 			throw new IllegalStateException("This version is already prepared");
+		long start = System.nanoTime();
 		store.lock();
+		long acquired = System.nanoTime();
 		prepared = true;
 		boolean faild = true;
 		try {
@@ -112,10 +114,12 @@ public class FileBlobVersion implements BlobVersion {
 				prepared = false;
 				store.unlock();
 			}
+			store.prepared(start, acquired - start);
 		}
 	}
 
 	public synchronized void commit() throws IOException {
+		long start = System.nanoTime();
 		if (!prepared) {
 			prepare();
 		}
@@ -130,6 +134,7 @@ public class FileBlobVersion implements BlobVersion {
 		}
 		prepared = false;
 		store.unlock();
+		store.committed(start);
 	}
 
 	public synchronized void rollback() {
@@ -157,6 +162,14 @@ public class FileBlobVersion implements BlobVersion {
 		return store.unwatch(uri, listener);
 	}
 
+	protected void read(long bytes) {
+		store.read(bytes);
+	}
+
+	protected void written(long bytes) {
+		store.written(bytes);
+	}
+
 	protected Lock readLock() {
 		return store.readLock();
 	}
@@ -0,0 +1,54 @@
+package org.openrdf.store.blob;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class BatchedDiskBlobStoreTest extends DiskBlobStoreTest {
+
+	@Override
+	public BlobStore createBlobStore(File dir) throws IOException {
+		return BlobStoreFactory.newInstance().openBlobStore(
+				dir.toURI().toString(),
+				Collections.singletonMap("durability", "batched"));
+	}
+
+	public void testConcurrentCommitsAfterRestart() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < 32; i++) {
+				final int n = i;
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						BlobVersion trx = store.newVersion("urn:test:trx" + n);
+						Writer file = trx.open("urn:test:file" + n).openWriter();
+						file.append("test" + n);
+						file.close();
+						trx.commit();
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		store = createBlobStore(dir);
+		for (int i = 0; i < 32; i++) {
+			BlobObject blob = store.openVersion("urn:test:trx" + i).open(
+					"urn:test:file" + i);
+			assertEquals("test" + i, blob.getCharContent(true).toString());
+		}
+	}
+
+}
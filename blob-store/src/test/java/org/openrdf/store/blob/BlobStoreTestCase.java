@@ -1,8 +1,18 @@
 package org.openrdf.store.blob;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -73,6 +83,110 @@ public abstract class BlobStoreTestCase extends TestCase {
 		assertEquals("blob store test", str.toString());
 	}
 
+	public void testOpenChannel() throws Exception {
+		BlobVersion trx1 = store.newVersion("urn:test:trx1");
+		Writer file = trx1.open("urn:test:file").openWriter();
+		file.append("blob store test");
+		file.close();
+		trx1.commit();
+		ReadableByteChannel ch = store.open("urn:test:file").openChannel();
+		try {
+			assertTrue(ch instanceof FileChannel);
+			ByteBuffer buf = ByteBuffer.allocate(1024);
+			while (ch.read(buf) >= 0)
+				;
+			assertEquals("blob store test", new String(buf.array(), 0,
+					buf.position(), "UTF-8"));
+		} finally {
+			ch.close();
+		}
+	}
+
+	public void testOpenRange() throws Exception {
+		BlobVersion trx1 = store.newVersion("urn:test:trx1");
+		Writer file = trx1.open("urn:test:file").openWriter();
+		file.append("blob store test");
+		file.close();
+		trx1.commit();
+		BlobObject blob = store.open("urn:test:file");
+		InputStream in = blob.openInputStream(5, 5);
+		try {
+			byte[] buf = new byte[1024];
+			int len = 0, read;
+			while ((read = in.read(buf, len, buf.length - len)) >= 0) {
+				len += read;
+			}
+			assertEquals("store", new String(buf, 0, len, "UTF-8"));
+		} finally {
+			in.close();
+		}
+		ReadableByteChannel ch = blob.openChannel(11);
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(1024);
+			while (ch.read(buf) >= 0)
+				;
+			assertEquals("test", new String(buf.array(), 0, buf.position(),
+					"UTF-8"));
+		} finally {
+			ch.close();
+		}
+	}
+
+	public void testImportAll() throws Exception {
+		List<Map.Entry<String, InputStream>> blobs = new ArrayList<Map.Entry<String, InputStream>>();
+		for (int i = 0; i < 100; i++) {
+			byte[] content = ("blob store test" + i).getBytes("UTF-8");
+			blobs.add(new SimpleEntry<String, InputStream>("urn:test:file" + i,
+					new ByteArrayInputStream(content)));
+		}
+		BlobStoreImporter importer = (BlobStoreImporter) store;
+		BlobVersion trx1 = importer.importAll(blobs.iterator());
+		assertEquals(100, trx1.getModifications().length);
+		BlobVersion trx2 = store.newVersion("urn:test:trx2");
+		for (int i = 0; i < 100; i++) {
+			assertEquals("blob store test" + i, trx2.open("urn:test:file" + i)
+					.getCharContent(true).toString());
+		}
+	}
+
+	public void testImportAllDuplicate() throws Exception {
+		List<Map.Entry<String, InputStream>> blobs = new ArrayList<Map.Entry<String, InputStream>>();
+		String last = null;
+		for (int i = 0; i < 20; i++) {
+			char[] chars = new char[64 * 1024];
+			Arrays.fill(chars, (char) ('a' + i));
+			last = new String(chars);
+			blobs.add(new SimpleEntry<String, InputStream>("urn:test:file",
+					new ByteArrayInputStream(last.getBytes("UTF-8"))));
+		}
+		((BlobStoreImporter) store).importAll(blobs.iterator());
+		BlobVersion trx2 = store.newVersion("urn:test:trx2");
+		BlobObject blob = trx2.open("urn:test:file");
+		assertEquals(last.length(), blob.getLength());
+		assertEquals(last, blob.getCharContent(true).toString());
+	}
+
+	public void testImportAllFailure() throws Exception {
+		InputStream broken = new InputStream() {
+			public int read() throws IOException {
+				throw new IOException("broken");
+			}
+		};
+		List<Map.Entry<String, InputStream>> blobs = Arrays.asList(
+				new SimpleEntry<String, InputStream>("urn:test:file1",
+						new ByteArrayInputStream("blob store test".getBytes("UTF-8"))),
+				new SimpleEntry<String, InputStream>("urn:test:file2", broken));
+		try {
+			((BlobStoreImporter) store).importAll(blobs.iterator());
+			fail();
+		} catch (IOException e) {
+			// pass
+		}
+		BlobVersion trx2 = store.newVersion("urn:test:trx2");
+		assertNull(trx2.open("urn:test:file1").getCharContent(true));
+		assertNull(trx2.open("urn:test:file2").getCharContent(true));
+	}
+
 	public void testReuseVersion() throws Exception {
 		BlobVersion trx1 = store.newVersion("urn:test:trx1");
 		Writer file1 = trx1.open("urn:test:file1").openWriter();
@@ -0,0 +1,69 @@
+package org.openrdf.store.blob;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
+
+import org.openrdf.store.blob.disk.BlobCache;
+import org.openrdf.store.blob.disk.DiskBlobStore;
+
+public class CachedDiskBlobStoreTest extends DiskBlobStoreTest {
+
+	@Override
+	public BlobStore createBlobStore(File dir) throws IOException {
+		return BlobStoreFactory.newInstance().openBlobStore(
+				dir.toURI().toString(),
+				Collections.singletonMap("cache-size", "65536"));
+	}
+
+	@Override
+	public void testOpenChannel() throws Exception {
+		BlobVersion trx1 = store.newVersion("urn:test:trx1");
+		Writer file = trx1.open("urn:test:file").openWriter();
+		file.append("blob store test");
+		file.close();
+		trx1.commit();
+		for (int i = 0; i < 2; i++) {
+			// the second read is served from memory
+			ReadableByteChannel ch = store.open("urn:test:file").openChannel();
+			try {
+				ByteBuffer buf = ByteBuffer.allocate(1024);
+				while (ch.read(buf) >= 0)
+					;
+				assertEquals("blob store test", new String(buf.array(), 0,
+						buf.position(), "UTF-8"));
+			} finally {
+				ch.close();
+			}
+		}
+	}
+
+	public void testCacheHits() throws Exception {
+		BlobCache cache = ((DiskBlobStore) store).getBlobCache();
+		BlobVersion trx1 = store.newVersion("urn:test:trx1");
+		Writer file = trx1.open("urn:test:file").openWriter();
+		file.append("test1");
+		file.close();
+		trx1.commit();
+		assertEquals("test1", store.open("urn:test:file").getCharContent(true)
+				.toString());
+		long hits = cache.getHitCount();
+		long misses = cache.getMissCount();
+		assertEquals("test1", store.open("urn:test:file").getCharContent(true)
+				.toString());
+		assertEquals(hits + 1, cache.getHitCount());
+		assertEquals(misses, cache.getMissCount());
+		BlobVersion trx2 = store.newVersion("urn:test:trx2");
+		file = trx2.open("urn:test:file").openWriter();
+		file.append("test2");
+		file.close();
+		trx2.commit();
+		assertEquals("test2", store.open("urn:test:file").getCharContent(true)
+				.toString());
+		assertTrue(cache.getSize() <= cache.getMaxBytes());
+	}
+
+}
@@ -0,0 +1,37 @@
+package org.openrdf.store.blob;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+
+public class DedupDiskBlobStoreTest extends DiskBlobStoreTest {
+
+	@Override
+	public BlobStore createBlobStore(File dir) throws IOException {
+		return BlobStoreFactory.newInstance().openBlobStore(
+				dir.toURI().toString(), Collections.singletonMap("dedup", "true"));
+	}
+
+	public void testSharedContent() throws Exception {
+		BlobVersion trx1 = store.newVersion("urn:test:trx1");
+		Writer file1 = trx1.open("urn:test:file1").openWriter();
+		file1.append("shared content");
+		file1.close();
+		Writer file2 = trx1.open("urn:test:file2").openWriter();
+		file2.append("shared content");
+		file2.close();
+		trx1.commit();
+		assertEquals(store.open("urn:test:file1").toFile(),
+				store.open("urn:test:file2").toFile());
+		BlobVersion trx2 = store.newVersion("urn:test:trx2");
+		Writer file3 = trx2.open("urn:test:file3").openWriter();
+		file3.append("shared content");
+		file3.close();
+		trx2.commit();
+		store.openVersion("urn:test:trx1").erase();
+		assertEquals("shared content", store.open("urn:test:file3")
+				.getCharContent(true).toString());
+	}
+
+}
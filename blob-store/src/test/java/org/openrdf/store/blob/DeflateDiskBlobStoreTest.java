@@ -0,0 +1,81 @@
+package org.openrdf.store.blob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Collections;
+
+public class DeflateDiskBlobStoreTest extends DiskBlobStoreTest {
+
+	@Override
+	public BlobStore createBlobStore(File dir) throws IOException {
+		return BlobStoreFactory.newInstance().openBlobStore(
+				dir.toURI().toString(),
+				Collections.singletonMap("codec", "deflate:9"));
+	}
+
+	public void testCompressedAfterCommit() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1024; i++) {
+			sb.append("test");
+		}
+		BlobVersion trx1 = store.newVersion("urn:test:trx1");
+		Writer file = trx1.open("urn:test:file.txt").openWriter();
+		file.append(sb);
+		file.close();
+		trx1.commit();
+		BlobObject blob = store.openVersion("urn:test:trx1").open(
+				"urn:test:file.txt");
+		long deadline = System.currentTimeMillis() + 10000;
+		while (blob.toFile().length() >= sb.length()
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(blob.toFile().length() < sb.length());
+		assertEquals(sb.length(), blob.getLength());
+		assertEquals(sb.toString(), store.open("urn:test:file.txt")
+				.getCharContent(true).toString());
+	}
+
+	public void testCompressedRange() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < 200000; i++) {
+			sb.append(i).append(' ');
+		}
+		BlobVersion trx1 = store.newVersion("urn:test:trx1");
+		Writer file = trx1.open("urn:test:file.txt").openWriter();
+		file.append(sb);
+		file.close();
+		trx1.commit();
+		BlobObject blob = store.openVersion("urn:test:trx1").open(
+				"urn:test:file.txt");
+		long deadline = System.currentTimeMillis() + 10000;
+		while (blob.toFile().length() >= sb.length()
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(blob.toFile().length() < sb.length());
+		BlobObject live = store.open("urn:test:file.txt");
+		assertEquals(sb.substring(150000, 150100), read(live.openInputStream(
+				150000, 100)));
+		assertEquals(sb.substring(65530), read(live.openInputStream(65530, -1)));
+		assertEquals("", read(live.openInputStream(sb.length(), 10)));
+	}
+
+	private String read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			int read;
+			byte[] buf = new byte[1024];
+			while ((read = in.read(buf)) >= 0) {
+				out.write(buf, 0, read);
+			}
+			return new String(out.toByteArray(), "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+}
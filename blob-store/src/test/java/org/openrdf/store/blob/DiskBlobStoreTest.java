@@ -3,8 +3,12 @@ package org.openrdf.store.blob;
 import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import org.openrdf.store.blob.disk.BlobVacuum;
 import org.openrdf.store.blob.disk.DiskBlobStore;
 
 public class DiskBlobStoreTest extends BlobStoreTestCase {
@@ -168,6 +172,82 @@ public class DiskBlobStoreTest extends BlobStoreTestCase {
 						.getCharContent(true).toString());
 	}
 
+	public void testStoreTrimHistoryAfterRestart() throws Exception {
+		BlobVersion trx1 = store.newVersion("urn:test:trx1");
+		Writer file = trx1.open("urn:test:file").openWriter();
+		file.append("test1");
+		file.close();
+		trx1.commit();
+		BlobVersion trx2 = store.newVersion("urn:test:trx2");
+		file = trx2.open("urn:test:file").openWriter();
+		file.append("test2");
+		file.close();
+		trx2.commit();
+		store.openVersion("urn:test:trx1").erase();
+		store = new DiskBlobStore(dir);
+		try {
+			store.openVersion("urn:test:trx1");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// pass
+		}
+		assertEquals(Arrays.asList("urn:test:file"),
+				Arrays.asList(store.getRecentModifications()));
+		assertEquals("test2",
+				store.openVersion("urn:test:trx2").open("urn:test:file")
+						.getCharContent(true).toString());
+	}
+
+	public void testRecentChangesAfterRead() throws Exception {
+		String[] trx = { "urn:test:trx1", "urn:test:trx2", "urn:test:trx3" };
+		String[] uri = { "urn:test:file1", "urn:test:file2", "urn:test:file1" };
+		for (int i = 0; i < trx.length; i++) {
+			BlobVersion version = store.newVersion(trx[i]);
+			Writer file = version.open(uri[i]).openWriter();
+			file.append("test" + i);
+			file.close();
+			version.commit();
+			// read history before the next commit
+			store.getRecentModifications();
+			store.open("urn:test:file1").getRecentVersions();
+		}
+		assertEquals(Arrays.asList("urn:test:file1", "urn:test:file2",
+				"urn:test:file1"), Arrays.asList(store.getRecentModifications()));
+		assertEquals(Arrays.asList("urn:test:trx3", "urn:test:trx1"),
+				Arrays.asList(store.open("urn:test:file1").getRecentVersions()));
+		store.openVersion("urn:test:trx1").erase();
+		assertEquals(Arrays.asList("urn:test:file1", "urn:test:file2"),
+				Arrays.asList(store.getRecentModifications()));
+		assertEquals(Arrays.asList("urn:test:trx3"),
+				Arrays.asList(store.open("urn:test:file1").getRecentVersions()));
+	}
+
+	public void testStatistics() throws Exception {
+		BlobStoreMXBean bean = (BlobStoreMXBean) store;
+		bean.resetStatistics();
+		BlobVersion trx1 = store.newVersion("urn:test:trx1");
+		Writer file = trx1.open("urn:test:file").openWriter();
+		file.append("test1");
+		file.close();
+		trx1.commit();
+		assertEquals("test1", store.open("urn:test:file").getCharContent(true)
+				.toString());
+		assertEquals(1, bean.getCommitCount());
+		assertEquals(1, bean.getPrepareCount());
+		assertEquals(1, sum(bean.getCommitLatencyHistogram()));
+		assertEquals(5, bean.getBytesWritten());
+		assertEquals(5, bean.getBytesRead());
+		assertTrue(bean.getJournalSize() > 0);
+	}
+
+	private long sum(long[] counts) {
+		long sum = 0;
+		for (long count : counts) {
+			sum += count;
+		}
+		return sum;
+	}
+
 	public void testDuplicate() throws Exception {
 		BlobVersion trx1 = store.newVersion("urn:test:trx1");
 		Writer file = trx1.open("urn:test:file").openWriter();
@@ -183,4 +263,119 @@ public class DiskBlobStoreTest extends BlobStoreTestCase {
 				Arrays.asList(store.open("urn:test:file").getRecentVersions()));
 	}
 
+	public void testDisjointPrepare() throws Exception {
+		BlobVersion trx1 = store.newVersion("urn:test:trx1");
+		Writer file1 = trx1.open("urn:test:file1").openWriter();
+		file1.append("test1");
+		file1.close();
+		trx1.prepare();
+		final CountDownLatch latch = new CountDownLatch(1);
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					Writer file2 = store.open("urn:test:file2").openWriter();
+					file2.append("test2");
+					file2.close();
+					latch.countDown();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}).start();
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		trx1.commit();
+		assertEquals("test2", store.open("urn:test:file2").getCharContent(true)
+				.toString());
+	}
+
+	public void testVacuumRetainVersions() throws Exception {
+		for (int i = 1; i <= 5; i++) {
+			BlobVersion trx = store.newVersion("urn:test:trx" + i);
+			Writer file = trx.open("urn:test:file").openWriter();
+			file.append("test" + i);
+			file.close();
+			trx.commit();
+		}
+		BlobVacuum vacuum = ((DiskBlobStore) store).getVacuum();
+		vacuum.setRetainVersions(2);
+		vacuum.vacuum();
+		assertEquals(3, vacuum.getErasedVersionCount());
+		assertTrue(vacuum.getReclaimedBytes() > 0);
+		assertEquals(Arrays.asList("urn:test:trx5", "urn:test:trx4"),
+				Arrays.asList(store.open("urn:test:file").getRecentVersions()));
+		assertEquals("test4", store.openVersion("urn:test:trx4")
+				.open("urn:test:file").getCharContent(true).toString());
+		assertEquals("test5", store.open("urn:test:file").getCharContent(true)
+				.toString());
+		try {
+			store.openVersion("urn:test:trx1");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// erased
+		}
+	}
+
+	public void testVacuumRetainSeconds() throws Exception {
+		for (int i = 1; i <= 3; i++) {
+			BlobVersion trx = store.newVersion("urn:test:trx" + i);
+			Writer file = trx.open("urn:test:file").openWriter();
+			file.append("test" + i);
+			file.close();
+			trx.commit();
+		}
+		BlobVacuum vacuum = ((DiskBlobStore) store).getVacuum();
+		vacuum.setRetainSeconds(60);
+		vacuum.vacuum();
+		assertEquals(0, vacuum.getErasedVersionCount());
+		assertEquals(3, store.open("urn:test:file").getRecentVersions().length);
+	}
+
+	public void testConcurrentDeletes() throws Exception {
+		BlobVersion trx = store.newVersion("urn:test:trx");
+		for (int i = 0; i < 10; i++) {
+			Writer file = trx.open("urn:test:file" + i).openWriter();
+			file.append("test" + i);
+			file.close();
+		}
+		trx.commit();
+		Thread[] threads = new Thread[10];
+		for (int i = 0; i < threads.length; i++) {
+			final String uri = "urn:test:file" + i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						assertTrue(store.open(uri).delete());
+					} catch (IOException e) {
+						throw new AssertionError(e);
+					}
+				}
+			});
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join(10000);
+			assertFalse(thread.isAlive());
+		}
+		for (int i = 0; i < 10; i++) {
+			assertNull(store.open("urn:test:file" + i).getCharContent(true));
+		}
+	}
+
+	public void testVacuumDoesNotKeepStore() throws Exception {
+		File sub = new File(dir, "sub");
+		DiskBlobStore other = new DiskBlobStore(sub);
+		other.getVacuum().start();
+		assertTrue(other.getVacuum().isStarted());
+		WeakReference<DiskBlobStore> ref = new WeakReference<DiskBlobStore>(
+				other);
+		other = null;
+		for (int i = 0; i < 50 && ref.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(ref.get());
+		new DiskBlobStore(sub).erase();
+	}
+
 }
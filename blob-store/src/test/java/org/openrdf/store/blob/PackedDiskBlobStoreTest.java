@@ -0,0 +1,122 @@
+package org.openrdf.store.blob;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
+
+import org.openrdf.store.blob.disk.BlobVacuum;
+import org.openrdf.store.blob.disk.DiskBlobStore;
+
+public class PackedDiskBlobStoreTest extends DiskBlobStoreTest {
+
+	@Override
+	public BlobStore createBlobStore(File dir) throws IOException {
+		return BlobStoreFactory.newInstance().openBlobStore(
+				dir.toURI().toString(),
+				Collections.singletonMap("pack-size", "4096"));
+	}
+
+	@Override
+	public void testOpenChannel() throws Exception {
+		BlobVersion trx1 = store.newVersion("urn:test:trx1");
+		Writer file = trx1.open("urn:test:file").openWriter();
+		file.append("blob store test");
+		file.close();
+		trx1.commit();
+		ReadableByteChannel ch = store.open("urn:test:file").openChannel();
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(1024);
+			while (ch.read(buf) >= 0)
+				;
+			assertEquals("blob store test", new String(buf.array(), 0,
+					buf.position(), "UTF-8"));
+		} finally {
+			ch.close();
+		}
+	}
+
+	public void testPackedAfterRestart() throws Exception {
+		BlobVersion trx1 = store.newVersion("urn:test:trx1");
+		Writer file = trx1.open("urn:test:small").openWriter();
+		file.append("small");
+		file.close();
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() <= 4096) {
+			sb.append("large");
+		}
+		file = trx1.open("urn:test:large").openWriter();
+		file.append(sb);
+		file.close();
+		trx1.commit();
+		assertNull(store.open("urn:test:small").toFile());
+		assertNotNull(store.open("urn:test:large").toFile());
+		assertTrue(store.open("urn:test:small").getLastModified() > 0);
+		store = createBlobStore(dir);
+		assertEquals(5, store.open("urn:test:small").getLength());
+		assertEquals("small", store.open("urn:test:small").getCharContent(true)
+				.toString());
+		assertEquals(sb.toString(), store.open("urn:test:large")
+				.getCharContent(true).toString());
+	}
+
+	public void testPackCompaction() throws Exception {
+		for (int i = 1; i <= 20; i++) {
+			BlobVersion trx = store.newVersion("urn:test:trx" + i);
+			Writer file = trx.open("urn:test:file").openWriter();
+			file.append("test" + i);
+			file.close();
+			trx.commit();
+		}
+		BlobVacuum vacuum = ((DiskBlobStore) store).getVacuum();
+		vacuum.setRetainVersions(1);
+		vacuum.vacuum();
+		assertEquals(19, vacuum.getErasedVersionCount());
+		assertTrue(vacuum.getReclaimedBytes() > 0);
+		assertEquals(2, new File(dir, "$packs").list().length);
+		assertEquals("test20", store.open("urn:test:file").getCharContent(true)
+				.toString());
+		store = createBlobStore(dir);
+		assertEquals("test20", store.open("urn:test:file").getCharContent(true)
+				.toString());
+	}
+
+	public void testCommitDuringCompaction() throws Exception {
+		for (int i = 1; i <= 100; i++) {
+			BlobVersion trx = store.newVersion("urn:test:trx" + i);
+			Writer file = trx.open("urn:test:file" + i % 10).openWriter();
+			file.append("test" + i);
+			file.close();
+			trx.commit();
+		}
+		final BlobVacuum vacuum = ((DiskBlobStore) store).getVacuum();
+		vacuum.setRetainVersions(1);
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					vacuum.vacuum();
+				} catch (IOException e) {
+					throw new AssertionError(e);
+				}
+			}
+		});
+		thread.start();
+		for (int i = 101; i <= 120; i++) {
+			BlobVersion trx = store.newVersion("urn:test:trx" + i);
+			Writer file = trx.open("urn:test:file" + i % 10).openWriter();
+			file.append("test" + i);
+			file.close();
+			trx.commit();
+		}
+		thread.join();
+		vacuum.vacuum();
+		store = createBlobStore(dir);
+		for (int i = 111; i <= 120; i++) {
+			assertEquals("test" + i, store.open("urn:test:file" + i % 10)
+					.getCharContent(true).toString());
+		}
+	}
+
+}
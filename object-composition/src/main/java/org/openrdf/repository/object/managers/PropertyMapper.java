@@ -56,7 +56,11 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Reads in property mapping files and determines which properties should be
- * eagarly loaded.
+ * eagarly loaded. The mappings of each class are only reflected once and kept
+ * for the life of this mapper. They strongly reference the mapped classes, and
+ * so their class loaders, so a mapper should not outlive the concepts it maps;
+ * use the one of the {@link org.openrdf.repository.object.composition.ClassResolver}
+ * rather than a mapper of your own.
  * 
  * @author James Leigh
  * 
@@ -72,6 +76,18 @@ public class PropertyMapper {
 			.getLogger(PropertyMapper.class);
 	private boolean readTypes;
 	private Properties properties = new Properties();
+	private final Map<Class<?>, Mappings> mappings = new HashMap<Class<?>, Mappings>();
+
+	/** The mappings found for a class, each computed when first needed */
+	private static class Mappings {
+		Collection<Field> fields;
+		Collection<PropertyDescriptor> properties;
+		Collection<PropertyDescriptor> functionalProperties;
+		Collection<Field> functionalFields;
+		Map<String, String> eagerProperties;
+		boolean eagerPropertiesFound;
+		final Map<String, String> predicates = new HashMap<String, String>();
+	}
 
 	public PropertyMapper(ClassLoader cl, boolean readTypes) {
 		loadProperties(cl);
@@ -83,23 +99,35 @@ public class PropertyMapper {
 	}
 
 	public Collection<Field> findFields(Class<?> concept) {
-		List<Field> fields = new ArrayList<Field>();
-		for (Field field : concept.getDeclaredFields()) {
-			if (isMappedField(field)) {
-				fields.add(field);
+		Mappings m = getMappings(concept);
+		synchronized (m) {
+			if (m.fields == null) {
+				List<Field> fields = new ArrayList<Field>();
+				for (Field field : concept.getDeclaredFields()) {
+					if (isMappedField(field)) {
+						fields.add(field);
+					}
+				}
+				m.fields = Collections.unmodifiableList(fields);
 			}
+			return m.fields;
 		}
-		return fields;
 	}
 
 	public Collection<PropertyDescriptor> findProperties(Class<?> concept) {
-		List<PropertyDescriptor> properties = new ArrayList<PropertyDescriptor>();
-		for (Method method : concept.getDeclaredMethods()) {
-			if (isMappedGetter(method)) {
-				properties.add(createPropertyDescriptor(method));
+		Mappings m = getMappings(concept);
+		synchronized (m) {
+			if (m.properties == null) {
+				List<PropertyDescriptor> properties = new ArrayList<PropertyDescriptor>();
+				for (Method method : concept.getDeclaredMethods()) {
+					if (isMappedGetter(method)) {
+						properties.add(createPropertyDescriptor(method));
+					}
+				}
+				m.properties = Collections.unmodifiableList(properties);
 			}
+			return m.properties;
 		}
-		return properties;
 	}
 
 	public String findPredicate(Field field) {
@@ -126,30 +154,80 @@ public class PropertyMapper {
 		return rdf.value();
 	}
 
+	/**
+	 * @return the predicate of the named property or field of the given type
+	 *         or its super types, or null if it is not mapped
+	 */
+	public String findPredicate(Class<?> type, String property) {
+		Mappings m = getMappings(type);
+		synchronized (m) {
+			if (m.predicates.containsKey(property))
+				return m.predicates.get(property);
+		}
+		String pred = readPredicate(type, property);
+		synchronized (m) {
+			m.predicates.put(property, pred);
+		}
+		return pred;
+	}
+
+	private String readPredicate(Class<?> type, String property) {
+		for (PropertyDescriptor pd : findProperties(type)) {
+			if (pd.getName().equals(property))
+				return findPredicate(pd);
+		}
+		for (Field field : findFields(type)) {
+			if (field.getName().equals(property))
+				return findPredicate(field);
+		}
+		for (Class<?> face : type.getInterfaces()) {
+			String pred = findPredicate(face, property);
+			if (pred != null)
+				return pred;
+		}
+		if (type.getSuperclass() == null)
+			return null;
+		return findPredicate(type.getSuperclass(), property);
+	}
+
 	public Collection<PropertyDescriptor> findFunctionalProperties(Class<?> type) {
-		Map<String, PropertyDescriptor> properties = new HashMap<String, PropertyDescriptor>();
-		findFunctionalProperties(type, properties);
-		return properties.values();
+		Mappings m = getMappings(type);
+		synchronized (m) {
+			if (m.functionalProperties == null) {
+				Map<String, PropertyDescriptor> properties = new HashMap<String, PropertyDescriptor>();
+				findFunctionalProperties(type, properties);
+				m.functionalProperties = Collections
+						.unmodifiableCollection(properties.values());
+			}
+			return m.functionalProperties;
+		}
 	}
 
 	public Collection<Field> findFunctionalFields(Class<?> type) {
 		if (type.isInterface())
 			return Collections.emptySet();
-		Map<String, Field> properties = new HashMap<String, Field>();
-		findFunctionalFields(type, properties);
-		return properties.values();
+		Mappings m = getMappings(type);
+		synchronized (m) {
+			if (m.functionalFields == null) {
+				Map<String, Field> properties = new HashMap<String, Field>();
+				findFunctionalFields(type, properties);
+				m.functionalFields = Collections
+						.unmodifiableCollection(properties.values());
+			}
+			return m.functionalFields;
+		}
 	}
 
 	/** @return map of name to uri */
 	public Map<String, String> findEagerProperties(Class<?> type) {
-		Map<String, String> properties = new HashMap<String, String>();
-		findEagerProperties(type, properties);
-		if (properties.isEmpty())
-			return null;
-		if (readTypes) {
-			properties.put("class", RDF.TYPE.stringValue());
+		Mappings m = getMappings(type);
+		synchronized (m) {
+			if (!m.eagerPropertiesFound) {
+				m.eagerProperties = readEagerProperties(type);
+				m.eagerPropertiesFound = true;
+			}
+			return m.eagerProperties;
 		}
-		return properties;
 	}
 
 	public boolean isMappedField(Field field) {
@@ -162,6 +240,27 @@ public class PropertyMapper {
 		return properties.containsKey(key);
 	}
 
+	private Mappings getMappings(Class<?> type) {
+		synchronized (mappings) {
+			Mappings m = mappings.get(type);
+			if (m == null) {
+				mappings.put(type, m = new Mappings());
+			}
+			return m;
+		}
+	}
+
+	private Map<String, String> readEagerProperties(Class<?> type) {
+		Map<String, String> properties = new HashMap<String, String>();
+		findEagerProperties(type, properties);
+		if (properties.isEmpty())
+			return null;
+		if (readTypes) {
+			properties.put("class", RDF.TYPE.stringValue());
+		}
+		return Collections.unmodifiableMap(properties);
+	}
+
 	private void findFunctionalProperties(Class<?> concept,
 			Map<String, PropertyDescriptor> properties) {
 		for (PropertyDescriptor pd : findProperties(concept)) {
@@ -0,0 +1,67 @@
+package org.openrdf.repository.object.managers;
+
+import java.beans.PropertyDescriptor;
+import java.util.Collection;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.openrdf.annotations.Iri;
+
+public class PropertyMapperTest extends TestCase {
+
+	public interface Named {
+		@Iri("urn:test:name")
+		String getName();
+
+		void setName(String name);
+	}
+
+	public interface Person extends Named {
+		@Iri("urn:test:age")
+		int getAge();
+
+		void setAge(int age);
+	}
+
+	private PropertyMapper mapper;
+
+	public void setUp() throws Exception {
+		mapper = new PropertyMapper(getClass().getClassLoader(), false);
+	}
+
+	public void testFindProperties() throws Exception {
+		Collection<PropertyDescriptor> properties = mapper
+				.findProperties(Person.class);
+		assertEquals(1, properties.size());
+		assertEquals("age", properties.iterator().next().getName());
+		assertSame(properties, mapper.findProperties(Person.class));
+	}
+
+	public void testFindFunctionalProperties() throws Exception {
+		Collection<PropertyDescriptor> properties = mapper
+				.findFunctionalProperties(Person.class);
+		assertEquals(2, properties.size());
+		assertSame(properties, mapper.findFunctionalProperties(Person.class));
+	}
+
+	public void testFindEagerProperties() throws Exception {
+		Map<String, String> eager = mapper.findEagerProperties(Person.class);
+		assertEquals("urn:test:name", eager.get("name"));
+		assertEquals("urn:test:age", eager.get("age"));
+		try {
+			eager.remove("age");
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// shared by every caller
+		}
+		assertEquals(2, mapper.findEagerProperties(Person.class).size());
+	}
+
+	public void testFindPredicate() throws Exception {
+		assertEquals("urn:test:name", mapper.findPredicate(Person.class,
+				"name"));
+		assertNull(mapper.findPredicate(Person.class, "missing"));
+		assertNull(mapper.findPredicate(Person.class, "missing"));
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.repository.object;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+
+/**
+ * Bounded cache of rdf:types and property values that is shared by all the
+ * connections of an {@link ObjectRepository}. Entries are keyed by subject and
+ * are dropped when a transaction that changed statements about that subject is
+ * committed through one of the repository's connections.
+ */
+public class ObjectCache {
+
+	private static class Entry {
+		Set<URI> types;
+		Map<URI, List<Value>> values;
+	}
+
+	private final int capacity;
+	private final Map<Resource, Entry> entries;
+	private long generation;
+
+	/**
+	 * @param capacity
+	 *            the maximum number of subjects held in the cache
+	 */
+	public ObjectCache(final int capacity) {
+		assert capacity > 0;
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<Resource, Entry>(capacity / 4 + 1,
+				0.75f, true) {
+			private static final long serialVersionUID = 4826148357418223470L;
+
+			protected boolean removeEldestEntry(Map.Entry<Resource, Entry> e) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Identifies the current state of the cache. Values read from the store
+	 * are only added to the cache if no entries were invalidated since the
+	 * read began.
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * The cached rdf:types of this subject or null.
+	 */
+	public synchronized Set<URI> getTypes(Resource subj) {
+		Entry entry = entries.get(subj);
+		if (entry == null)
+			return null;
+		return entry.types;
+	}
+
+	public synchronized void putTypes(Resource subj, Set<URI> types, long since) {
+		if (since != generation)
+			return;
+		getEntry(subj).types = Collections.unmodifiableSet(new HashSet<URI>(
+				types));
+	}
+
+	/**
+	 * The cached values of this subject's property or null.
+	 */
+	public synchronized List<Value> getValues(Resource subj, URI pred) {
+		Entry entry = entries.get(subj);
+		if (entry == null || entry.values == null)
+			return null;
+		return entry.values.get(pred);
+	}
+
+	public synchronized void putValues(Resource subj, URI pred,
+			List<Value> values, long since) {
+		if (since != generation)
+			return;
+		Entry entry = getEntry(subj);
+		if (entry.values == null) {
+			entry.values = new HashMap<URI, List<Value>>();
+		}
+		List<Value> list = new ArrayList<Value>(values);
+		entry.values.put(pred, Collections.unmodifiableList(list));
+	}
+
+	/**
+	 * Drops everything known about the given subjects.
+	 */
+	public synchronized void invalidate(Collection<? extends Resource> subjects) {
+		generation++;
+		for (Resource subj : subjects) {
+			entries.remove(subj);
+		}
+	}
+
+	public synchronized void clear() {
+		generation++;
+		entries.clear();
+	}
+
+	@Override
+	public String toString() {
+		return "ObjectCache(" + size() + "/" + capacity + ")";
+	}
+
+	private Entry getEntry(Resource subj) {
+		Entry entry = entries.get(subj);
+		if (entry == null) {
+			entries.put(subj, entry = new Entry());
+		}
+		return entry;
+	}
+}
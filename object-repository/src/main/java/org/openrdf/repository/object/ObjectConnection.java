@@ -29,17 +29,19 @@
 package org.openrdf.repository.object;
 
 import static org.openrdf.query.QueryLanguage.SPARQL;
-import info.aduna.iteration.CloseableIteration;
 import info.aduna.iteration.LookAheadIteration;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,10 +51,19 @@ import org.openrdf.model.Resource;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.OWL;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.Dataset;
 import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.Operation;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.QueryLanguage;
 import org.openrdf.query.TupleQuery;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.Update;
+import org.openrdf.query.UpdateExecutionException;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.contextaware.ContextAwareConnection;
@@ -62,6 +73,7 @@ import org.openrdf.repository.object.exceptions.ObjectPersistException;
 import org.openrdf.repository.object.managers.helpers.WeakValueMap;
 import org.openrdf.repository.object.result.ObjectIterator;
 import org.openrdf.repository.object.traits.Mergeable;
+import org.openrdf.repository.object.traits.PropertyConsumer;
 import org.openrdf.repository.object.traits.RDFObjectBehaviour;
 import org.openrdf.repository.object.traits.Refreshable;
 import org.openrdf.result.Result;
@@ -79,6 +91,114 @@ import org.slf4j.LoggerFactory;
  *
  */
 public class ObjectConnection extends ContextAwareConnection {
+
+	/**
+	 * Invalidates the shared cache after an update has been executed, as its
+	 * changed subjects are not known.
+	 */
+	private class InvalidatingUpdate implements Update {
+		private final Update delegate;
+
+		InvalidatingUpdate(Update delegate) {
+			this.delegate = delegate;
+		}
+
+		public void execute() throws UpdateExecutionException {
+			try {
+				delegate.execute();
+			} finally {
+				modified(null, null, null);
+			}
+		}
+
+		public void setBinding(String name, Value value) {
+			delegate.setBinding(name, value);
+		}
+
+		public void removeBinding(String name) {
+			delegate.removeBinding(name);
+		}
+
+		public void clearBindings() {
+			delegate.clearBindings();
+		}
+
+		public BindingSet getBindings() {
+			return delegate.getBindings();
+		}
+
+		public void setDataset(Dataset dataset) {
+			delegate.setDataset(dataset);
+		}
+
+		public Dataset getDataset() {
+			return delegate.getDataset();
+		}
+
+		public void setIncludeInferred(boolean includeInferred) {
+			delegate.setIncludeInferred(includeInferred);
+		}
+
+		public boolean getIncludeInferred() {
+			return delegate.getIncludeInferred();
+		}
+
+		public void setMaxExecutionTime(int maxExecTime) {
+			delegate.setMaxExecutionTime(maxExecTime);
+		}
+
+		public int getMaxExecutionTime() {
+			return delegate.getMaxExecutionTime();
+		}
+
+		@Override
+		public String toString() {
+			return delegate.toString();
+		}
+	}
+
+	/**
+	 * Declares a variable without a value, indicating a property with no
+	 * values.
+	 */
+	private static class UnboundBindingSet implements BindingSet {
+		private static final long serialVersionUID = -2904335915624457375L;
+		private final String name;
+
+		UnboundBindingSet(String name) {
+			this.name = name;
+		}
+
+		public Iterator<Binding> iterator() {
+			return Collections.<Binding> emptyList().iterator();
+		}
+
+		public Set<String> getBindingNames() {
+			return Collections.singleton(name);
+		}
+
+		public Binding getBinding(String bindingName) {
+			return null;
+		}
+
+		public boolean hasBinding(String bindingName) {
+			return false;
+		}
+
+		public Value getValue(String bindingName) {
+			return null;
+		}
+
+		public int size() {
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + name + "]";
+		}
+	}
+
 	/**
 	 * Closes open iterators.
 	 *
@@ -88,6 +208,8 @@ public class ObjectConnection extends ContextAwareConnection {
 		ObjectIterator.close(iter);
 	}
 
+	static final int DEFAULT_BATCH_SIZE = 256;
+	private static final int OPERATION_CACHE_SIZE = 64;
 	final Logger logger = LoggerFactory.getLogger(ObjectConnection.class);
 	private final ObjectRepository repository;
 	private String language;
@@ -96,19 +218,39 @@ public class ObjectConnection extends ContextAwareConnection {
 	private final Map<Object, Resource> assigned = new IdentityHashMap<Object, Resource>();
 	private final Set<Resource> merged = new HashSet<Resource>();
 	private final Map<Class<?>, Map<Integer, ObjectQuery>> queries = new HashMap<Class<?>, Map<Integer, ObjectQuery>>();
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private final Map<String, Operation> operations = new LinkedHashMap<String, Operation>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 2364736155937838014L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, Operation> eldest) {
+			return size() > OPERATION_CACHE_SIZE;
+		}
+	};
 	private final BlobStore blobs;
 	private URI versionBundle;
 	private BlobVersion blobVersion;
 	private final Map<Resource, RDFObject> cachedObjects = new WeakValueMap<Resource, RDFObject>(512);
+	private final ObjectCache shared;
+	private final Set<Resource> modified = new HashSet<Resource>();
+	private boolean modifiedAll;
 
 	protected ObjectConnection(ObjectRepository repository,
 			RepositoryConnection connection, ObjectFactory factory,
 			TypeManager types, BlobStore blobs) throws RepositoryException {
+		this(repository, connection, factory, types, blobs, null);
+	}
+
+	protected ObjectConnection(ObjectRepository repository,
+			RepositoryConnection connection, ObjectFactory factory,
+			TypeManager types, BlobStore blobs, ObjectCache shared)
+			throws RepositoryException {
 		super(repository, connection);
 		this.repository = repository;
 		this.of = factory;
 		this.types = types;
 		this.blobs = blobs;
+		this.shared = shared;
 		types.setConnection(this);
 		factory.setObjectConnection(this);
 	}
@@ -154,6 +296,10 @@ public class ObjectConnection extends ContextAwareConnection {
 			super.close();
 		} finally {
 			cachedObjects.clear();
+			synchronized (operations) {
+				operations.clear();
+			}
+			discardModified();
 		}
 	}
 
@@ -168,6 +314,7 @@ public class ObjectConnection extends ContextAwareConnection {
 		}
 		super.rollback();
 		cachedObjects.clear();
+		discardModified();
 	}
 
 	@Override
@@ -182,6 +329,7 @@ public class ObjectConnection extends ContextAwareConnection {
 					}
 				}
 				super.commit();
+				invalidateModified();
 				if (blobVersion != null) {
 					blobVersion.commit();
 					blobVersion = null;
@@ -224,7 +372,54 @@ public class ObjectConnection extends ContextAwareConnection {
 			}
 		} else {
 			super.setAutoCommit(auto);
+			if (auto) {
+				invalidateModified();
+			}
+		}
+	}
+
+	/**
+	 * Statements are routed through this connection when the repository
+	 * shares a cache, so that changed subjects can be invalidated on commit,
+	 * and whenever the inherited connection needs them, such as to archive.
+	 */
+	@Override
+	public boolean isDelegatingAdd() throws RepositoryException {
+		return shared == null && super.isDelegatingAdd();
+	}
+
+	@Override
+	public boolean isDelegatingRemove() throws RepositoryException {
+		return shared == null && super.isDelegatingRemove();
+	}
+
+	@Override
+	public Update prepareUpdate(QueryLanguage ql, String update, String baseURI)
+			throws MalformedQueryException, RepositoryException {
+		Update delegate = super.prepareUpdate(ql, update, baseURI);
+		if (shared == null)
+			return delegate;
+		return new InvalidatingUpdate(delegate);
+	}
+
+	/**
+	 * The cache shared by the repository's connections, if there is one and
+	 * its content is what this connection would read about the given resource.
+	 * 
+	 * @return an {@link ObjectCache} or null
+	 */
+	public ObjectCache getObjectCache(Resource resource) {
+		if (shared == null)
+			return null;
+		if (isIncludeInferred() != repository.isIncludeInferred())
+			return null;
+		if (!Arrays.equals(getReadContexts(), repository.getReadContexts()))
+			return null;
+		synchronized (modified) {
+			if (modifiedAll || modified.contains(resource))
+				return null;
 		}
+		return shared;
 	}
 
 	/**
@@ -523,6 +718,39 @@ public class ObjectConnection extends ContextAwareConnection {
 		return cache(of.createObject(resource, types.getTypes(resource)));
 	}
 
+	/**
+	 * Loads the Objects of the given resources and converts the literals, in
+	 * order. The rdf:types of resources that are not already loaded are read
+	 * in batches of {@link #getBatchSize()}.
+	 */
+	public synchronized List<Object> getObjects(
+			Collection<? extends Value> values) throws RepositoryException {
+		List<Resource> resources = new ArrayList<Resource>(values.size());
+		for (Value value : values) {
+			if (value instanceof Resource && cached((Resource) value) == null) {
+				resources.add((Resource) value);
+			}
+		}
+		Map<Resource, Set<URI>> map = types.getTypes(resources);
+		List<Object> result = new ArrayList<Object>(values.size());
+		for (Value value : values) {
+			Set<URI> list = map.get(value);
+			if (value instanceof Literal) {
+				result.add(of.createObject((Literal) value));
+			} else if (list == null) {
+				result.add(getObject(value));
+			} else {
+				Resource resource = (Resource) value;
+				RDFObject cached = cached(resource);
+				if (cached == null) {
+					cached = cache(of.createObject(resource, list));
+				}
+				result.add(cached);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Loads a single Object that is assumed to be of the given concept.
 	 */
@@ -587,41 +815,65 @@ public class ObjectConnection extends ContextAwareConnection {
 	/**
 	 * Loads the list of resources assumed to implement the given concept. The
 	 * concept must be a named concept and cannot be mapped to rdfs:Resource.
+	 * Resources are read in batches of {@link #getBatchSize()} as they are
+	 * iterated.
 	 */
 	public synchronized <T> Result<T> getObjects(final Class<T> concept,
 			Resource... resources) throws RepositoryException,
 			QueryEvaluationException {
-		try {
-			int size = resources.length;
-			ObjectQuery query = getObjectQuery(concept, size);
-			if (size == 1) {
-				query.setBinding(ObjectFactory.VAR_PREFIX, resources[0]);
-			} else if (size > 1) {
-				for (int i = 0; i < size; i++) {
-					query.setBinding(ObjectFactory.VAR_PREFIX + i, resources[i]);
+		if (resources.length == 0)
+			return getObjects(concept);
+		final Iterator<List<Resource>> batches = batch(resources).iterator();
+		return new ResultImpl<T>(new LookAheadIteration<T, QueryEvaluationException>() {
+			private Result<T> result;
+			private final Set<Resource> missing = new LinkedHashSet<Resource>();
+
+			@Override
+			protected T getNextElement() throws QueryEvaluationException {
+				while (true) {
+					if (result != null) {
+						T next = result.next();
+						if (next != null) {
+							missing.remove(((RDFObject) next).getResource());
+							return next;
+						}
+						result.close();
+						result = null;
+					}
+					if (!missing.isEmpty()) {
+						Iterator<Resource> iter = missing.iterator();
+						Resource resource = iter.next();
+						iter.remove();
+						return (T) cache(of.createObject(resource));
+					}
+					if (!batches.hasNext())
+						return null;
+					List<Resource> batch = batches.next();
+					missing.addAll(batch);
+					result = evaluate(concept, batch);
 				}
 			}
-			final List<Resource> list = new ArrayList<Resource>(size);
-			list.addAll(Arrays.asList(resources));
-			CloseableIteration<T, QueryEvaluationException> iter;
-			final Result<T> result = query.evaluate(concept);
-			iter = new LookAheadIteration<T, QueryEvaluationException>() {
-				@Override
-				protected T getNextElement() throws QueryEvaluationException {
-					T next = result.next();
-					if (next != null) {
-						list.remove(((RDFObject) next).getResource());
-						return next;
-					}
-					if (!list.isEmpty())
-						return (T) cache(of.createObject(list.remove(0)));
-					return null;
+
+			@Override
+			protected void handleClose() throws QueryEvaluationException {
+				if (result != null) {
+					result.close();
 				}
-			};
-			return new ResultImpl<T>(iter);
-		} catch (MalformedQueryException e) {
-			throw new AssertionError(e);
-		}
+			}
+		});
+	}
+
+	/**
+	 * The maximum number of resources read by a single query when loading a
+	 * list of resources.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		assert batchSize > 0;
+		this.batchSize = batchSize;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -641,6 +893,47 @@ public class ObjectConnection extends ContextAwareConnection {
 		return (T) cache(of.createBean(resource, proxy));
 	}
 
+	/**
+	 * Reads the values of the named properties of all the given beans, using a
+	 * query for each property and batch of beans, rather than a query for each
+	 * bean when the property is first read. Beans from other connections and
+	 * properties that are not mapped to a predicate are ignored.
+	 */
+	public synchronized void prefetch(Collection<?> beans, String... properties)
+			throws RepositoryException, QueryEvaluationException {
+		Map<Resource, PropertyConsumer> consumers = new HashMap<Resource, PropertyConsumer>();
+		Map<Class<?>, List<Resource>> classes = new LinkedHashMap<Class<?>, List<Resource>>();
+		for (Object bean : beans) {
+			if (!(bean instanceof RDFObject) || !(bean instanceof PropertyConsumer))
+				continue;
+			if (((RDFObject) bean).getObjectConnection() != this)
+				continue;
+			Resource resource = ((RDFObject) bean).getResource();
+			if (!of.isInlineable(resource) || consumers.containsKey(resource))
+				continue;
+			consumers.put(resource, (PropertyConsumer) bean);
+			List<Resource> list = classes.get(bean.getClass());
+			if (list == null) {
+				classes.put(bean.getClass(), list = new ArrayList<Resource>());
+			}
+			list.add(resource);
+		}
+		for (Map.Entry<Class<?>, List<Resource>> e : classes.entrySet()) {
+			List<Resource> list = e.getValue();
+			for (String property : properties) {
+				for (int i = 0; i < list.size(); i += batchSize) {
+					List<Resource> batch = list.subList(i,
+							Math.min(i + batchSize, list.size()));
+					String sparql = of.createPrefetchQuery(e.getKey(), property,
+							batch);
+					if (sparql == null)
+						break;
+					prefetch(sparql, property, batch, consumers);
+				}
+			}
+		}
+	}
+
 	public synchronized BlobObject getBlobObject(final String uri)
 			throws RepositoryException {
 		if (blobs == null)
@@ -692,6 +985,44 @@ public class ObjectConnection extends ContextAwareConnection {
 		return createObjectQuery(prepareTupleQuery(query));
 	}
 
+	/**
+	 * Removes and returns an operation that was prepared by this connection
+	 * and given to {@link #releaseOperation(String, Operation)} with the same
+	 * key, while the connection's dataset settings were the same as they are
+	 * now. The bindings of the operation should be cleared before it is used.
+	 * 
+	 * @return a previously prepared {@link Operation} or null
+	 */
+	public Operation reuseOperation(String key) {
+		synchronized (operations) {
+			return operations.remove(getOperationKey(key));
+		}
+	}
+
+	/**
+	 * Keeps a prepared operation, that is no longer in use, so it can be
+	 * evaluated again without being parsed again.
+	 */
+	public void releaseOperation(String key, Operation operation) {
+		synchronized (operations) {
+			operations.put(getOperationKey(key), operation);
+		}
+	}
+
+	@Override
+	protected void addWithoutCommit(Resource subject, URI predicate,
+			Value object, Resource... contexts) throws RepositoryException {
+		super.addWithoutCommit(subject, predicate, object, contexts);
+		modified(subject, predicate, object);
+	}
+
+	@Override
+	protected void removeWithoutCommit(Resource subject, URI predicate,
+			Value object, Resource... contexts) throws RepositoryException {
+		super.removeWithoutCommit(subject, predicate, object, contexts);
+		modified(subject, predicate, object);
+	}
+
 	RDFObject cache(RDFObject object) {
 		cachedObjects.put(object.getResource(), object);
 		return object;
@@ -701,6 +1032,79 @@ public class ObjectConnection extends ContextAwareConnection {
 		return cachedObjects.get(resource);
 	}
 
+	/**
+	 * Groups resources that can be listed in a query into batches, others are
+	 * read one at a time.
+	 */
+	private List<List<Resource>> batch(Resource[] resources) {
+		List<List<Resource>> batches = new ArrayList<List<Resource>>();
+		List<Resource> batch = null;
+		for (Resource resource : resources) {
+			if (!of.isInlineable(resource)) {
+				batches.add(Collections.singletonList(resource));
+			} else {
+				if (batch == null || batch.size() >= batchSize) {
+					batches.add(batch = new ArrayList<Resource>(Math.min(
+							batchSize, resources.length)));
+				}
+				batch.add(resource);
+			}
+		}
+		return batches;
+	}
+
+	private void prefetch(String sparql, String property, List<Resource> batch,
+			Map<Resource, PropertyConsumer> consumers)
+			throws RepositoryException, QueryEvaluationException {
+		String var = ObjectFactory.PREFETCH_VAR;
+		Map<Value, List<BindingSet>> rows = new HashMap<Value, List<BindingSet>>();
+		TupleQueryResult result;
+		try {
+			result = prepareTupleQuery(SPARQL, sparql).evaluate();
+		} catch (MalformedQueryException e) {
+			throw new RepositoryException(e);
+		}
+		try {
+			while (result.hasNext()) {
+				BindingSet row = result.next();
+				List<BindingSet> list = rows.get(row.getValue(var));
+				if (list == null) {
+					rows.put(row.getValue(var), list = new ArrayList<BindingSet>());
+				}
+				list.add(row);
+			}
+		} finally {
+			result.close();
+		}
+		for (Resource resource : batch) {
+			List<BindingSet> list = rows.get(resource);
+			if (list == null) {
+				String name = var + "_" + property;
+				list = Collections.<BindingSet> singletonList(new UnboundBindingSet(name));
+			}
+			consumers.get(resource).usePropertyBindings(var, list);
+		}
+	}
+
+	private synchronized <T> Result<T> evaluate(Class<T> concept,
+			List<Resource> batch) throws QueryEvaluationException {
+		try {
+			ObjectQuery query;
+			if (batch.size() == 1) {
+				query = getObjectQuery(concept, 1);
+				query.setBinding(ObjectFactory.VAR_PREFIX, batch.get(0));
+			} else {
+				String sparql = of.createObjectQuery(concept, batch);
+				query = prepareObjectQuery(SPARQL, sparql);
+			}
+			return query.evaluate(concept);
+		} catch (MalformedQueryException e) {
+			throw new AssertionError(e);
+		} catch (RepositoryException e) {
+			throw new QueryEvaluationException(e);
+		}
+	}
+
 	/** method and result synchronised on this */
 	private <T> ObjectQuery getObjectQuery(Class<T> concept,
 			int length) throws MalformedQueryException,
@@ -720,6 +1124,75 @@ public class ObjectConnection extends ContextAwareConnection {
 		}
 	}
 
+	/**
+	 * Records a subject whose statements are changed by this transaction. A
+	 * wildcard or a change to the schema could affect any subject. When
+	 * inferred statements are read, the object's inferred rdf:types may also
+	 * change, such as through the rdfs:range of the predicate.
+	 */
+	void modified(Resource subject, URI predicate, Value object) {
+		if (shared == null)
+			return;
+		boolean inferred = isIncludeInferred();
+		synchronized (modified) {
+			if (subject == null || predicate == null || isSchema(predicate)
+					|| inferred && object == null) {
+				modifiedAll = true;
+			} else if (!modifiedAll) {
+				modified.add(subject);
+				if (inferred && object instanceof Resource) {
+					modified.add((Resource) object);
+				}
+			}
+		}
+		if (isAutoCommit()) {
+			invalidateModified();
+		}
+	}
+
+	private boolean isSchema(URI predicate) {
+		if (!isIncludeInferred())
+			return false;
+		if (OWL.NAMESPACE.equals(predicate.getNamespace()))
+			return true;
+		return RDFS.SUBCLASSOF.equals(predicate)
+				|| RDFS.SUBPROPERTYOF.equals(predicate)
+				|| RDFS.DOMAIN.equals(predicate)
+				|| RDFS.RANGE.equals(predicate);
+	}
+
+	private void invalidateModified() {
+		if (shared == null)
+			return;
+		synchronized (modified) {
+			if (modifiedAll) {
+				shared.clear();
+			} else if (!modified.isEmpty()) {
+				shared.invalidate(modified);
+			}
+			modified.clear();
+			modifiedAll = false;
+		}
+	}
+
+	private void discardModified() {
+		synchronized (modified) {
+			modified.clear();
+			modifiedAll = false;
+		}
+	}
+
+	/** Operations are prepared with the dataset of the connection */
+	private String getOperationKey(String key) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(isIncludeInferred()).append(' ');
+		sb.append(getMaxQueryTime()).append(' ');
+		sb.append(Arrays.toString(getReadContexts())).append(' ');
+		sb.append(Arrays.toString(getRemoveContexts())).append(' ');
+		sb.append(getInsertContext()).append('\n');
+		return sb.append(key).toString();
+	}
+
 	private ObjectQuery createObjectQuery(TupleQuery query) {
 		return new ObjectQuery(this, query);
 	}
@@ -51,6 +51,7 @@ import org.openrdf.repository.object.advisers.helpers.ObjectQueryFactory;
 import org.openrdf.repository.object.composition.ClassResolver;
 import org.openrdf.repository.object.exceptions.ObjectCompositionException;
 import org.openrdf.repository.object.managers.LiteralManager;
+import org.openrdf.repository.object.managers.PropertyMapper;
 import org.openrdf.repository.object.traits.ManagedRDFObject;
 import org.openrdf.repository.object.traits.RDFObjectBehaviour;
 
@@ -62,6 +63,7 @@ import org.openrdf.repository.object.traits.RDFObjectBehaviour;
  */
 public class ObjectFactory {
 	static final String VAR_PREFIX = "subj"; 
+	static final String PREFETCH_VAR = "self";
 	private LiteralManager lm;
 	private ClassResolver resolver;
 	private ObjectConnection connection;
@@ -81,6 +83,13 @@ public class ObjectFactory {
 		return resolver.getClassLoader();
 	}
 
+	/**
+	 * @return The PropertyMapper of the concepts of this ObjectFactory.
+	 */
+	public PropertyMapper getPropertyMapper() {
+		return resolver.getPropertyMapper();
+	}
+
 	/**
 	 * Converts a literal into an object.
 	 */
@@ -237,7 +246,76 @@ public class ObjectFactory {
 		factories = new HashMap<Class<?>, ObjectQueryFactory>();
 	}
 
+	/**
+	 * Query for every object of the given concept (zero bindings) or for the
+	 * object bound to <code>$subj</code> (one binding).
+	 */
 	protected String createObjectQuery(Class<?> concept, int bindings) {
+		assert bindings == 0 || bindings == 1;
+		return createObjectQuery(concept, bindings, null);
+	}
+
+	/**
+	 * Query for the given subjects listed in a VALUES block, so each can be
+	 * looked up by index.
+	 * 
+	 * @see #isInlineable(Resource)
+	 */
+	protected String createObjectQuery(Class<?> concept,
+			Collection<? extends Resource> subjects) {
+		return createObjectQuery(concept, subjects.size(), subjects);
+	}
+
+	/**
+	 * Query for the values of the named property of the given subjects, bound
+	 * to <code>?self_property</code>, or null if the property is not mapped.
+	 */
+	protected String createPrefetchQuery(Class<?> type, String property,
+			Collection<? extends Resource> subjects) {
+		String pred = resolver.getPropertyMapper().findPredicate(type, property);
+		if (pred == null)
+			return null;
+		String var = " ?" + PREFETCH_VAR + "_" + property;
+		StringBuilder sb = new StringBuilder();
+		sb.append("SELECT REDUCED ?").append(PREFETCH_VAR).append(var);
+		boolean namedTypePresent = resolver.getRoleMapper().isNamedTypePresent();
+		if (namedTypePresent) {
+			sb.append(var).append("_class");
+		}
+		sb.append("\nWHERE { ");
+		sb.append("\nVALUES ?").append(PREFETCH_VAR).append(" {");
+		for (Resource subj : subjects) {
+			assert isInlineable(subj);
+			sb.append(" <").append(subj.stringValue()).append(">");
+		}
+		sb.append(" }");
+		sb.append("\n?").append(PREFETCH_VAR).append(" <").append(pred);
+		sb.append(">").append(var).append(" .");
+		if (namedTypePresent) {
+			sb.append("\nOPTIONAL {").append(var).append(" <").append(RDF.TYPE);
+			sb.append(">").append(var).append("_class }");
+		}
+		sb.append(" } ");
+		return sb.toString();
+	}
+
+	/**
+	 * If the given resource can be written into the text of a query.
+	 */
+	boolean isInlineable(Resource resource) {
+		if (!(resource instanceof URI))
+			return false;
+		String uri = resource.stringValue();
+		for (int i = 0, n = uri.length(); i < n; i++) {
+			char chr = uri.charAt(i);
+			if (chr <= ' ' || "<>\"{}|^`\\".indexOf(chr) >= 0)
+				return false;
+		}
+		return true;
+	}
+
+	private String createObjectQuery(Class<?> concept, int bindings,
+			Collection<? extends Resource> subjects) {
 		Collection<PropertyDescriptor> subjectProperties = resolver.getPropertyMapper()
 				.findFunctionalProperties(concept);
 		Collection<Field> subjectFields = resolver.getPropertyMapper()
@@ -250,6 +328,14 @@ public class ObjectFactory {
 			select.append(" ?subj_class");
 		}
 		where.append("\nWHERE { ");
+		if (subjects != null) {
+			where.append("\nVALUES ?subj {");
+			for (Resource subj : subjects) {
+				assert isInlineable(subj);
+				where.append(" <").append(subj.stringValue()).append(">");
+			}
+			where.append(" }");
+		}
 		URI uri = getNameOf(concept);
 		boolean typed = uri != null && bindings == 0;
 		if (typed) {
@@ -313,16 +399,9 @@ public class ObjectFactory {
 			}
 			where.append("}");
 		}
-		if (bindings > 1) {
-			where.append("\nFILTER (");
-			for (int i = 0; i < bindings; i++) {
-				where.append(" ?subj = $subj").append(i).append(" ||");
-			}
-			where.delete(where.length() - 2, where.length());
-			where.append(")");
-		}
 		where.append(" } ");
 		if (bindings > 1) {
+			// rows of a subject must be consecutive for the cursor to merge them
 			where.append("\nORDER BY ?subj");
 		}
 		return select.append(where).toString();
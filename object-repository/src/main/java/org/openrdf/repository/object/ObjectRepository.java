@@ -55,6 +55,9 @@ public class ObjectRepository extends ContextAwareRepository {
 	private String blobStoreUrl;
 	private Map<String, String> blobStoreParameters;
 	private BlobStore blobs;
+	private int objectCacheSize;
+	private ObjectCache cache;
+	private int batchSize = ObjectConnection.DEFAULT_BATCH_SIZE;
 
 	public ObjectRepository() throws ObjectStoreConfigException {
 		this.service = new ObjectServiceImpl();
@@ -90,6 +93,43 @@ public class ObjectRepository extends ContextAwareRepository {
 		blobs = null;
 	}
 
+	/**
+	 * The maximum number of resources whose rdf:types and property values are
+	 * shared between connections, or zero if nothing is shared.
+	 */
+	public synchronized int getObjectCacheSize() {
+		return objectCacheSize;
+	}
+
+	public synchronized void setObjectCacheSize(int objectCacheSize) {
+		this.objectCacheSize = objectCacheSize;
+		cache = null;
+	}
+
+	/**
+	 * The cache shared by this repository's connections, or null if
+	 * {@link #getObjectCacheSize()} is zero.
+	 */
+	public synchronized ObjectCache getObjectCache() {
+		if (cache == null && objectCacheSize > 0) {
+			cache = new ObjectCache(objectCacheSize);
+		}
+		return cache;
+	}
+
+	/**
+	 * The maximum number of resources new connections read in a single query
+	 * when loading a list of resources.
+	 */
+	public synchronized int getBatchSize() {
+		return batchSize;
+	}
+
+	public synchronized void setBatchSize(int batchSize) {
+		assert batchSize > 0;
+		this.batchSize = batchSize;
+	}
+
 	@Override
 	public File getDataDir() {
 		File dataDir = super.getDataDir();
@@ -161,7 +201,7 @@ public class ObjectRepository extends ContextAwareRepository {
 		ObjectFactory factory = service.createObjectFactory();
 		RepositoryConnection conn = getDelegate().getConnection();
 		ObjectConnection con = new ObjectConnection(this, conn, factory,
-				createTypeManager(), blobs);
+				createTypeManager(), blobs, getObjectCache());
 		con.setIncludeInferred(isIncludeInferred());
 		con.setMaxQueryTime(getMaxQueryTime());
 		// con.setQueryResultLimit(getQueryResultLimit());
@@ -170,6 +210,7 @@ public class ObjectRepository extends ContextAwareRepository {
 		con.setAddContexts(getAddContexts());
 		con.setRemoveContexts(getRemoveContexts());
 		con.setArchiveContexts(getArchiveContexts());
+		con.setBatchSize(getBatchSize());
 		return con;
 	}
 
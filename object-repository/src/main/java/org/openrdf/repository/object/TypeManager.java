@@ -28,8 +28,16 @@
  */
 package org.openrdf.repository.object;
 
+import static org.openrdf.query.QueryLanguage.SPARQL;
+
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.openrdf.model.Resource;
@@ -38,6 +46,10 @@ import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.RepositoryResult;
 
@@ -62,6 +74,128 @@ public class TypeManager {
 	public Set<URI> getTypes(Resource res) throws RepositoryException {
 		if (!readTypes)
 			return Collections.emptySet();
+		ObjectCache cache = conn.getObjectCache(res);
+		if (cache == null)
+			return loadTypes(res);
+		Set<URI> cached = cache.getTypes(res);
+		if (cached != null)
+			return cached;
+		long since = cache.getGeneration();
+		Set<URI> types = loadTypes(res);
+		cache.putTypes(res, types, since);
+		return types;
+	}
+
+	/**
+	 * Reads the rdf:types of all the given resources, using a query for each
+	 * batch of {@link ObjectConnection#getBatchSize()} resources that are not
+	 * already in the shared object cache.
+	 */
+	public Map<Resource, Set<URI>> getTypes(
+			Collection<? extends Resource> resources)
+			throws RepositoryException {
+		Map<Resource, Set<URI>> result = new LinkedHashMap<Resource, Set<URI>>();
+		if (!readTypes) {
+			for (Resource res : resources) {
+				result.put(res, Collections.<URI> emptySet());
+			}
+			return result;
+		}
+		ObjectFactory of = conn.getObjectFactory();
+		List<Resource> batch = new ArrayList<Resource>();
+		for (Resource res : resources) {
+			if (result.containsKey(res))
+				continue;
+			ObjectCache cache = conn.getObjectCache(res);
+			Set<URI> cached = cache == null ? null : cache.getTypes(res);
+			if (cached != null) {
+				result.put(res, cached);
+			} else if (!of.isInlineable(res)) {
+				result.put(res, getTypes(res));
+			} else {
+				result.put(res, null);
+				batch.add(res);
+				if (batch.size() >= conn.getBatchSize()) {
+					loadTypes(batch, result);
+					batch.clear();
+				}
+			}
+		}
+		if (!batch.isEmpty()) {
+			loadTypes(batch, result);
+		}
+		return result;
+	}
+
+	public void addTypeStatement(Resource resource, URI type)
+			throws RepositoryException {
+		if (!RDFS.RESOURCE.equals(type)) {
+			conn.add(resource, RDF.TYPE, type);
+		}
+	}
+
+	public void removeTypeStatement(Resource resource, URI type)
+			throws RepositoryException {
+		conn.remove(resource, RDF.TYPE, type);
+	}
+
+	private void loadTypes(List<Resource> batch, Map<Resource, Set<URI>> result)
+			throws RepositoryException {
+		ObjectCache cache = null;
+		long since = 0;
+		for (Resource res : batch) {
+			if (cache == null && (cache = conn.getObjectCache(res)) != null) {
+				since = cache.getGeneration();
+			}
+		}
+		Map<Resource, Set<URI>> found = new HashMap<Resource, Set<URI>>();
+		try {
+			TupleQueryResult rows = conn.prepareTupleQuery(SPARQL,
+					createTypesQuery(batch)).evaluate();
+			try {
+				while (rows.hasNext()) {
+					BindingSet row = rows.next();
+					Value subj = row.getValue("subj");
+					Value obj = row.getValue("type");
+					if (!(obj instanceof URI))
+						continue;
+					Set<URI> types = found.get(subj);
+					if (types == null) {
+						found.put((Resource) subj, types = new HashSet<URI>(4));
+					}
+					types.add((URI) obj);
+				}
+			} finally {
+				rows.close();
+			}
+		} catch (MalformedQueryException e) {
+			throw new AssertionError(e);
+		} catch (QueryEvaluationException e) {
+			throw new RepositoryException(e);
+		}
+		for (Resource res : batch) {
+			Set<URI> types = found.get(res);
+			if (types == null) {
+				types = Collections.emptySet();
+			}
+			result.put(res, types);
+			if (cache != null && conn.getObjectCache(res) != null) {
+				cache.putTypes(res, types, since);
+			}
+		}
+	}
+
+	private String createTypesQuery(List<Resource> batch) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("SELECT ?subj ?type\nWHERE { VALUES ?subj {");
+		for (Resource res : batch) {
+			sb.append(" <").append(res.stringValue()).append(">");
+		}
+		sb.append(" }\n?subj <").append(RDF.TYPE).append("> ?type }");
+		return sb.toString();
+	}
+
+	private Set<URI> loadTypes(Resource res) throws RepositoryException {
 		RepositoryResult<Statement> match = conn.getStatements(res, RDF.TYPE, null);
 		try {
 			if (!match.hasNext())
@@ -84,16 +218,4 @@ public class TypeManager {
 			match.close();
 		}
 	}
-
-	public void addTypeStatement(Resource resource, URI type)
-			throws RepositoryException {
-		if (!RDFS.RESOURCE.equals(type)) {
-			conn.add(resource, RDF.TYPE, type);
-		}
-	}
-
-	public void removeTypeStatement(Resource resource, URI type)
-			throws RepositoryException {
-		conn.remove(resource, RDF.TYPE, type);
-	}
 }
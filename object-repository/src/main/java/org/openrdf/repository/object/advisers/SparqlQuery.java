@@ -13,7 +13,6 @@ import org.openrdf.query.parser.ParsedGraphQuery;
 import org.openrdf.query.parser.ParsedOperation;
 import org.openrdf.query.parser.ParsedTupleQuery;
 import org.openrdf.query.parser.sparql.SPARQLParser;
-import org.openrdf.repository.object.advisers.helpers.SparqlEvaluator;
 import org.openrdf.repository.object.managers.PropertyMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +29,7 @@ public class SparqlQuery {
 	private String base;
 	private Class<?> concept;
 	private String object;
+	private PropertyMapper mapper;
 	private ParsedOperation query;
 
 	public SparqlQuery(Reader in, String base) throws IOException,
@@ -73,20 +73,16 @@ public class SparqlQuery {
 		return query instanceof ParsedTupleQuery;
 	}
 
-	public synchronized String toObjectString(Class<?> concept) {
-		if (concept.equals(this.concept))
+	public synchronized String toObjectString(Class<?> concept,
+			PropertyMapper mapper) {
+		if (concept.equals(this.concept) && mapper == this.mapper)
 			return object;
+		this.concept = concept;
+		this.mapper = mapper;
 		if (isTupleQuery()) {
-			this.concept = concept;
-			ClassLoader cl = concept.getClassLoader();
-			if (cl == null) {
-				cl = SparqlEvaluator.class.getClassLoader();
-			}
-			PropertyMapper pm = new PropertyMapper(cl, true);
-			Map<String, String> eager = pm.findEagerProperties(concept);
+			Map<String, String> eager = mapper.findEagerProperties(concept);
 			object = optimizeQueryString(sparql, eager);
 		} else {
-			this.concept = concept;
 			object = sparql;
 		}
 		return object;
@@ -31,6 +31,7 @@ package org.openrdf.repository.object.advisers.helpers;
 import static java.util.Collections.EMPTY_LIST;
 import info.aduna.iteration.CloseableIteration;
 import info.aduna.iteration.CloseableIteratorIteration;
+import info.aduna.iteration.ConvertingIteration;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -44,7 +45,9 @@ import org.openrdf.model.Value;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.object.ObjectCache;
 import org.openrdf.repository.object.ObjectConnection;
+import org.openrdf.repository.object.ObjectFactory;
 import org.openrdf.repository.object.ObjectQuery;
 import org.openrdf.repository.object.RDFObject;
 import org.openrdf.repository.object.exceptions.ObjectPersistException;
@@ -247,6 +250,25 @@ public class CachedPropertySet extends RemotePropertySet implements
 		}
 	}
 
+	private synchronized ObjectCache getSharedCache() {
+		if (binding != null)
+			return null;
+		return getObjectConnection().getObjectCache(getResource());
+	}
+
+	private void share(ObjectCache shared, List<Object> list, long since) {
+		ObjectFactory of = getObjectConnection().getObjectFactory();
+		List<Value> values = new ArrayList<Value>(list.size());
+		for (Object o : list) {
+			if (o instanceof RDFObject) {
+				values.add(((RDFObject) o).getResource());
+			} else {
+				values.add(of.createValue(o));
+			}
+		}
+		shared.putValues(getResource(), getURI(), values, since);
+	}
+
 	private boolean isCacheComplete() {
 		return cached && cache.size() < CACHE_LIMIT;
 	}
@@ -268,7 +290,19 @@ public class CachedPropertySet extends RemotePropertySet implements
 	@Override
 	protected synchronized CloseableIteration<?, ?> getObjects() throws RepositoryException,
 			QueryEvaluationException {
-		if (creator == null || factory == null) {
+		ObjectCache shared = getSharedCache();
+		List<Value> values = shared == null ? null : shared.getValues(
+				getResource(), getURI());
+		if (values != null) {
+			return new ConvertingIteration<Value, Object, RepositoryException>(
+					new CloseableIteratorIteration<Value, RepositoryException>(
+							values.iterator())) {
+				@Override
+				protected Object convert(Value value) throws RepositoryException {
+					return createInstance(value);
+				}
+			};
+		} else if (creator == null || factory == null) {
 			return super.getObjects();
 		} else if (binding == null) {
 			ObjectQuery query = factory.createQuery(creator);
@@ -290,13 +324,17 @@ public class CachedPropertySet extends RemotePropertySet implements
 
 	@Override
 	protected ObjectIterator<?, Object> getObjectIterator() {
+		final ObjectCache shared = getSharedCache();
+		final long since = shared == null ? 0 : shared.getGeneration();
 		try {
 			return new ObjectIterator<Object, Object>(getObjects()) {
 				private List<Object> list = new ArrayList<Object>(CACHE_LIMIT);
+				private int count;
 
 				@Override
 				protected Object convert(Object instance)
 						throws RepositoryException {
+					count++;
 					if (list != null && list.size() < CACHE_LIMIT)
 						list.add(instance);
 					return instance;
@@ -316,6 +354,11 @@ public class CachedPropertySet extends RemotePropertySet implements
 							cache = list;
 							cached = true;
 						}
+						// only share every value, not just the first few
+						if (list != null && shared != null && !hasNext()
+								&& list.size() == count) {
+							share(shared, list, since);
+						}
 					} finally {
 						super.close();
 					}
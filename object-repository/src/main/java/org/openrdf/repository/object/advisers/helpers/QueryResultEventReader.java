@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.repository.object.advisers.helpers;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Reads the StAX events of a query result as they are produced, only holding
+ * the events of the current solution or statement in memory.
+ */
+class QueryResultEventReader implements XMLEventReader {
+	private final Queue<XMLEvent> queue;
+	private final QueryResultProducer<?> producer;
+	private XMLEvent current;
+
+	/**
+	 * @param queue
+	 *            where the producer's handler adds its events to
+	 * @param producer
+	 *            or null if all events are already in the queue
+	 */
+	public QueryResultEventReader(Queue<XMLEvent> queue,
+			QueryResultProducer<?> producer) {
+		this.queue = queue;
+		this.producer = producer;
+	}
+
+	public boolean hasNext() {
+		try {
+			return fill();
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException(e.toString(), e);
+		}
+	}
+
+	public Object next() {
+		try {
+			return nextEvent();
+		} catch (XMLStreamException e) {
+			NoSuchElementException exc;
+			exc = new NoSuchElementException(e.toString());
+			exc.initCause(e);
+			throw exc;
+		}
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public XMLEvent nextEvent() throws XMLStreamException {
+		if (!fill())
+			throw new NoSuchElementException();
+		return current = queue.remove();
+	}
+
+	public XMLEvent peek() throws XMLStreamException {
+		if (!fill())
+			return null;
+		return queue.peek();
+	}
+
+	public String getElementText() throws XMLStreamException {
+		if (current == null || !current.isStartElement())
+			throw new XMLStreamException(
+					"Not positioned on a start element to read its text");
+		StringBuilder sb = new StringBuilder();
+		while (true) {
+			XMLEvent event = nextEvent();
+			if (event.isEndElement())
+				return sb.toString();
+			if (event.isStartElement())
+				throw new XMLStreamException(
+						"Element text is not expected to contain elements");
+			if (event.isCharacters()) {
+				sb.append(event.asCharacters().getData());
+			}
+		}
+	}
+
+	public XMLEvent nextTag() throws XMLStreamException {
+		while (true) {
+			XMLEvent event = nextEvent();
+			if (event.isStartElement() || event.isEndElement())
+				return event;
+			if (event.isCharacters()
+					&& !event.asCharacters().isWhiteSpace())
+				throw new XMLStreamException("Expected a start or end tag");
+		}
+	}
+
+	public Object getProperty(String name) {
+		throw new IllegalArgumentException("Unsupported property: " + name);
+	}
+
+	public void close() throws XMLStreamException {
+		queue.clear();
+		if (producer != null) {
+			try {
+				producer.close();
+			} catch (IOException e) {
+				throw new XMLStreamException(e);
+			}
+		}
+	}
+
+	private boolean fill() throws XMLStreamException {
+		try {
+			while (queue.isEmpty()) {
+				if (producer == null || !producer.produce())
+					return false;
+			}
+			return true;
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+}
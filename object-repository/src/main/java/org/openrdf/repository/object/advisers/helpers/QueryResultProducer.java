@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.repository.object.advisers.helpers;
+
+import info.aduna.iteration.CloseableIteration;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.openrdf.OpenRDFException;
+import org.openrdf.model.Statement;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.GraphQueryResult;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.TupleQueryResultHandler;
+import org.openrdf.rio.RDFHandler;
+
+/**
+ * Passes a query result to a handler one solution or statement at a time, so
+ * that it can be serialized only as fast as the output is consumed.
+ */
+abstract class QueryResultProducer<T> {
+
+	public static QueryResultProducer<BindingSet> produce(
+			final TupleQueryResult result, final TupleQueryResultHandler handler) {
+		return new QueryResultProducer<BindingSet>(result) {
+			protected void start() throws OpenRDFException {
+				handler.startQueryResult(result.getBindingNames());
+			}
+
+			protected void handle(BindingSet next) throws OpenRDFException {
+				handler.handleSolution(next);
+			}
+
+			protected void end() throws OpenRDFException {
+				handler.endQueryResult();
+			}
+		};
+	}
+
+	public static QueryResultProducer<Statement> produce(
+			final GraphQueryResult result, final RDFHandler handler) {
+		return new QueryResultProducer<Statement>(result) {
+			protected void start() throws OpenRDFException {
+				handler.startRDF();
+				for (Map.Entry<String, String> ns : result.getNamespaces()
+						.entrySet()) {
+					handler.handleNamespace(ns.getKey(), ns.getValue());
+				}
+			}
+
+			protected void handle(Statement next) throws OpenRDFException {
+				handler.handleStatement(next);
+			}
+
+			protected void end() throws OpenRDFException {
+				handler.endRDF();
+			}
+		};
+	}
+
+	private final CloseableIteration<T, QueryEvaluationException> result;
+	private boolean started;
+	private boolean finished;
+
+	protected QueryResultProducer(
+			CloseableIteration<T, QueryEvaluationException> result) {
+		this.result = result;
+	}
+
+	/**
+	 * Passes the next solution or statement to the handler.
+	 * 
+	 * @return false if the result has already been completely handled
+	 */
+	public boolean produce() throws IOException {
+		if (finished)
+			return false;
+		try {
+			if (!started) {
+				started = true;
+				start();
+			} else if (result.hasNext()) {
+				handle(result.next());
+			} else {
+				finished = true;
+				try {
+					end();
+				} finally {
+					result.close();
+				}
+			}
+			return true;
+		} catch (OpenRDFException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void close() throws IOException {
+		if (!finished) {
+			finished = true;
+			try {
+				result.close();
+			} catch (QueryEvaluationException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	protected abstract void start() throws OpenRDFException;
+
+	protected abstract void handle(T next) throws OpenRDFException;
+
+	protected abstract void end() throws OpenRDFException;
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.repository.object.advisers.helpers;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the serialization of a query result while it is being written, only
+ * holding the characters written since the last read in memory.
+ */
+class QueryResultReader extends Reader {
+	private final CharArrayWriter sink;
+	private final QueryResultProducer<?> producer;
+	private char[] buf = new char[0];
+	private int pos;
+
+	/**
+	 * @param sink
+	 *            where the producer's handler writes to
+	 */
+	public QueryResultReader(CharArrayWriter sink,
+			QueryResultProducer<?> producer) {
+		this.sink = sink;
+		this.producer = producer;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!fill())
+			return -1;
+		int n = Math.min(len, buf.length - pos);
+		System.arraycopy(buf, pos, cbuf, off, n);
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public boolean ready() {
+		return pos < buf.length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		buf = new char[0];
+		pos = 0;
+		producer.close();
+	}
+
+	private boolean fill() throws IOException {
+		if (pos < buf.length)
+			return true;
+		while (sink.size() == 0) {
+			if (!producer.produce())
+				return false;
+		}
+		buf = sink.toCharArray();
+		pos = 0;
+		sink.reset();
+		return true;
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.repository.object.advisers.helpers;
+
+import info.aduna.xml.XMLUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.XMLEvent;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+
+/**
+ * Writes RDF statements in the RDF/XML format as StAX events, using the same
+ * layout as the RDF/XML writer: one rdf:Description per run of statements
+ * about the same subject.
+ */
+class RDFXMLEventWriter implements RDFHandler {
+	private static final String RDF_NS = RDF.NAMESPACE;
+	private final XMLEventFactory factory = XMLEventFactory.newInstance();
+	private final Queue<XMLEvent> queue;
+	private final Map<String, String> prefixes = new LinkedHashMap<String, String>();
+	private boolean started;
+	private Resource subject;
+
+	/**
+	 * @param queue
+	 *            where the events are added to
+	 */
+	public RDFXMLEventWriter(Queue<XMLEvent> queue) {
+		this.queue = queue;
+	}
+
+	public void startRDF() {
+		// header is written before the first statement
+	}
+
+	public void handleNamespace(String prefix, String name) {
+		if (started || prefix.length() == 0 || "rdf".equals(prefix)
+				|| prefix.startsWith("xml") || RDF_NS.equals(name))
+			return;
+		if (!prefixes.containsKey(name)) {
+			prefixes.put(name, prefix);
+		}
+	}
+
+	public void handleComment(String comment) {
+		startHeader();
+		queue.add(factory.createComment(comment));
+	}
+
+	public void handleStatement(Statement st) throws RDFHandlerException {
+		startHeader();
+		if (!st.getSubject().equals(subject)) {
+			endDescription();
+			subject = st.getSubject();
+			start(RDF_NS, "Description", getReference("about", subject),
+					null);
+		}
+		String pred = st.getPredicate().stringValue();
+		int idx = XMLUtil.findURISplitIndex(pred);
+		if (idx < 0)
+			throw new RDFHandlerException(
+					"Unable to create XML namespace-qualified name for predicate: "
+							+ pred);
+		String ns = pred.substring(0, idx);
+		String local = pred.substring(idx);
+		Value obj = st.getObject();
+		if (obj instanceof Resource) {
+			start(ns, local, getReference("resource", (Resource) obj), null);
+		} else {
+			Literal lit = (Literal) obj;
+			Attribute attr = null;
+			if (lit.getLanguage() != null) {
+				attr = factory.createAttribute("xml", XMLConstants.XML_NS_URI,
+						"lang", lit.getLanguage());
+			} else if (lit.getDatatype() != null
+					&& !XMLSchema.STRING.equals(lit.getDatatype())) {
+				attr = factory.createAttribute("rdf", RDF_NS, "datatype", lit
+						.getDatatype().stringValue());
+			}
+			start(ns, local, attr, null);
+			queue.add(factory.createCharacters(lit.getLabel()));
+		}
+		end(ns, local);
+	}
+
+	public void endRDF() {
+		startHeader();
+		endDescription();
+		end(RDF_NS, "RDF");
+		queue.add(factory.createEndDocument());
+	}
+
+	private void startHeader() {
+		if (started)
+			return;
+		started = true;
+		queue.add(factory.createStartDocument("UTF-8", "1.0"));
+		List<Namespace> namespaces = new ArrayList<Namespace>();
+		namespaces.add(factory.createNamespace("rdf", RDF_NS));
+		for (Map.Entry<String, String> e : prefixes.entrySet()) {
+			namespaces.add(factory.createNamespace(e.getValue(), e.getKey()));
+		}
+		start(RDF_NS, "RDF", null, namespaces);
+	}
+
+	private void endDescription() {
+		if (subject != null) {
+			end(RDF_NS, "Description");
+			subject = null;
+		}
+	}
+
+	private Attribute getReference(String name, Resource resource) {
+		if (resource instanceof BNode)
+			return factory.createAttribute("rdf", RDF_NS, "nodeID", resource
+					.stringValue());
+		return factory.createAttribute("rdf", RDF_NS, name, resource
+				.stringValue());
+	}
+
+	private void start(String ns, String local, Attribute attr,
+			List<Namespace> namespaces) {
+		List<Attribute> attrs = Collections.emptyList();
+		if (attr != null) {
+			attrs = Collections.singletonList(attr);
+		}
+		Iterator<Namespace> declared;
+		String prefix = getPrefix(ns);
+		if (namespaces != null) {
+			declared = namespaces.iterator();
+		} else if (prefix == null) {
+			prefix = "";
+			declared = Collections.singleton(factory.createNamespace(ns))
+					.iterator();
+		} else {
+			declared = Collections.<Namespace> emptyList().iterator();
+		}
+		queue.add(factory.createStartElement(prefix, ns, local, attrs
+				.iterator(), declared));
+	}
+
+	private void end(String ns, String local) {
+		String prefix = getPrefix(ns);
+		if (prefix == null) {
+			prefix = "";
+		}
+		Iterator<Namespace> none = Collections.<Namespace> emptyList()
+				.iterator();
+		queue.add(factory.createEndElement(prefix, ns, local, none));
+	}
+
+	private String getPrefix(String ns) {
+		if (RDF_NS.equals(ns))
+			return "rdf";
+		return prefixes.get(ns);
+	}
+}
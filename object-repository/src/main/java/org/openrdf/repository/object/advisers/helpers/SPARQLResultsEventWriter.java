@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2012 3 Round Stones Inc., Some rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution. 
+ * - Neither the name of the openrdf.org nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.openrdf.repository.object.advisers.helpers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.XMLEvent;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.TupleQueryResultHandler;
+
+/**
+ * Writes a query result in the SPARQL Query Results XML Format as StAX events.
+ */
+class SPARQLResultsEventWriter implements TupleQueryResultHandler {
+	private static final String NS = "http://www.w3.org/2005/sparql-results#";
+	private final XMLEventFactory factory = XMLEventFactory.newInstance();
+	private final Queue<XMLEvent> queue;
+
+	/**
+	 * @param queue
+	 *            where the events are added to
+	 */
+	public SPARQLResultsEventWriter(Queue<XMLEvent> queue) {
+		this.queue = queue;
+	}
+
+	public void handleLinks(List<String> links) {
+		// no links
+	}
+
+	public void handleBoolean(boolean value) {
+		startDocument();
+		start("head");
+		end("head");
+		start("boolean");
+		queue.add(factory.createCharacters(String.valueOf(value)));
+		end("boolean");
+		endDocument();
+	}
+
+	public void startQueryResult(List<String> bindingNames) {
+		startDocument();
+		start("head");
+		for (String name : bindingNames) {
+			start("variable", factory.createAttribute("name", name));
+			end("variable");
+		}
+		end("head");
+		start("results");
+	}
+
+	public void handleSolution(BindingSet bindingSet) {
+		start("result");
+		for (Binding binding : bindingSet) {
+			start("binding", factory.createAttribute("name", binding.getName()));
+			writeValue(binding.getValue());
+			end("binding");
+		}
+		end("result");
+	}
+
+	public void endQueryResult() {
+		end("results");
+		endDocument();
+	}
+
+	private void writeValue(Value value) {
+		if (value instanceof URI) {
+			start("uri");
+			queue.add(factory.createCharacters(value.stringValue()));
+			end("uri");
+		} else if (value instanceof BNode) {
+			start("bnode");
+			queue.add(factory.createCharacters(value.stringValue()));
+			end("bnode");
+		} else if (value instanceof Literal) {
+			Literal lit = (Literal) value;
+			if (lit.getLanguage() != null) {
+				start("literal", factory.createAttribute("xml",
+						XMLConstants.XML_NS_URI, "lang", lit.getLanguage()));
+			} else if (lit.getDatatype() != null
+					&& !XMLSchema.STRING.equals(lit.getDatatype())) {
+				start("literal", factory.createAttribute("datatype", lit
+						.getDatatype().stringValue()));
+			} else {
+				start("literal");
+			}
+			queue.add(factory.createCharacters(lit.getLabel()));
+			end("literal");
+		}
+	}
+
+	private void startDocument() {
+		queue.add(factory.createStartDocument("UTF-8", "1.0"));
+		Iterator<Attribute> attrs = Collections.<Attribute> emptyList()
+				.iterator();
+		Namespace ns = factory.createNamespace(NS);
+		Iterator<Namespace> namespaces = Collections.singleton(ns).iterator();
+		queue.add(factory.createStartElement("", NS, "sparql", attrs,
+				namespaces));
+	}
+
+	private void endDocument() {
+		end("sparql");
+		queue.add(factory.createEndDocument());
+	}
+
+	private void start(String name, Attribute... attributes) {
+		Iterator<Attribute> attrs = Arrays.asList(attributes)
+				.iterator();
+		Iterator<Namespace> namespaces = Collections.<Namespace> emptyList()
+				.iterator();
+		queue.add(factory.createStartElement("", NS, name, attrs, namespaces));
+	}
+
+	private void end(String name) {
+		Iterator<Namespace> namespaces = Collections.<Namespace> emptyList()
+				.iterator();
+		queue.add(factory.createEndElement("", NS, name, namespaces));
+	}
+}
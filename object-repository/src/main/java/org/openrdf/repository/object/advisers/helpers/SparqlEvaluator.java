@@ -46,8 +46,10 @@ import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -55,9 +57,12 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLEventReader;
-import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
 import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMResult;
 
 import org.openrdf.OpenRDFException;
 import org.openrdf.model.BNode;
@@ -94,18 +99,12 @@ import org.w3c.dom.Document;
 import org.w3c.dom.DocumentFragment;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
 
 public class SparqlEvaluator {
 	private static final Pattern ILLEGAL_VAR = Pattern.compile("\\s|\\?");
-	private static final XMLInputFactory inFactory;
+	private static final XMLOutputFactory outFactory = XMLOutputFactory
+			.newInstance();
 	private static final DocumentBuilderFactory documentBuilderFactory;
-	static {
-		XMLInputFactory factory = XMLInputFactory.newInstance();
-		factory.setProperty(XMLInputFactory.IS_VALIDATING, false);
-		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
-		inFactory = factory;
-	}
 	static {
 		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 		factory.setValidating(false);
@@ -225,10 +224,15 @@ public class SparqlEvaluator {
 		}
 
 		public Model asModel() throws OpenRDFException {
-			GraphQuery qry = prepareGraphQuery();
-			Model model = new LinkedHashModel();
-			qry.evaluate(new StatementCollector(model));
-			return model;
+			String sparql = bindMultiples(query.toString());
+			GraphQuery qry = prepare(GraphQuery.class, sparql);
+			try {
+				Model model = new LinkedHashModel();
+				qry.evaluate(new StatementCollector(model));
+				return model;
+			} finally {
+				release(GraphQuery.class, sparql, qry);
+			}
 		}
 
 		public Statement asStatement() throws OpenRDFException {
@@ -285,16 +289,35 @@ public class SparqlEvaluator {
 		}
 
 		public TupleQueryResult asTupleQueryResult() throws OpenRDFException {
-			return prepareTupleQuery().evaluate();
+			String sparql = bindMultiples(query.toString());
+			TupleQuery qry = prepare(TupleQuery.class, sparql);
+			try {
+				return qry.evaluate();
+			} finally {
+				release(TupleQuery.class, sparql, qry);
+			}
 		}
 
 		public GraphQueryResult asGraphQueryResult() throws OpenRDFException {
-			return prepareGraphQuery().evaluate();
+			String sparql = bindMultiples(query.toString());
+			GraphQuery qry = prepare(GraphQuery.class, sparql);
+			try {
+				return qry.evaluate();
+			} finally {
+				release(GraphQuery.class, sparql, qry);
+			}
 		}
 
 		public boolean asBoolean() throws OpenRDFException {
-			if (query.isBooleanQuery())
-				return prepareBooleanQuery().evaluate();
+			if (query.isBooleanQuery()) {
+				String sparql = bindMultiples(query.toString());
+				BooleanQuery qry = prepare(BooleanQuery.class, sparql);
+				try {
+					return qry.evaluate();
+				} finally {
+					release(BooleanQuery.class, sparql, qry);
+				}
+			}
 			return asResult(Boolean.class).singleResult().booleanValue();
 		}
 
@@ -368,15 +391,27 @@ public class SparqlEvaluator {
 		}
 
 		public Result asResult() throws OpenRDFException {
-			ObjectQuery qry = prepareObjectQuery(Object.class);
-			return qry.evaluate();
+			String sparql = bindMultiples(query.toObjectString(Object.class,
+					of.getPropertyMapper()));
+			ObjectQuery qry = prepare(ObjectQuery.class, sparql);
+			try {
+				return qry.evaluate();
+			} finally {
+				release(ObjectQuery.class, sparql, qry);
+			}
 		}
 
 		public <T> Result<T> asResult(Class<T> of) throws OpenRDFException {
 			if (of == null || Object.class.equals(of))
 				return asResult();
-			ObjectQuery qry = prepareObjectQuery(of);
-			return qry.evaluate(of);
+			String sparql = bindMultiples(query.toObjectString(of,
+					this.of.getPropertyMapper()));
+			ObjectQuery qry = prepare(ObjectQuery.class, sparql);
+			try {
+				return qry.evaluate(of);
+			} finally {
+				release(ObjectQuery.class, sparql, qry);
+			}
 		}
 
 		public <T> Set<T> asSet(Class<T> of) throws OpenRDFException {
@@ -422,18 +457,22 @@ public class SparqlEvaluator {
 				TransformerException, IOException, ParserConfigurationException {
 			DocumentBuilder builder = documentBuilderFactory
 					.newDocumentBuilder();
-			InputStream in = asInputStream();
+			Document doc = builder.newDocument();
+			if (systemId != null) {
+				doc.setDocumentURI(systemId);
+			}
+			XMLEventReader reader = createXMLEventReader();
 			try {
 				try {
-					if (systemId == null)
-						return builder.parse(in);
-					return builder.parse(in, systemId);
-				} catch (SAXException e) {
-					throw new TransformerException(e);
+					XMLEventWriter writer = outFactory
+							.createXMLEventWriter(new DOMResult(doc));
+					writer.add(reader);
+					writer.close();
+					return doc;
 				} finally {
-					in.close();
+					reader.close();
 				}
-			} catch (IOException e) {
+			} catch (XMLStreamException e) {
 				throw new TransformerException(e);
 			}
 		}
@@ -459,14 +498,7 @@ public class SparqlEvaluator {
 		public XMLEventReader asXMLEventReader() throws OpenRDFException,
 				TransformerException, IOException,
 				ParserConfigurationException, XMLStreamException {
-			InputStream in = asInputStream();
-			try {
-				if (systemId == null)
-					return inFactory.createXMLEventReader(in);
-				return inFactory.createXMLEventReader(systemId, in);
-			} catch (XMLStreamException e) {
-				throw new TransformerException(e);
-			}
+			return createXMLEventReader();
 		}
 
 		public ReadableByteChannel asReadableByteChannel()
@@ -496,13 +528,36 @@ public class SparqlEvaluator {
 
 		public InputStream asInputStream() throws OpenRDFException,
 				TransformerException, IOException {
-			return new ByteArrayInputStream(asByteArrayOutputStream()
-					.toByteArray());
+			ByteArrayOutputStream sink = new ByteArrayOutputStream(8192);
+			if (query.isGraphQuery()) {
+				RDFXMLWriter writer = new RDFXMLWriter(sink);
+				return new QueryResultInputStream(sink, QueryResultProducer
+						.produce(asGraphQueryResult(), writer));
+			} else if (query.isTupleQuery()) {
+				SPARQLResultsXMLWriter writer = new SPARQLResultsXMLWriter(sink);
+				return new QueryResultInputStream(sink, QueryResultProducer
+						.produce(asTupleQueryResult(), writer));
+			} else {
+				return new ByteArrayInputStream(asByteArrayOutputStream()
+						.toByteArray());
+			}
 		}
 
 		public Reader asReader() throws OpenRDFException, TransformerException,
 				IOException {
-			return new StringReader(asCharArrayWriter().toString());
+			CharArrayWriter sink = new CharArrayWriter(8192);
+			if (query.isGraphQuery()) {
+				RDFXMLWriter writer = new RDFXMLWriter(sink);
+				return new QueryResultReader(sink, QueryResultProducer.produce(
+						asGraphQueryResult(), writer));
+			} else if (query.isTupleQuery()) {
+				SPARQLResultsXMLWriter writer = new SPARQLResultsXMLWriter(
+						new XMLWriter(sink));
+				return new QueryResultReader(sink, QueryResultProducer.produce(
+						asTupleQueryResult(), writer));
+			} else {
+				return new StringReader(asCharArrayWriter().toString());
+			}
 		}
 
 		public Readable asReadable() throws TransformerException,
@@ -518,10 +573,13 @@ public class SparqlEvaluator {
 		}
 
 		public void asUpdate() throws OpenRDFException {
-			String base = query.getBaseURI();
 			String sparql = bindMultiples(query.toString());
-			Update qry = bindSingles(con.prepareUpdate(SPARQL, sparql, base));
-			qry.execute();
+			Update qry = prepare(Update.class, sparql);
+			try {
+				qry.execute();
+			} finally {
+				release(Update.class, sparql, qry);
+			}
 		}
 
 		public void toOutputStream(OutputStream output)
@@ -555,32 +613,64 @@ public class SparqlEvaluator {
 			}
 		}
 
-		private GraphQuery prepareGraphQuery() throws MalformedQueryException,
-				RepositoryException {
-			String sparql = bindMultiples(query.toString());
-			String base = query.getBaseURI();
-			return bindSingles(con.prepareGraphQuery(SPARQL, sparql, base));
+		private XMLEventReader createXMLEventReader() throws OpenRDFException {
+			Queue<XMLEvent> queue = new LinkedList<XMLEvent>();
+			if (query.isGraphQuery()) {
+				RDFXMLEventWriter writer = new RDFXMLEventWriter(queue);
+				return new QueryResultEventReader(queue, QueryResultProducer
+						.produce(asGraphQueryResult(), writer));
+			} else if (query.isTupleQuery()) {
+				SPARQLResultsEventWriter writer = new SPARQLResultsEventWriter(
+						queue);
+				return new QueryResultEventReader(queue, QueryResultProducer
+						.produce(asTupleQueryResult(), writer));
+			} else if (query.isBooleanQuery()) {
+				new SPARQLResultsEventWriter(queue).handleBoolean(asBoolean());
+				return new QueryResultEventReader(queue, null);
+			} else {
+				throw new AssertionError("Unknown query type");
+			}
 		}
 
-		private TupleQuery prepareTupleQuery() throws MalformedQueryException,
-				RepositoryException {
+		/**
+		 * Reuses an operation that was prepared from the same string by this
+		 * connection, so the query is only parsed once per connection.
+		 * Multiple values are part of the string, so only single bindings vary.
+		 */
+		private <T extends Operation> T prepare(Class<T> type, String sparql)
+				throws MalformedQueryException, RepositoryException {
+			String key = getOperationKey(type, sparql);
+			Operation reused = con.reuseOperation(key);
+			if (type.isInstance(reused)) {
+				reused.clearBindings();
+				return bindSingles(type.cast(reused));
+			}
 			String base = query.getBaseURI();
-			String sparql = bindMultiples(query.toString());
-			return bindSingles(con.prepareTupleQuery(SPARQL, sparql, base));
+			Operation qry;
+			if (ObjectQuery.class.equals(type)) {
+				qry = con.prepareObjectQuery(SPARQL, sparql, base);
+			} else if (TupleQuery.class.equals(type)) {
+				qry = con.prepareTupleQuery(SPARQL, sparql, base);
+			} else if (GraphQuery.class.equals(type)) {
+				qry = con.prepareGraphQuery(SPARQL, sparql, base);
+			} else if (BooleanQuery.class.equals(type)) {
+				qry = con.prepareBooleanQuery(SPARQL, sparql, base);
+			} else if (Update.class.equals(type)) {
+				qry = con.prepareUpdate(SPARQL, sparql, base);
+			} else {
+				throw new AssertionError("Unknown operation type");
+			}
+			return bindSingles(type.cast(qry));
 		}
 
-		private BooleanQuery prepareBooleanQuery()
-				throws MalformedQueryException, RepositoryException {
-			String base = query.getBaseURI();
-			String sparql = bindMultiples(query.toString());
-			return bindSingles(con.prepareBooleanQuery(SPARQL, sparql, base));
+		private <T extends Operation> void release(Class<T> type,
+				String sparql, T qry) {
+			con.releaseOperation(getOperationKey(type, sparql), qry);
 		}
 
-		private ObjectQuery prepareObjectQuery(Class<?> concept)
-				throws MalformedQueryException, RepositoryException {
-			String base = query.getBaseURI();
-			String sparql = bindMultiples(query.toObjectString(concept));
-			return bindSingles(con.prepareObjectQuery(SPARQL, sparql, base));
+		private String getOperationKey(Class<?> type, String sparql) {
+			return type.getSimpleName() + " " + query.getBaseURI() + "\n"
+					+ sparql;
 		}
 
 		private String bindMultiples(String sparql) {
@@ -28,16 +28,20 @@
  */
 package org.openrdf.repository.object.behaviours;
 
-import info.aduna.iteration.CloseableIteration;
-import info.aduna.iteration.ConvertingIteration;
+import static org.openrdf.query.QueryLanguage.SPARQL;
 
 import java.util.AbstractSequentialList;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.openrdf.annotations.Precedes;
-import org.openrdf.model.BNode;
 import org.openrdf.model.Literal;
 import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
@@ -45,9 +49,13 @@ import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQuery;
+import org.openrdf.query.TupleQueryResult;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
-import org.openrdf.repository.RepositoryResult;
 import org.openrdf.repository.object.ObjectConnection;
 import org.openrdf.repository.object.RDFObject;
 import org.openrdf.repository.object.exceptions.ObjectPersistException;
@@ -58,20 +66,36 @@ import org.openrdf.repository.object.traits.Refreshable;
 /**
  * Java instance for rdf:List as a familiar interface to manipulate this List.
  * This implemention can only be modified when in autoCommit (autoFlush), or
- * when read uncommitted is supported.
+ * when read uncommitted is supported. The nodes of the list are read in a
+ * single query and kept until refreshed; each modification is written as one
+ * batch of removed and added statements.
  * 
  * @author James Leigh
  */
 @Precedes(RDFObjectImpl.class)
 public abstract class RDFList extends AbstractSequentialList<Object> implements
 		Refreshable, Mergeable, RDFObject {
+	private static final String SELECT_NODES = "PREFIX rdf:<" + RDF.NAMESPACE
+			+ ">\nSELECT ?node ?first ?rest WHERE { $self rdf:rest* ?node\n"
+			+ "OPTIONAL { ?node rdf:first ?first }\n"
+			+ "OPTIONAL { ?node rdf:rest ?rest } }";
 
-	private int _size = -1;
+	/** nodes with a first value in list order, or null if not yet read */
+	private List<Resource> _nodes;
+
+	private List<Value> _firsts;
+
+	/** the rdf:rest of each node, null if the list is unterminated */
+	private List<Resource> _rests;
 
 	private RDFList parent;
 
 	public void refresh() {
-		_size = -1;
+		synchronized (this) {
+			_nodes = null;
+			_firsts = null;
+			_rests = null;
+		}
 		if (parent != null)
 			parent.refresh();
 	}
@@ -88,276 +112,124 @@ public abstract class RDFList extends AbstractSequentialList<Object> implements
 		return conn.getValueFactory();
 	}
 
-	private CloseableIteration<Value, RepositoryException> getValues(Resource subj, URI pred, Value obj) {
-		try {
-			RepositoryResult<Statement> stmts;
-			ObjectConnection conn = getObjectConnection();
-			stmts = conn.getStatements(subj, pred, obj);
-			return new ConvertingIteration<Statement, Value, RepositoryException>(stmts) {
-				@Override
-				protected Value convert(Statement stmt) throws RepositoryException {
-					return stmt.getObject();
-				}
-			};
-		} catch (RepositoryException e) {
-			throw new ObjectStoreException(e);
-		}
+	@Override
+	public synchronized int size() {
+		load();
+		return _nodes.size();
 	}
 
-	void addStatement(Resource subj, URI pred, Value obj) {
-		if (obj == null)
-			return;
-		try {
-			ObjectConnection conn = getObjectConnection();
-			conn.add(subj, pred, obj);
-		} catch (RepositoryException e) {
-			throw new ObjectPersistException(e);
-		}
+	@Override
+	public boolean addAll(Collection<? extends Object> c) {
+		return addAll(size(), c);
 	}
 
-	void removeStatements(Resource subj, URI pred, Value obj) {
-		try {
-			ObjectConnection conn = getObjectConnection();
-			conn.remove(subj, pred, obj);
-		} catch (RepositoryException e) {
-			throw new ObjectPersistException(e);
-		}
+	@Override
+	public boolean addAll(int index, Collection<? extends Object> c) {
+		if (c.isEmpty())
+			return false;
+		insert(index, new ArrayList<Object>(c));
+		return true;
 	}
 
 	@Override
-	public int size() {
-		if (_size < 0) {
-			synchronized (this) {
-				if (_size < 0) {
-					Resource list = getResource();
-					int size;
-					for (size = 0; list != null && !list.equals(RDF.NIL); size++) {
-						Resource nlist = getRest(list);
-						if (nlist == null && getFirst(list) == null)
-							break;
-						list = nlist;
-					}
-					_size = size;
-				}
-			}
+	public synchronized void clear() {
+		load();
+		if (_nodes.isEmpty())
+			return;
+		List<Statement> removed = new ArrayList<Statement>();
+		for (int i = 0, n = _nodes.size(); i < n; i++) {
+			remove(removed, _nodes.get(i), RDF.FIRST, _firsts.get(i));
+			remove(removed, _nodes.get(i), RDF.REST, _rests.get(i));
 		}
-		return _size;
+		write(removed, new ArrayList<Statement>());
+		_nodes.clear();
+		_firsts.clear();
+		_rests.clear();
 	}
 
 	@Override
 	public ListIterator<Object> listIterator(final int index) {
+		if (index < 0 || index > size())
+			throw new IndexOutOfBoundsException("Index: " + index);
 		return new ListIterator<Object>() {
-			private ArrayList<Resource> prevLists = new ArrayList<Resource>();
+			private int cursor = index;
 
-			private boolean removed;
+			private int lastRet = -1;
 
-			Resource list;
-			{
-				for (int i = 0; i < index; i++) {
-					next();
-				}
-			}
+			private List<Object> loaded;
+
+			private int loadedFrom;
+
+			private int batch = 1;
 
 			public void add(Object o) {
-				ObjectConnection conn = getObjectConnection();
-				try {
-					boolean autoCommit = conn.isAutoCommit();
-					if (autoCommit)
-						conn.setAutoCommit(false);
-					try {
-						if (getResource().equals(RDF.NIL)) {
-							// size == 0
-							throw new ObjectPersistException(
-									"cannot add a value to the nil list");
-							/*
-							 * list = _id = getValueFactory().createBNode();
-							 * addStatement(list, RDF.FIRST,
-							 * SesameProperty.createValue(List.this, o));
-							 * addStatement(list, RDF.REST, RDF.NIL);
-							 */
-						}
-						Value value = o == null ? null : getObjectConnection()
-								.addObject(o);
-						if (getFirst(getResource()) == null) {
-							// size == 0
-							list = getResource();
-							addStatement(list, RDF.FIRST, value);
-							addStatement(list, RDF.REST, RDF.NIL);
-						} else if (list == null) {
-							// index = 0
-							Value first = getFirst(getResource());
-							Resource rest = getRest(getResource());
-							BNode newList = getValueFactory().createBNode();
-							addStatement(newList, RDF.FIRST, first);
-							addStatement(newList, RDF.REST, rest);
-							removeStatements(getResource(), RDF.FIRST, first);
-							removeStatements(getResource(), RDF.REST, rest);
-							addStatement(getResource(), RDF.FIRST, value);
-							addStatement(getResource(), RDF.REST, newList);
-						} else if (!list.equals(RDF.NIL)) {
-							Resource rest = getRest(list);
-							BNode newList = getValueFactory().createBNode();
-							removeStatements(list, RDF.REST, rest);
-							addStatement(list, RDF.REST, newList);
-							addStatement(newList, RDF.FIRST, value);
-							addStatement(newList, RDF.REST, rest);
-						} else {
-							// index == size
-							throw new NoSuchElementException();
-						}
-						if (autoCommit)
-							conn.setAutoCommit(true);
-						refresh();
-					} finally {
-						if (autoCommit && !conn.isAutoCommit()) {
-							conn.rollback();
-							conn.setAutoCommit(true);
-						}
-					}
-				} catch (RepositoryException e) {
-					throw new ObjectPersistException(e);
-				}
+				List<Object> list = new ArrayList<Object>(1);
+				list.add(o);
+				insert(cursor++, list);
+				lastRet = -1;
+				loaded = null;
 			}
 
 			public void set(Object o) {
-				ObjectConnection conn = getObjectConnection();
-				try {
-					boolean autoCommit = conn.isAutoCommit();
-					if (autoCommit)
-						conn.setAutoCommit(false);
-					try {
-						if (getResource().equals(RDF.NIL)) {
-							// size == 0
-							throw new NoSuchElementException();
-						} else if (list.equals(RDF.NIL)) {
-							// index = size
-							throw new NoSuchElementException();
-						} else {
-							Value first = getFirst(list);
-							removeStatements(list, RDF.FIRST, first);
-							if (o != null) {
-								Value obj = getObjectConnection().addObject(o);
-								addStatement(list, RDF.FIRST, obj);
-							}
-						}
-						if (autoCommit)
-							conn.setAutoCommit(true);
-					} finally {
-						if (autoCommit && !conn.isAutoCommit()) {
-							conn.rollback();
-							conn.setAutoCommit(true);
-						}
-					}
-					refresh();
-				} catch (RepositoryException e) {
-					throw new ObjectPersistException(e);
-				}
+				if (lastRet < 0)
+					throw new IllegalStateException();
+				replace(lastRet, o);
+				loaded = null;
 			}
 
 			public void remove() {
-				ObjectConnection conn = getObjectConnection();
-				try {
-					boolean autoCommit = conn.isAutoCommit();
-					if (autoCommit)
-						conn.setAutoCommit(false);
-					try {
-						if (prevLists.size() < 1) {
-							// remove index == 0
-							Value first = getFirst(list);
-							removeStatements(list, RDF.FIRST, first);
-							Resource next = getRest(list);
-							first = getFirst(next);
-							Resource rest = getRest(next);
-							removeStatements(list, RDF.REST, next);
-							if (first != null) {
-								removeStatements(next, RDF.FIRST, first);
-								addStatement(list, RDF.FIRST, first);
-							}
-							if (rest != null) {
-								removeStatements(next, RDF.REST, rest);
-								addStatement(list, RDF.REST, rest);
-							}
-						} else {
-							// remove index > 0
-							Resource removedList = list;
-							list = prevLists.remove(prevLists.size() - 1);
-							Value first = getFirst(removedList);
-							Resource rest = getRest(removedList);
-							removeStatements(removedList, RDF.FIRST, first);
-							removeStatements(removedList, RDF.REST, rest);
-							removeStatements(list, RDF.REST, removedList);
-							addStatement(list, RDF.REST, rest);
-						}
-						if (autoCommit)
-							conn.setAutoCommit(true);
-						removed = true;
-						refresh();
-					} finally {
-						if (autoCommit && !conn.isAutoCommit()) {
-							conn.rollback();
-							conn.setAutoCommit(true);
-						}
-					}
-				} catch (RepositoryException e) {
-					throw new ObjectStoreException(e);
+				if (lastRet < 0)
+					throw new IllegalStateException();
+				delete(lastRet);
+				if (lastRet < cursor) {
+					cursor--;
 				}
+				lastRet = -1;
+				loaded = null;
 			}
 
 			public boolean hasNext() {
-				Resource next;
-				if (list == null) {
-					next = getResource();
-				} else {
-					next = getRest(list);
-				}
-				return getFirst(next) != null;
+				return cursor < size();
 			}
 
 			public Object next() {
-				if (list == null) {
-					list = getResource();
-				} else if (!removed) {
-					prevLists.add(list);
-					list = getRest(list);
-				} else {
-					removed = false;
+				if (loaded == null || cursor < loadedFrom
+						|| cursor >= loadedFrom + loaded.size()) {
+					loaded = createInstances(cursor);
+					loadedFrom = cursor;
 				}
-				Value first = getFirst(list);
-				if (first == null)
-					throw new NoSuchElementException();
-				return createInstance(first);
+				lastRet = cursor++;
+				return loaded.get(lastRet - loadedFrom);
 			}
 
 			public int nextIndex() {
-				if (list == null)
-					return 0;
-				return prevLists.size() + 1;
+				return cursor;
 			}
 
 			public int previousIndex() {
-				return prevLists.size() - 1;
+				return cursor - 1;
 			}
 
 			public boolean hasPrevious() {
-				return prevLists.size() > 0;
+				return cursor > 0;
 			}
 
 			public Object previous() {
-				list = prevLists.remove(prevLists.size() - 1);
-				removed = false;
-				Value first = getFirst(list);
-				if (first == null)
-					throw new NoSuchElementException();
+				Value first = getFirst(cursor - 1);
+				lastRet = --cursor;
 				return createInstance(first);
 			}
 
-			private Object createInstance(Value first) {
+			/**
+			 * Creates the next few instances, starting with one and doubling
+			 * up to the batch size as the iteration continues.
+			 */
+			private List<Object> createInstances(int from) {
+				ObjectConnection conn = getObjectConnection();
 				try {
-					if (first instanceof Resource)
-						return getObjectConnection()
-								.getObject((Resource) first);
-					return getObjectConnection().getObjectFactory()
-							.createObject(((Literal) first));
+					int to = from + batch;
+					batch = Math.min(batch * 2, conn.getBatchSize());
+					return conn.getObjects(getFirsts(from, to));
 				} catch (RepositoryException e) {
 					throw new ObjectStoreException(e);
 				}
@@ -365,44 +237,254 @@ public abstract class RDFList extends AbstractSequentialList<Object> implements
 		};
 	}
 
+	@Override
+	public Object get(int index) {
+		try {
+			return createInstance(getFirst(index));
+		} catch (NoSuchElementException e) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+	}
+
 	@Override
 	public String toString() {
 		return super.toString();
 	}
 
-	Value getFirst(Resource list) {
-		if (list == null)
-			return null;
+	private Object createInstance(Value first) {
 		try {
-			CloseableIteration<Value, RepositoryException> stmts;
-			stmts = getValues(list, RDF.FIRST, null);
-			try {
-				if (stmts.hasNext())
-					return stmts.next();
-				return null;
-			} finally {
-				stmts.close();
-			}
+			if (first instanceof Resource)
+				return getObjectConnection().getObject((Resource) first);
+			return getObjectConnection().getObjectFactory().createObject(
+					((Literal) first));
 		} catch (RepositoryException e) {
 			throw new ObjectStoreException(e);
 		}
 	}
 
-	Resource getRest(Resource list) {
-		if (list == null)
-			return null;
+	synchronized Value getFirst(int index) {
+		load();
+		if (index < 0 || index >= _firsts.size())
+			throw new NoSuchElementException();
+		return _firsts.get(index);
+	}
+
+	synchronized List<Value> getFirsts(int from, int to) {
+		load();
+		if (from < 0 || from >= _firsts.size())
+			throw new NoSuchElementException();
+		to = Math.min(to, _firsts.size());
+		return new ArrayList<Value>(_firsts.subList(from, to));
+	}
+
+	/**
+	 * Links the given objects into the list before the node at index. The
+	 * resource of this list must remain its first node.
+	 */
+	synchronized void insert(int index, List<?> objects) {
+		load();
+		int size = _nodes.size();
+		if (index < 0 || index > size)
+			throw new IndexOutOfBoundsException("Index: " + index);
+		Resource head = getResource();
+		if (head.equals(RDF.NIL))
+			throw new ObjectPersistException(
+					"cannot add a value to the nil list");
+		ObjectConnection conn = getObjectConnection();
+		List<Value> values = new ArrayList<Value>(objects.size() + 1);
+		List<Statement> removed = new ArrayList<Statement>();
+		List<Statement> added = new ArrayList<Statement>();
+		Resource next;
+		try {
+			for (Object o : objects) {
+				values.add(o == null ? null : conn.addObject(o));
+			}
+		} catch (RepositoryException e) {
+			throw new ObjectPersistException(e);
+		}
+		List<Resource> nodes = new ArrayList<Resource>(values.size() + 1);
+		if (size == 0) {
+			nodes.add(head);
+			next = RDF.NIL;
+		} else if (index == 0) {
+			// the current first value moves into a new node after the values
+			remove(removed, head, RDF.FIRST, _firsts.get(0));
+			remove(removed, head, RDF.REST, _rests.get(0));
+			values.add(_firsts.get(0));
+			nodes.add(head);
+			next = _rests.get(0);
+		} else {
+			Resource prev = _nodes.get(index - 1);
+			next = _rests.get(index - 1);
+			nodes.add(getValueFactory().createBNode());
+			remove(removed, prev, RDF.REST, next);
+			add(added, prev, RDF.REST, nodes.get(0));
+		}
+		while (nodes.size() < values.size()) {
+			nodes.add(getValueFactory().createBNode());
+		}
+		List<Resource> rests = new ArrayList<Resource>(nodes.size());
+		for (int i = 0, n = nodes.size(); i < n; i++) {
+			Resource rest = i + 1 < n ? nodes.get(i + 1) : next;
+			add(added, nodes.get(i), RDF.FIRST, values.get(i));
+			add(added, nodes.get(i), RDF.REST, rest);
+			rests.add(rest);
+		}
+		write(removed, added);
+		if (size > 0 && index == 0) {
+			_nodes.remove(0);
+			_firsts.remove(0);
+			_rests.remove(0);
+		} else if (size > 0) {
+			_rests.set(index - 1, nodes.get(0));
+		}
+		_nodes.addAll(index, nodes);
+		_firsts.addAll(index, values);
+		_rests.addAll(index, rests);
+	}
+
+	synchronized void replace(int index, Object o) {
+		load();
+		if (index < 0 || index >= _nodes.size())
+			throw new NoSuchElementException();
+		Resource node = _nodes.get(index);
+		List<Statement> removed = new ArrayList<Statement>();
+		List<Statement> added = new ArrayList<Statement>();
+		Value value;
+		try {
+			value = o == null ? null : getObjectConnection().addObject(o);
+		} catch (RepositoryException e) {
+			throw new ObjectPersistException(e);
+		}
+		remove(removed, node, RDF.FIRST, _firsts.get(index));
+		add(added, node, RDF.FIRST, value);
+		write(removed, added);
+		_firsts.set(index, value);
+	}
+
+	synchronized void delete(int index) {
+		load();
+		int size = _nodes.size();
+		if (index < 0 || index >= size)
+			throw new NoSuchElementException();
+		List<Statement> removed = new ArrayList<Statement>();
+		List<Statement> added = new ArrayList<Statement>();
+		Resource node = _nodes.get(index);
+		Resource rest = _rests.get(index);
+		remove(removed, node, RDF.FIRST, _firsts.get(index));
+		remove(removed, node, RDF.REST, rest);
+		if (index == 0 && size > 1) {
+			// the list resource takes over the contents of the next node
+			remove(removed, rest, RDF.FIRST, _firsts.get(1));
+			remove(removed, rest, RDF.REST, _rests.get(1));
+			add(added, node, RDF.FIRST, _firsts.get(1));
+			add(added, node, RDF.REST, _rests.get(1));
+			write(removed, added);
+			_nodes.remove(1);
+			_firsts.remove(0);
+			_rests.remove(0);
+		} else if (index == 0) {
+			write(removed, added);
+			_nodes.clear();
+			_firsts.clear();
+			_rests.clear();
+		} else {
+			Resource prev = _nodes.get(index - 1);
+			remove(removed, prev, RDF.REST, node);
+			add(added, prev, RDF.REST, rest);
+			write(removed, added);
+			_nodes.remove(index);
+			_firsts.remove(index);
+			_rests.remove(index);
+			_rests.set(index - 1, rest);
+		}
+	}
+
+	private void load() {
+		if (_nodes != null)
+			return;
+		Map<Resource, Value> firsts = new HashMap<Resource, Value>();
+		Map<Resource, Resource> rests = new HashMap<Resource, Resource>();
+		Resource list = getResource();
+		if (!list.equals(RDF.NIL)) {
+			try {
+				ObjectConnection conn = getObjectConnection();
+				TupleQuery qry = conn.prepareTupleQuery(SPARQL, SELECT_NODES);
+				qry.setBinding("self", list);
+				TupleQueryResult result = qry.evaluate();
+				try {
+					while (result.hasNext()) {
+						BindingSet bindings = result.next();
+						Resource node = (Resource) bindings.getValue("node");
+						Value first = bindings.getValue("first");
+						Value rest = bindings.getValue("rest");
+						if (first != null && !firsts.containsKey(node)) {
+							firsts.put(node, first);
+						}
+						if (rest instanceof Resource
+								&& !rests.containsKey(node)) {
+							rests.put(node, (Resource) rest);
+						}
+					}
+				} finally {
+					result.close();
+				}
+			} catch (MalformedQueryException e) {
+				throw new AssertionError(e);
+			} catch (RepositoryException e) {
+				throw new ObjectStoreException(e);
+			} catch (QueryEvaluationException e) {
+				throw new ObjectStoreException(e);
+			}
+		}
+		List<Resource> nodes = new ArrayList<Resource>();
+		List<Value> values = new ArrayList<Value>();
+		List<Resource> restList = new ArrayList<Resource>();
+		Set<Resource> seen = new HashSet<Resource>();
+		while (firsts.containsKey(list) && seen.add(list)) {
+			nodes.add(list);
+			values.add(firsts.get(list));
+			restList.add(list = rests.get(list));
+		}
+		_nodes = nodes;
+		_firsts = values;
+		_rests = restList;
+	}
+
+	private void write(List<Statement> removed, List<Statement> added) {
+		ObjectConnection conn = getObjectConnection();
 		try {
-			CloseableIteration<Value, RepositoryException> stmts;
-			stmts = getValues(list, RDF.REST, null);
+			boolean autoCommit = conn.isAutoCommit();
+			if (autoCommit)
+				conn.setAutoCommit(false);
 			try {
-				if (stmts.hasNext())
-					return (Resource) stmts.next();
-				return null;
+				conn.remove(removed);
+				conn.add(added);
+				if (autoCommit)
+					conn.setAutoCommit(true);
 			} finally {
-				stmts.close();
+				if (autoCommit && !conn.isAutoCommit()) {
+					conn.rollback();
+					conn.setAutoCommit(true);
+					refresh();
+				}
 			}
 		} catch (RepositoryException e) {
-			throw new ObjectStoreException(e);
+			refresh();
+			throw new ObjectPersistException(e);
+		}
+	}
+
+	private void add(List<Statement> added, Resource subj, URI pred, Value obj) {
+		if (obj != null) {
+			added.add(getValueFactory().createStatement(subj, pred, obj));
+		}
+	}
+
+	private void remove(List<Statement> removed, Resource subj, URI pred,
+			Value obj) {
+		if (obj != null) {
+			removed.add(getValueFactory().createStatement(subj, pred, obj));
 		}
 	}
 }
@@ -29,10 +29,10 @@
 package org.openrdf.repository.object.behaviours;
 
 import static org.openrdf.query.QueryLanguage.SPARQL;
-import info.aduna.iteration.CloseableIteration;
 
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -40,11 +40,11 @@ import java.util.Set;
 import org.openrdf.annotations.Precedes;
 import org.openrdf.model.Literal;
 import org.openrdf.model.Resource;
-import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.query.BindingSet;
+import org.openrdf.query.BooleanQuery;
 import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.TupleQuery;
@@ -104,10 +104,15 @@ public abstract class RDFSContainer extends AbstractList<Object> implements
 			if (autoCommit)
 				conn.setAutoCommit(false);
 			try {
-				for (int i = size() - 1; i >= index; i--) {
-					replace(i + 1, get(i));
+				int size = size();
+				if (index == size) {
+					append(index, obj);
+				} else {
+					for (int i = size - 1; i >= index; i--) {
+						replace(i + 1, get(i));
+					}
+					replace(index, obj);
 				}
-				replace(index, obj);
 				if (_size > UNKNOWN)
 					_size++;
 				if (autoCommit)
@@ -123,6 +128,36 @@ public abstract class RDFSContainer extends AbstractList<Object> implements
 		}
 	}
 
+	@Override
+	public boolean addAll(Collection<? extends Object> c) {
+		if (c.isEmpty())
+			return false;
+		ObjectConnection conn = getObjectConnection();
+		try {
+			boolean autoCommit = conn.isAutoCommit();
+			if (autoCommit)
+				conn.setAutoCommit(false);
+			try {
+				int size = size();
+				for (Object obj : c) {
+					append(size++, obj);
+				}
+				_size = size;
+				if (autoCommit)
+					conn.setAutoCommit(true);
+			} finally {
+				if (autoCommit && !conn.isAutoCommit()) {
+					conn.rollback();
+					conn.setAutoCommit(true);
+					refresh();
+				}
+			}
+		} catch (RepositoryException e) {
+			throw new ObjectPersistException(e);
+		}
+		return true;
+	}
+
 	@Override
 	public Object set(int index, Object obj) {
 		ObjectConnection conn = getObjectConnection();
@@ -213,14 +248,27 @@ public abstract class RDFSContainer extends AbstractList<Object> implements
 		try {
 			ObjectConnection conn = getObjectConnection();
 			Resource resource = getResource();
-			int size = _size;
-			if (size < 0) {
-				size = (int) findSize();
+			int size = size();
+			boolean autoCommit = conn.isAutoCommit();
+			if (autoCommit)
+				conn.setAutoCommit(false);
+			try {
+				for (int i = 0; i < size; i++) {
+					URI pred = getMemberPredicate(i);
+					conn.remove(resource, pred, null);
+				}
+				if (autoCommit)
+					conn.setAutoCommit(true);
+			} finally {
+				if (autoCommit && !conn.isAutoCommit()) {
+					conn.rollback();
+					conn.setAutoCommit(true);
+				}
 			}
-			for (int i = 0; i < size; i++) {
-				URI pred = getMemberPredicate(i);
-				conn.remove(resource, pred, null);
+			synchronized (this) {
+				blocks.clear();
 			}
+			_size = 0;
 		} catch (RepositoryException e) {
 			throw new ObjectPersistException(e);
 		}
@@ -288,6 +336,19 @@ public abstract class RDFSContainer extends AbstractList<Object> implements
 		clearBlock(index / BSIZE);
 	}
 
+	/** Adds a member after the last, which has no value to remove. */
+	private void append(int index, Object o) throws RepositoryException {
+		if (o == null)
+			throw new NullPointerException();
+		URI pred = getMemberPredicate(index);
+		ObjectConnection conn = getObjectConnection();
+		conn.add(getResource(), pred, conn.addObject(o));
+		Object[] block = getBlock(index / BSIZE);
+		if (block != null) {
+			block[index % BSIZE] = o;
+		}
+	}
+
 	private void replace(int index, Object o) throws RepositoryException {
 		if (o == null)
 			throw new NullPointerException();
@@ -314,22 +375,78 @@ public abstract class RDFSContainer extends AbstractList<Object> implements
 		}
 	}
 
+	/**
+	 * The index of the first missing member. Membership is probed at doubling
+	 * indexes and bisected to find a missing member after a present one. As a
+	 * container may have gaps, the members before it are then probed a block
+	 * at a time, and the first block with a gap is bisected.
+	 */
 	private int findSize() throws RepositoryException {
-		CloseableIteration<? extends Statement, RepositoryException> iter;
-		HashSet<URI> set = new HashSet<URI>();
-		ObjectConnection conn = getObjectConnection();
-		iter = conn.getStatements(getResource(), null, null);
-		try {
-			while (iter.hasNext()) {
-				set.add(iter.next().getPredicate());
+		if (!hasMember(0))
+			return 0;
+		int present = 0;
+		int missing = 1;
+		while (hasMember(missing)) {
+			present = missing;
+			missing = missing * 2 + 1;
+		}
+		while (missing - present > 1) {
+			int mid = (present + missing) >>> 1;
+			if (hasMember(mid)) {
+				present = mid;
+			} else {
+				missing = mid;
 			}
-		} finally {
-			iter.close();
 		}
-		int index = 0;
-		while (set.contains(getMemberPredicate(index)))
-			index++;
-		return index;
+		for (int from = 1; from < missing; from += BSIZE) {
+			int to = Math.min(from + BSIZE, missing);
+			if (hasGap(from, to)) {
+				while (to - from > 1) {
+					int mid = (from + to) >>> 1;
+					if (hasGap(from, mid)) {
+						to = mid;
+					} else {
+						from = mid;
+					}
+				}
+				return from;
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * If any member from the index <code>from</code> up to, but not including,
+	 * <code>to</code> is missing.
+	 */
+	private boolean hasGap(int from, int to) throws RepositoryException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("ASK { VALUES ?pred {");
+		for (int i = from; i < to; i++) {
+			sb.append(" <");
+			sb.append(RDF.NAMESPACE);
+			sb.append("_");
+			sb.append((i + 1));
+			sb.append(">");
+		}
+		sb.append(" }\n");
+		sb.append("FILTER NOT EXISTS { $self ?pred ?value } }");
+		ObjectConnection con = getObjectConnection();
+		try {
+			BooleanQuery query = con.prepareBooleanQuery(SPARQL, sb.toString());
+			query.setBinding("self", getResource());
+			return query.evaluate();
+		} catch (MalformedQueryException e) {
+			throw new RepositoryException(e);
+		} catch (QueryEvaluationException e) {
+			throw new RepositoryException(e);
+		}
+	}
+
+	private boolean hasMember(int index) throws RepositoryException {
+		ObjectConnection conn = getObjectConnection();
+		return conn.hasStatement(getResource(), getMemberPredicate(index),
+				null);
 	}
 
 	private synchronized Object[] getBlock(int b) {
@@ -354,7 +471,16 @@ public abstract class RDFSContainer extends AbstractList<Object> implements
 	private Object[] loadBlock(int b) throws RepositoryException, QueryEvaluationException {
 		TupleQuery query = createBlockQuery(b);
 		TupleQueryResult result = query.evaluate();
-		BindingSet bindings = result.next();
+		try {
+			return loadBlock(result);
+		} finally {
+			result.close();
+		}
+	}
+
+	private Object[] loadBlock(TupleQueryResult result)
+			throws RepositoryException, QueryEvaluationException {
+		BindingSet bindings = result.hasNext() ? result.next() : null;
 		ObjectConnection con = getObjectConnection();
 		Object[] list = new Object[BSIZE];
 		while (bindings != null) {
@@ -382,20 +508,17 @@ public abstract class RDFSContainer extends AbstractList<Object> implements
 	private TupleQuery createBlockQuery(int b) throws RepositoryException {
 		StringBuilder sb = new StringBuilder();
 		sb.append("SELECT ?pred ?value ?value_class\n");
-		sb.append("WHERE { $self ?pred ?value\n");
-		sb.append("OPTIONAL { ?value a ?value_class }\n");
-		sb.append("FILTER (");
+		sb.append("WHERE { VALUES ?pred {");
 		for (int i = b * BSIZE, n = b * BSIZE + BSIZE; i < n; i++) {
-			sb.append("?pred = <");
+			sb.append(" <");
 			sb.append(RDF.NAMESPACE);
 			sb.append("_");
 			sb.append((i + 1));
 			sb.append(">");
-			if (i + 1 < n) {
-				sb.append(" || ");
-			}
 		}
-		sb.append(")}\n");
+		sb.append(" }\n");
+		sb.append("$self ?pred ?value\n");
+		sb.append("OPTIONAL { ?value a ?value_class }}\n");
 		ObjectConnection con = getObjectConnection();
 		try {
 			TupleQuery query = con.prepareTupleQuery(SPARQL, sb.toString());
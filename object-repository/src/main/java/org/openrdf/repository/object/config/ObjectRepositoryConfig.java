@@ -38,6 +38,7 @@ import static org.openrdf.repository.object.config.ObjectRepositorySchema.CONCEP
 import static org.openrdf.repository.object.config.ObjectRepositorySchema.CONCEPT_JAR;
 import static org.openrdf.repository.object.config.ObjectRepositorySchema.DATATYPE;
 import static org.openrdf.repository.object.config.ObjectRepositorySchema.KNOWN_AS;
+import static org.openrdf.repository.object.config.ObjectRepositorySchema.OBJECT_CACHE_SIZE;
 
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
@@ -51,6 +52,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.openrdf.model.Graph;
+import org.openrdf.model.Literal;
 import org.openrdf.model.Model;
 import org.openrdf.model.Resource;
 import org.openrdf.model.URI;
@@ -85,6 +87,7 @@ public class ObjectRepositoryConfig extends ContextAwareConfig implements
 	private List<URL> behaviourJars = new ArrayList<URL>();
 	private Value blobStore;
 	private Set<Value> blobStoreParameters = new HashSet<Value>();
+	private int objectCacheSize;
 
 	public ObjectRepositoryConfig() {
 		super();
@@ -392,6 +395,18 @@ public class ObjectRepositoryConfig extends ContextAwareConfig implements
 		}
 	}
 
+	public int getObjectCacheSize() {
+		return objectCacheSize;
+	}
+
+	/**
+	 * Number of resources whose types and property values are shared between
+	 * connections, zero (the default) to disable the shared cache.
+	 */
+	public void setObjectCacheSize(int objectCacheSize) {
+		this.objectCacheSize = objectCacheSize;
+	}
+
 	public ObjectRepositoryConfig clone() {
 		try {
 			Object o = super.clone();
@@ -436,6 +451,9 @@ public class ObjectRepositoryConfig extends ContextAwareConfig implements
 		for (Value v : blobStoreParameters) {
 			model.add(subj, BLOB_STORE_PARAMETER, v);
 		}
+		if (objectCacheSize > 0) {
+			model.add(subj, OBJECT_CACHE_SIZE, vf.createLiteral(objectCacheSize));
+		}
 		return subj;
 	}
 
@@ -459,10 +477,14 @@ public class ObjectRepositoryConfig extends ContextAwareConfig implements
 			blobStore = model.filter(subj, BLOB_STORE, null).objectValue();
 			blobStoreParameters.clear();
 			blobStoreParameters.addAll(model.filter(subj, BLOB_STORE_PARAMETER, null).objects());
+			Literal cacheSize = model.filter(subj, OBJECT_CACHE_SIZE, null).objectLiteral();
+			objectCacheSize = cacheSize == null ? 0 : cacheSize.intValue();
 		} catch (MalformedURLException e) {
 			throw new ObjectStoreConfigException(e);
 		} catch (ModelException e) {
 			throw new ObjectStoreConfigException(e);
+		} catch (NumberFormatException e) {
+			throw new ObjectStoreConfigException(e);
 		}
 	}
 
@@ -152,6 +152,7 @@ public class ObjectRepositoryFactory extends ContextAwareFactory {
 		ObjectRepository repo = createObjectRepository(mapper, literals, cl);
 		repo.setBlobStoreUrl(module.getBlobStore());
 		repo.setBlobStoreParameters(module.getBlobStoreParameters());
+		repo.setObjectCacheSize(module.getObjectCacheSize());
 		return repo;
 	}
 
@@ -70,6 +70,9 @@ public class ObjectRepositorySchema {
 	/** <tt>http://www.openrdf.org/config/repository/object#blobStoreParameter</tt> */
 	public final static URI BLOB_STORE_PARAMETER;
 
+	/** <tt>http://www.openrdf.org/config/repository/object#objectCacheSize</tt> */
+	public final static URI OBJECT_CACHE_SIZE;
+
 	static {
 		ValueFactory vf = ValueFactoryImpl.getInstance();
 		DATATYPE = vf.createURI(NAMESPACE, "datatype");
@@ -80,5 +83,6 @@ public class ObjectRepositorySchema {
 		BEHAVIOUR_JAR = vf.createURI(NAMESPACE, "behaviourJar");
 		BLOB_STORE = vf.createURI(NAMESPACE, "blobStore");
 		BLOB_STORE_PARAMETER = vf.createURI(NAMESPACE, "blobStoreParameter");
+		OBJECT_CACHE_SIZE = vf.createURI(NAMESPACE, "objectCacheSize");
 	}
 }
@@ -0,0 +1,39 @@
+package org.openrdf.repository.object;
+
+import junit.framework.Test;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.repository.object.base.ObjectRepositoryTestCase;
+
+public class ArchiveContextsTest extends ObjectRepositoryTestCase {
+
+	public static Test suite() throws Exception {
+		return ObjectRepositoryTestCase.suite(ArchiveContextsTest.class);
+	}
+
+	private URI item;
+	private URI name;
+	private URI archive;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		ValueFactory vf = con.getValueFactory();
+		item = vf.createURI("urn:test:item");
+		name = vf.createURI("urn:test:name");
+		archive = vf.createURI("urn:test:archive");
+	}
+
+	public void testDelegatingWithoutArchive() throws Exception {
+		assertTrue(con.isDelegatingAdd());
+		assertTrue(con.isDelegatingRemove());
+	}
+
+	public void testArchiveNotDelegated() throws Exception {
+		con.setArchiveContexts(archive);
+		assertFalse(con.isDelegatingRemove());
+		con.add(item, name, con.getValueFactory().createLiteral("first"));
+		con.remove(item, name, null);
+		assertFalse(con.hasStatement(item, name, null, false));
+	}
+}
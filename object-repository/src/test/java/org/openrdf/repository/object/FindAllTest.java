@@ -1,10 +1,12 @@
 package org.openrdf.repository.object;
 
 import java.util.List;
+import java.util.Set;
 
 import junit.framework.Test;
 
 import org.openrdf.annotations.Iri;
+import org.openrdf.model.BNode;
 import org.openrdf.model.URI;
 import org.openrdf.repository.object.base.ObjectRepositoryTestCase;
 import org.openrdf.result.Result;
@@ -37,6 +39,24 @@ public class FindAllTest extends ObjectRepositoryTestCase {
 		assertEquals(2, list.size());
 	}
 
+	public void testResources() throws Exception {
+		URI myClass = con.getValueFactory().createURI(BASE, "my-class");
+		URI other = con.getValueFactory().createURI(BASE, "my-other-class");
+		URI missing = con.getValueFactory().createURI(BASE, "missing");
+		BNode node = con.getValueFactory().createBNode();
+		con.addDesignation(con.getObject(node), MyClass.class);
+		con.setBatchSize(2);
+		Set<MyClass> set = con.getObjects(MyClass.class, myClass, node, other,
+				missing).asSet();
+		assertEquals(4, set.size());
+		assertTrue(set.contains(con.getObject(myClass)));
+		assertTrue(set.contains(con.getObject(other)));
+		assertTrue(set.contains(con.getObject(node)));
+		assertTrue(set.contains(con.getObject(missing)));
+		assertTrue(con.getObject(node) instanceof MyClass);
+		assertTrue(con.getObject(other) instanceof MyOtherClass);
+	}
+
 	@Override
 	protected void setUp() throws Exception {
 		config.addConcept(MyClass.class);
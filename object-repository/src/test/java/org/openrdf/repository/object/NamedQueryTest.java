@@ -1,5 +1,8 @@
 package org.openrdf.repository.object;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.Reader;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -8,6 +11,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.events.XMLEvent;
+
 import junit.framework.Test;
 
 import org.openrdf.annotations.Bind;
@@ -23,6 +29,9 @@ import org.openrdf.query.TupleQueryResult;
 import org.openrdf.repository.object.base.ObjectRepositoryTestCase;
 import org.openrdf.repository.object.base.RepositoryTestCase;
 import org.openrdf.result.Result;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 public class NamedQueryTest extends ObjectRepositoryTestCase {
 	private static final String NS = "urn:test:";
@@ -99,6 +108,26 @@ public class NamedQueryTest extends ObjectRepositoryTestCase {
 				+ "WHERE { ?person :name ?name } ORDER BY ?name")
 		Model loadAllPeopleInModel();
 
+		@Sparql(PREFIX + "CONSTRUCT { ?person a :Person; :name ?name } "
+				+ "WHERE { ?person :name ?name } ORDER BY ?name")
+		InputStream loadAllPeopleAsStream();
+
+		@Sparql(PREFIX + "SELECT ?person ?name "
+				+ "WHERE { ?person :name ?name } ORDER BY ?name")
+		Reader findAllPeopleNameAsReader();
+
+		@Sparql(PREFIX + "CONSTRUCT { ?person a :Person; :name ?name } "
+				+ "WHERE { ?person :name ?name } ORDER BY ?name")
+		Document loadAllPeopleAsDocument();
+
+		@Sparql(PREFIX + "SELECT ?person ?name "
+				+ "WHERE { ?person :name ?name } ORDER BY ?name")
+		Element findAllPeopleNameAsElement();
+
+		@Sparql(PREFIX + "SELECT ?person ?name "
+				+ "WHERE { ?person :name ?name } ORDER BY ?name")
+		XMLEventReader findAllPeopleNameAsEvents();
+
 		@Sparql(PREFIX + "SELECT ?person WHERE { ?person a :Person }")
 		Set<Person> findFriends();
 
@@ -198,6 +227,24 @@ public class NamedQueryTest extends ObjectRepositoryTestCase {
 		assertTrue(me.isFriend(john));
 	}
 
+	public void testRepeatedWithOtherBindings() throws Exception {
+		assertTrue(me.isFriend(john));
+		assertFalse(me.isFriend(phil));
+		assertTrue(me.isFriend(john));
+		assertEquals(john, me.findFriendByName("john"));
+		assertNull(me.findFriendByName("phil"));
+		assertEquals(john, me.findFriendByName("john"));
+	}
+
+	public void testRepeatedWhileOpen() throws Exception {
+		TupleQueryResult first = me.findAllPeopleName();
+		TupleQueryResult second = me.findAllPeopleName();
+		assertEquals("james", first.next().getValue("name").stringValue());
+		assertEquals("james", second.next().getValue("name").stringValue());
+		first.close();
+		second.close();
+	}
+
 	public void testFindAllPeople() throws Exception {
 		Result<Person> result = me.findAllPeople();
 		assertTrue(result.hasNext());
@@ -234,6 +281,82 @@ public class NamedQueryTest extends ObjectRepositoryTestCase {
 		assertFalse(result.isEmpty());
 	}
 
+	public void testInputStream() throws Exception {
+		InputStream in = me.loadAllPeopleAsStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[16];
+		int read;
+		while ((read = in.read(buf)) >= 0) {
+			out.write(buf, 0, read);
+		}
+		in.close();
+		String xml = out.toString("UTF-8");
+		assertTrue(xml.contains("james"));
+		assertTrue(xml.contains("phil"));
+		assertTrue(xml.trim().endsWith("</rdf:RDF>"));
+	}
+
+	public void testReader() throws Exception {
+		Reader reader = me.findAllPeopleNameAsReader();
+		StringBuilder sb = new StringBuilder();
+		int read;
+		while ((read = reader.read()) >= 0) {
+			sb.append((char) read);
+		}
+		reader.close();
+		String xml = sb.toString();
+		assertTrue(xml.indexOf("james") < xml.indexOf("phil"));
+		assertTrue(xml.trim().endsWith("</sparql>"));
+	}
+
+	public void testCloseUnreadStream() throws Exception {
+		me.loadAllPeopleAsStream().close();
+		me.findAllPeopleNameAsReader().close();
+		assertEquals(john, me.findFriendByName("john"));
+	}
+
+	public void testDocument() throws Exception {
+		String rdf = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+		Document doc = me.loadAllPeopleAsDocument();
+		assertEquals("RDF", doc.getDocumentElement().getLocalName());
+		NodeList names = doc.getElementsByTagNameNS(NS, "name");
+		assertEquals(3, names.getLength());
+		for (int i = 0; i < names.getLength(); i++) {
+			assertFalse(((Element) names.item(i)).hasAttributeNS(rdf,
+					"datatype"));
+			Element desc = (Element) names.item(i).getParentNode();
+			String about = desc.getAttributeNS(rdf, "about");
+			assertEquals(NS + names.item(i).getTextContent().replace("james",
+					"me"), about);
+		}
+	}
+
+	public void testElement() throws Exception {
+		String ns = "http://www.w3.org/2005/sparql-results#";
+		Element sparql = me.findAllPeopleNameAsElement();
+		assertEquals(ns, sparql.getNamespaceURI());
+		NodeList results = sparql.getElementsByTagNameNS(ns, "result");
+		assertEquals(3, results.getLength());
+		NodeList literals = sparql.getElementsByTagNameNS(ns, "literal");
+		assertEquals("james", literals.item(0).getTextContent());
+		assertFalse(((Element) literals.item(0)).hasAttribute("datatype"));
+	}
+
+	public void testXMLEventReader() throws Exception {
+		XMLEventReader reader = me.findAllPeopleNameAsEvents();
+		List<String> names = new ArrayList<String>();
+		while (reader.hasNext()) {
+			XMLEvent event = reader.nextEvent();
+			if (event.isStartElement()
+					&& "literal".equals(event.asStartElement().getName()
+							.getLocalPart())) {
+				names.add(reader.getElementText());
+			}
+		}
+		reader.close();
+		assertEquals(Arrays.asList("james", "john", "phil"), names);
+	}
+
 	public void testSet() throws Exception {
 		Set<Person> set = me.findFriends();
 		assertEquals(3, set.size());
@@ -0,0 +1,146 @@
+package org.openrdf.repository.object;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Test;
+
+import org.openrdf.annotations.Iri;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.repository.object.base.ObjectRepositoryTestCase;
+
+public class ObjectCacheTest extends ObjectRepositoryTestCase {
+
+	public static Test suite() throws Exception {
+		return ObjectRepositoryTestCase.suite(ObjectCacheTest.class);
+	}
+
+	@Iri("urn:test:Item")
+	public interface Item {
+		@Iri("urn:test:name")
+		String getName();
+
+		void setName(String name);
+
+		@Iri("urn:test:tag")
+		Set<String> getTags();
+
+		void setTags(Set<String> tags);
+	}
+
+	private ObjectCache cache;
+	private URI item;
+	private URI name;
+
+	public void setUp() throws Exception {
+		config.setObjectCacheSize(64);
+		config.addConcept(Item.class);
+		super.setUp();
+		cache = ((ObjectRepository) repository).getObjectCache();
+		ValueFactory vf = con.getValueFactory();
+		item = vf.createURI("urn:test:item");
+		name = vf.createURI("urn:test:name");
+	}
+
+	public void testSharedTypes() throws Exception {
+		assertFalse(read(item) instanceof Item);
+		con.addDesignation(con.getObject(item), Item.class);
+		assertNull(cache.getTypes(item));
+		assertTrue(read(item) instanceof Item);
+		assertNotNull(cache.getTypes(item));
+		con.removeDesignation(con.getObject(item), Item.class);
+		assertNull(cache.getTypes(item));
+		assertFalse(read(item) instanceof Item);
+	}
+
+	public void testBatchedTypes() throws Exception {
+		ValueFactory vf = con.getValueFactory();
+		URI other = vf.createURI("urn:test:other");
+		con.addDesignation(con.getObject(item), Item.class);
+		ObjectConnection reader = (ObjectConnection) repository.getConnection();
+		try {
+			reader.getObjects(Arrays.asList(item, other));
+		} finally {
+			reader.close();
+		}
+		assertNotNull(cache.getTypes(item));
+		assertTrue(cache.getTypes(other).isEmpty());
+		con.addDesignation(con.getObject(other), Item.class);
+		assertNull(cache.getTypes(other));
+		assertTrue(read(other) instanceof Item);
+	}
+
+	public void testSharedValues() throws Exception {
+		Item first = con.addDesignation(con.getObject(item), Item.class);
+		first.setName("first");
+		assertEquals("first", readName());
+		assertNotNull(cache.getValues(item, name));
+		first.setName("second");
+		assertNull(cache.getValues(item, name));
+		assertEquals("second", readName());
+	}
+
+	public void testSharedLargeValues() throws Exception {
+		Set<String> tags = new HashSet<String>();
+		for (int i = 0; i < 15; i++) {
+			tags.add("tag" + i);
+		}
+		Item first = con.addDesignation(con.getObject(item), Item.class);
+		first.setTags(tags);
+		assertEquals(tags, readTags());
+		assertEquals(tags, readTags());
+	}
+
+	public void testUncommittedChangesNotShared() throws Exception {
+		Item first = con.addDesignation(con.getObject(item), Item.class);
+		first.setName("first");
+		con.setAutoCommit(false);
+		first.setName("second");
+		assertNull(con.getObjectCache(item));
+		assertEquals("second", first.getName());
+		assertEquals("first", readName());
+		con.setAutoCommit(true);
+		assertEquals("second", readName());
+	}
+
+	public void testUpdateInvalidates() throws Exception {
+		Item first = con.addDesignation(con.getObject(item), Item.class);
+		first.setName("first");
+		assertEquals("first", readName());
+		String update = "DELETE WHERE { <urn:test:item> <urn:test:name> ?name }";
+		con.prepareUpdate(QueryLanguage.SPARQL, update, null).execute();
+		assertNull(cache.getValues(item, name));
+		assertNull(readName());
+	}
+
+	private Object read(URI uri) throws Exception {
+		ObjectConnection other = (ObjectConnection) repository.getConnection();
+		try {
+			return other.getObject(uri);
+		} finally {
+			other.close();
+		}
+	}
+
+	private Set<String> readTags() throws Exception {
+		ObjectConnection other = (ObjectConnection) repository.getConnection();
+		try {
+			return new HashSet<String>(((Item) other.getObject(item))
+					.getTags());
+		} finally {
+			other.close();
+		}
+	}
+
+	private String readName() throws Exception {
+		ObjectConnection other = (ObjectConnection) repository.getConnection();
+		try {
+			return ((Item) other.getObject(item)).getName();
+		} finally {
+			other.close();
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package org.openrdf.repository.object;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+
+import org.openrdf.annotations.Iri;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.BooleanQuery;
+import org.openrdf.query.GraphQuery;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQuery;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+import org.openrdf.repository.base.RepositoryConnectionWrapper;
+import org.openrdf.repository.base.RepositoryWrapper;
+import org.openrdf.repository.object.base.ObjectRepositoryTestCase;
+
+public class PrefetchTest extends ObjectRepositoryTestCase {
+
+	public static Test suite() throws Exception {
+		return ObjectRepositoryTestCase.suite(PrefetchTest.class);
+	}
+
+	@Iri("urn:test:Node")
+	public interface Node {
+		@Iri("urn:test:name")
+		String getName();
+
+		void setName(String name);
+
+		@Iri("urn:test:child")
+		Set<Node> getChildren();
+
+		void setChildren(Set<Node> children);
+	}
+
+	private List<Node> nodes = new ArrayList<Node>();
+	/** queries and statement reads that reached the underlying store */
+	private final AtomicInteger reads = new AtomicInteger();
+
+	@Override
+	protected ObjectRepository getRepository() throws Exception {
+		ObjectRepository repository = super.getRepository();
+		repository.setDelegate(new RepositoryWrapper(repository.getDelegate()) {
+			public RepositoryConnection getConnection()
+					throws RepositoryException {
+				return new CountingConnection(this, super.getConnection());
+			}
+		});
+		return repository;
+	}
+
+	private class CountingConnection extends RepositoryConnectionWrapper {
+
+		CountingConnection(RepositoryWrapper repository,
+				RepositoryConnection delegate) {
+			super(repository, delegate);
+		}
+
+		public RepositoryResult<Statement> getStatements(Resource subj,
+				URI pred, Value obj, boolean includeInferred,
+				Resource... contexts) throws RepositoryException {
+			reads.incrementAndGet();
+			return super.getStatements(subj, pred, obj, includeInferred,
+					contexts);
+		}
+
+		public boolean hasStatement(Resource subj, URI pred, Value obj,
+				boolean includeInferred, Resource... contexts)
+				throws RepositoryException {
+			reads.incrementAndGet();
+			return super.hasStatement(subj, pred, obj, includeInferred,
+					contexts);
+		}
+
+		public TupleQuery prepareTupleQuery(QueryLanguage ql, String query,
+				String baseURI) throws MalformedQueryException,
+				RepositoryException {
+			reads.incrementAndGet();
+			return super.prepareTupleQuery(ql, query, baseURI);
+		}
+
+		public GraphQuery prepareGraphQuery(QueryLanguage ql, String query,
+				String baseURI) throws MalformedQueryException,
+				RepositoryException {
+			reads.incrementAndGet();
+			return super.prepareGraphQuery(ql, query, baseURI);
+		}
+
+		public BooleanQuery prepareBooleanQuery(QueryLanguage ql,
+				String query, String baseURI) throws MalformedQueryException,
+				RepositoryException {
+			reads.incrementAndGet();
+			return super.prepareBooleanQuery(ql, query, baseURI);
+		}
+	}
+
+	public void setUp() throws Exception {
+		config.addConcept(Node.class);
+		super.setUp();
+		con.setAutoCommit(false);
+		for (int i = 0; i < 10; i++) {
+			String uri = "urn:test:node" + i;
+			Node node = con.addDesignation(con.getObject(uri), Node.class);
+			node.setName("node" + i);
+			nodes.add(node);
+		}
+		for (int i = 1; i < 10; i += 2) {
+			nodes.get(i).getChildren().add(nodes.get(i - 1));
+		}
+		con.setAutoCommit(true);
+		con.close();
+		con = (ObjectConnection) repository.getConnection();
+		for (int i = 0; i < 10; i++) {
+			nodes.set(i, con.getObject(Node.class, "urn:test:node" + i));
+		}
+	}
+
+	public void testPrefetch() throws Exception {
+		con.setBatchSize(4);
+		reads.set(0);
+		con.prefetch(nodes, "name", "children", "missing");
+		// three batches of at most four nodes for each mapped property
+		assertEquals(6, reads.get());
+		for (int i = 0; i < 10; i++) {
+			assertEquals("node" + i, nodes.get(i).getName());
+		}
+		assertEquals(6, reads.get());
+		for (int i = 0; i < 10; i++) {
+			Node node = nodes.get(i);
+			if (i % 2 == 1) {
+				Set<Node> children = node.getChildren();
+				assertEquals(Collections.singleton(nodes.get(i - 1)), children);
+				assertTrue(children.iterator().next() instanceof Node);
+			} else {
+				assertTrue(node.getChildren().isEmpty());
+			}
+		}
+	}
+
+	public void testPrefetchIsRefreshed() throws Exception {
+		con.prefetch(nodes, "name");
+		Node node = nodes.get(0);
+		node.setName("changed");
+		assertEquals("changed", node.getName());
+	}
+
+	public void testGetObjects() throws Exception {
+		con.close();
+		con = (ObjectConnection) repository.getConnection();
+		con.setBatchSize(4);
+		ValueFactory vf = con.getValueFactory();
+		List<Value> values = new ArrayList<Value>();
+		for (int i = 0; i < 10; i++) {
+			values.add(vf.createURI("urn:test:node" + i));
+		}
+		values.add(vf.createURI("urn:test:node0"));
+		values.add(vf.createURI("urn:test:missing"));
+		Literal literal = vf.createLiteral("node");
+		values.add(literal);
+		List<Object> objects = con.getObjects(values);
+		assertEquals(values.size(), objects.size());
+		for (int i = 0; i < 10; i++) {
+			assertTrue(objects.get(i) instanceof Node);
+			assertEquals("node" + i, ((Node) objects.get(i)).getName());
+		}
+		assertSame(objects.get(0), objects.get(10));
+		assertFalse(objects.get(11) instanceof Node);
+		assertEquals("node", objects.get(12));
+	}
+}
@@ -35,10 +35,14 @@ import java.util.List;
 
 import junit.framework.Test;
 
+import org.openrdf.model.URI;
 import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
 import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.repository.object.base.ObjectRepositoryTestCase;
 import org.openrdf.repository.object.concepts.Seq;
+import org.openrdf.repository.object.traits.Refreshable;
 
 public class ContainerTest extends ObjectRepositoryTestCase {
 
@@ -106,6 +110,48 @@ public class ContainerTest extends ObjectRepositoryTestCase {
 		assertEquals(Arrays.asList("ONE", "TWO", "THREE"), list);
 	}
 
+	public void testSize() throws Exception {
+		Seq list = con.addDesignation(con.getObject(ValueFactoryImpl
+				.getInstance().createURI("urn:", "root")), Seq.class);
+		for (int i = 0; i < 70; i++) {
+			Seq read = (Seq) con.getObject(ValueFactoryImpl.getInstance()
+					.createURI("urn:", "root"));
+			((Refreshable) read).refresh();
+			assertEquals(i, read.size());
+			list.add(i);
+		}
+		assertEquals(70, list.size());
+		assertEquals(Integer.valueOf(69), list.get(69));
+	}
+
+	public void testSizeWithGap() throws Exception {
+		ValueFactory vf = ValueFactoryImpl.getInstance();
+		URI root = vf.createURI("urn:", "root");
+		con.addDesignation(con.getObject(root), Seq.class);
+		for (int i = 1; i <= 21; i++) {
+			if (i != 7) {
+				con.add(root, vf.createURI(RDF.NAMESPACE, "_" + i), vf
+						.createLiteral(i));
+			}
+		}
+		Seq read = (Seq) con.getObject(root);
+		((Refreshable) read).refresh();
+		assertEquals(6, read.size());
+	}
+
+	public void testAddAllAndClear() throws Exception {
+		Seq list = con.addDesignation(con.getObject(ValueFactoryImpl
+				.getInstance().createURI("urn:", "root")), Seq.class);
+		list.add("one");
+		list.addAll(Arrays.asList("two", "three"));
+		assertEquals(Arrays.asList("one", "two", "three"), list);
+		list.clear();
+		assertEquals(0, list.size());
+		assertTrue(list.isEmpty());
+		list.add("four");
+		assertEquals(Arrays.asList("four"), list);
+	}
+
 	public void testMerge() throws Exception {
 		List<Object> list = new ArrayList<Object>();
 		list.add("one");
@@ -49,6 +49,7 @@ import org.openrdf.repository.object.base.RepositoryTestCase;
 import org.openrdf.repository.object.concepts.List;
 import org.openrdf.repository.object.config.ObjectRepositoryConfig;
 import org.openrdf.repository.object.config.ObjectRepositoryFactory;
+import org.openrdf.repository.object.traits.Refreshable;
 
 public class ListTest extends RepositoryTestCase {
 	public static Test suite() throws Exception {
@@ -135,6 +136,61 @@ public class ListTest extends RepositoryTestCase {
 		assertEquals(Arrays.asList("ONE", "TWO", "THREE"), list);
 	}
 
+	public void testIndexedGet() throws Exception {
+		List<Object> list = manager.addDesignation(manager.getObject("urn:root"), List.class);
+		for (int i = 0; i < 20; i++) {
+			list.add("item" + i);
+		}
+		for (int i = 0; i < 20; i++) {
+			assertEquals("item" + i, list.get(i));
+		}
+		try {
+			list.get(20);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// pass
+		}
+	}
+
+	public void testLongList() throws Exception {
+		java.util.List<Object> expected = new ArrayList<Object>();
+		for (int i = 0; i < 500; i++) {
+			expected.add("item" + i);
+		}
+		List<Object> list = manager.addDesignation(manager.getObject("urn:root"), List.class);
+		list.addAll(expected);
+		assertEquals(expected, list);
+		list.add(0, "first");
+		expected.add(0, "first");
+		list.remove(250);
+		expected.remove(250);
+		list.set(499, "last");
+		expected.set(499, "last");
+		list.addAll(100, Arrays.asList("a", "b"));
+		expected.addAll(100, Arrays.asList("a", "b"));
+		assertEquals(expected, list);
+		ObjectConnection other = factory.getConnection();
+		try {
+			assertEquals(expected, other.getObject("urn:root"));
+		} finally {
+			other.close();
+		}
+	}
+
+	public void testRefresh() throws Exception {
+		List<Object> list = manager.addDesignation(manager.getObject("urn:root"), List.class);
+		list.addAll(Arrays.asList("one", "two"));
+		assertEquals(Arrays.asList("one", "two"), list);
+		ObjectConnection other = factory.getConnection();
+		try {
+			((List<Object>) other.getObject("urn:root")).add("three");
+		} finally {
+			other.close();
+		}
+		((Refreshable) list).refresh();
+		assertEquals(Arrays.asList("one", "two", "three"), list);
+	}
+
 	public void testDelete() throws Exception {
 		int before = getSize(repository);
 		URI uri = ValueFactoryImpl.getInstance().createURI("urn:", "root");
@@ -76,12 +76,15 @@ public class GZipFilter implements AsyncExecChain {
 
 	protected HttpResponse gzip(HttpResponse resp) {
 		int code = resp.getStatusLine().getStatusCode();;
+		if (code == 206)
+			return resp; // ranges are of the identity encoding
 		boolean compressed = isAlreadyCompressed(resp.getEntity());
 		if (code < 500 && isCompressable(resp) || compressed) {
 			long len = getContentLength(resp);
 			if (compressed || len < 0 || len > 500) {
 				resp.removeHeaders("Content-MD5");
 				resp.removeHeaders("Content-Length");
+				resp.removeHeaders("Accept-Ranges");
 				resp.setHeader("Transfer-Encoding", "chunked");
 				resp.setHeader("Content-Encoding", "gzip");
 				resp.setEntity(gzip(resp.getEntity()));
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2013 3 Round Stones Inc., Some Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.openrdf.http.object.chain;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.Future;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.openrdf.http.object.client.StreamingHttpEntity;
+import org.openrdf.http.object.helpers.ReadableHttpEntityChannel;
+import org.openrdf.http.object.helpers.ResponseCallback;
+
+/**
+ * Responds to a single byte range request with 206 or 416 when the response
+ * entity is seekable.
+ */
+public class RangeHandler implements AsyncExecChain {
+	private final AsyncExecChain delegate;
+
+	public RangeHandler(AsyncExecChain delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public Future<HttpResponse> execute(HttpHost target, HttpRequest request,
+			HttpContext context, FutureCallback<HttpResponse> callback) {
+		String method = request.getRequestLine().getMethod();
+		if (!method.equals("GET"))
+			return delegate.execute(target, request, context, callback);
+		final Header range = request.getFirstHeader("Range");
+		final Header ifRange = request.getFirstHeader("If-Range");
+		return delegate.execute(target, request, context,
+				new ResponseCallback(callback) {
+					public void completed(HttpResponse result) {
+						try {
+							super.completed(range(result, range, ifRange));
+						} catch (RuntimeException ex) {
+							super.failed(ex);
+						} catch (IOException ex) {
+							super.failed(ex);
+						}
+					}
+				});
+	}
+
+	HttpResponse range(HttpResponse resp, Header range, Header ifRange)
+			throws IOException {
+		if (resp.getStatusLine().getStatusCode() != 200)
+			return resp;
+		Header encoding = resp.getFirstHeader("Content-Encoding");
+		if (encoding != null && !"identity".equals(encoding.getValue()))
+			return resp;
+		HttpEntity entity = resp.getEntity();
+		if (!isSeekable(entity))
+			return resp;
+		resp.setHeader("Accept-Ranges", "bytes");
+		if (range == null || ifRange != null && !isCurrent(resp, ifRange))
+			return resp;
+		long size = entity.getContentLength();
+		long[] bytes = parseRange(range.getValue(), size);
+		if (bytes == null)
+			return resp;
+		resp.removeHeaders("Content-MD5");
+		resp.removeHeaders("Content-Length");
+		if (bytes.length == 0) {
+			EntityUtils.consume(entity);
+			resp.setStatusCode(416);
+			resp.setReasonPhrase("Requested Range Not Satisfiable");
+			resp.setHeader("Content-Range", "bytes */" + size);
+			resp.setHeader("Content-Length", "0");
+			resp.setEntity(null);
+			return resp;
+		}
+		long length = bytes[1] - bytes[0] + 1;
+		resp.setEntity(range(entity, bytes[0], length));
+		resp.setStatusCode(206);
+		resp.setReasonPhrase("Partial Content");
+		resp.setHeader("Content-Range", "bytes " + bytes[0] + "-" + bytes[1]
+				+ "/" + size);
+		resp.setHeader("Content-Length", Long.toString(length));
+		return resp;
+	}
+
+	/**
+	 * Parses a single byte range.
+	 * 
+	 * @return first and last byte position, an empty array if not
+	 *         satisfiable, or null if the whole entity should be sent
+	 */
+	private long[] parseRange(String value, long size) {
+		value = value.trim();
+		if (!value.startsWith("bytes="))
+			return null;
+		String spec = value.substring("bytes=".length()).trim();
+		if (spec.indexOf(',') >= 0)
+			return null; // multipart/byteranges are not supported
+		int dash = spec.indexOf('-');
+		if (dash < 0)
+			return null;
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			if (first.length() == 0) {
+				long suffix = Long.parseLong(last);
+				if (suffix <= 0 || size == 0)
+					return new long[0];
+				return new long[] { Math.max(0, size - suffix), size - 1 };
+			}
+			long start = Long.parseLong(first);
+			long end = last.length() == 0 ? size - 1 : Long.parseLong(last);
+			if (start < 0 || end < start)
+				return null;
+			if (start >= size)
+				return new long[0];
+			return new long[] { start, Math.min(end, size - 1) };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private boolean isCurrent(HttpResponse resp, Header ifRange) {
+		String value = ifRange.getValue().trim();
+		if (value.startsWith("\"")) {
+			Header tag = resp.getFirstHeader("ETag");
+			return tag != null && value.equals(tag.getValue());
+		} else if (value.startsWith("W/")) {
+			return false;
+		}
+		Header modified = resp.getFirstHeader("Last-Modified");
+		if (modified == null)
+			return false;
+		Date since = DateUtils.parseDate(value);
+		Date last = DateUtils.parseDate(modified.getValue());
+		return since != null && last != null && since.equals(last);
+	}
+
+	private boolean isSeekable(HttpEntity entity) {
+		if (entity instanceof StreamingHttpEntity)
+			return isSeekable(((StreamingHttpEntity) entity).getEntityDelegate());
+		if (entity instanceof ReadableHttpEntityChannel)
+			return ((ReadableHttpEntityChannel) entity).isSeekable();
+		return false;
+	}
+
+	private HttpEntity range(HttpEntity entity, long offset, long length)
+			throws IOException {
+		if (entity instanceof StreamingHttpEntity) {
+			StreamingHttpEntity sentity = (StreamingHttpEntity) entity;
+			sentity.setEntityDelegate(range(sentity.getEntityDelegate(),
+					offset, length));
+			return sentity;
+		}
+		return ((ReadableHttpEntityChannel) entity).range(offset, length);
+	}
+}
@@ -111,6 +111,7 @@ public class RequestExecChain implements AsyncExecChain, ClientExecChain {
 		filter = new UnmodifiedSinceHandler(filter);
 		filter = new DerivedFromHeadFilter(filter);
 		filter = transaction = new TransactionHandler(filter, closing);
+		filter = new RangeHandler(filter);
 		filter = new GZipFilter(filter);
 		// exec in i/o thread
 		filter = new PooledExecChain(filter, triaging);
@@ -21,6 +21,7 @@ import java.util.List;
 
 import javax.xml.transform.TransformerConfigurationException;
 
+import org.openrdf.http.object.fluid.consumers.BlobObjectBodyWriter;
 import org.openrdf.http.object.fluid.consumers.BooleanMessageWriter;
 import org.openrdf.http.object.fluid.consumers.BufferedImageWriter;
 import org.openrdf.http.object.fluid.consumers.ByteArrayMessageWriter;
@@ -105,6 +106,7 @@ public class FluidFactory {
 		consumers.add(new InputStreamBodyWriter());
 		consumers.add(new ReadableBodyWriter());
 		consumers.add(new ReadableByteChannelBodyWriter());
+		consumers.add(new BlobObjectBodyWriter());
 		consumers.add(new XMLEventMessageWriter());
 		consumers.add(new ByteArrayMessageWriter());
 		consumers.add(new ByteArrayStreamMessageWriter());
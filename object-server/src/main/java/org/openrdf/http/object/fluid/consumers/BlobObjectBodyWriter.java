@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2013 3 Round Stones Inc., Some Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.openrdf.http.object.fluid.consumers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+
+import org.apache.http.HttpEntity;
+import org.openrdf.http.object.fluid.Consumer;
+import org.openrdf.http.object.fluid.Fluid;
+import org.openrdf.http.object.fluid.FluidBuilder;
+import org.openrdf.http.object.fluid.FluidType;
+import org.openrdf.http.object.fluid.Vapor;
+import org.openrdf.http.object.helpers.ReadableHttpEntityChannel;
+import org.openrdf.http.object.io.ChannelUtil;
+import org.openrdf.store.blob.BlobObject;
+
+/**
+ * Reads a {@link BlobObject} as a seekable entity, so a range of a compressed
+ * blob can be read without reading the content before it.
+ */
+public class BlobObjectBodyWriter implements Consumer<BlobObject> {
+
+	public boolean isConsumable(FluidType mtype, FluidBuilder builder) {
+		return BlobObject.class.isAssignableFrom(mtype.asClass());
+	}
+
+	public Fluid consume(final BlobObject result, final String base,
+			final FluidType ftype, final FluidBuilder builder) {
+		return new Vapor() {
+			public String getSystemId() {
+				return base;
+			}
+
+			public FluidType getFluidType() {
+				return ftype;
+			}
+
+			public void asVoid() {
+				// nothing opened
+			}
+
+			@Override
+			protected String toChannelMedia(FluidType media) {
+				return ftype.as(media).preferred();
+			}
+
+			@Override
+			protected ReadableByteChannel asChannel(FluidType media)
+					throws IOException {
+				if (result == null)
+					return null;
+				return result.openChannel();
+			}
+
+			@Override
+			protected String toHttpEntityMedia(FluidType media) {
+				return toChannelMedia(media);
+			}
+
+			@Override
+			protected HttpEntity asHttpEntity(FluidType media)
+					throws IOException {
+				final String mediaType = toChannelMedia(media);
+				if (result == null)
+					return new ReadableHttpEntityChannel(mediaType, 0, null);
+				ReadableByteChannel in = result.openChannel();
+				long size = in == null ? 0 : result.getLength();
+				return new ReadableHttpEntityChannel(mediaType, size, in) {
+					public boolean isSeekable() {
+						return super.isSeekable() || getContentLength() > 0
+								&& isStreaming();
+					}
+
+					public HttpEntity range(long offset, long length)
+							throws IOException {
+						HttpEntity range = super.range(offset, length);
+						if (range != null)
+							return range;
+						if (!isSeekable())
+							return null;
+						InputStream in = result.openInputStream(offset, length);
+						close();
+						return new ReadableHttpEntityChannel(mediaType, length,
+								ChannelUtil.newChannel(in));
+					}
+				};
+			}
+
+			public String toString() {
+				return String.valueOf(result);
+			}
+		};
+	}
+}
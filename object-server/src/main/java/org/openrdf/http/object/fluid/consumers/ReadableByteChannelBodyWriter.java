@@ -30,18 +30,21 @@
 package org.openrdf.http.object.fluid.consumers;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 
+import org.apache.http.HttpEntity;
 import org.openrdf.OpenRDFException;
 import org.openrdf.http.object.fluid.Consumer;
 import org.openrdf.http.object.fluid.Fluid;
 import org.openrdf.http.object.fluid.FluidBuilder;
 import org.openrdf.http.object.fluid.FluidType;
 import org.openrdf.http.object.fluid.Vapor;
+import org.openrdf.http.object.helpers.ReadableHttpEntityChannel;
 
 /**
  * Converts an OutputStream into a ReadableByteChannel.
@@ -82,6 +85,25 @@ public class ReadableByteChannelBodyWriter implements
 				return result;
 			}
 
+			@Override
+			protected String toHttpEntityMedia(FluidType media) {
+				return toChannelMedia(media);
+			}
+
+			@Override
+			protected HttpEntity asHttpEntity(FluidType media)
+					throws IOException {
+				String mediaType = toChannelMedia(media);
+				long size = -1;
+				if (result == null) {
+					size = 0;
+				} else if (result instanceof FileChannel) {
+					FileChannel file = (FileChannel) result;
+					size = file.size() - file.position();
+				}
+				return new ReadableHttpEntityChannel(mediaType, size, result);
+			}
+
 			public String toString() {
 				return String.valueOf(result);
 			}
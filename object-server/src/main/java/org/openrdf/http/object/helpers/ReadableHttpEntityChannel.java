@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.util.Arrays;
 import java.util.List;
@@ -41,6 +42,7 @@ import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.FileContentEncoder;
 import org.apache.http.nio.IOControl;
 import org.apache.http.nio.entity.HttpAsyncContentProducer;
 import org.openrdf.http.object.io.AutoCloseChannel;
@@ -57,6 +59,10 @@ public class ReadableHttpEntityChannel implements HttpEntity, HttpAsyncContentPr
 	private long contentLength;
 	private ByteBuffer buf = ByteBuffer.allocate(1024 * 8);
 	private ReadableByteChannel cin;
+	/** the underlying file, if any, to transfer without copying */
+	private FileChannel file;
+	/** file position to stop at, or -1 to read to the end of the file */
+	private long end = -1;
 
 	public ReadableHttpEntityChannel(String type, long length,
 			ReadableByteChannel in) {
@@ -75,6 +81,9 @@ public class ReadableHttpEntityChannel implements HttpEntity, HttpAsyncContentPr
 		if (in == null) {
 			in = ChannelUtil.newChannel(new byte[0]);
 		}
+		if (in instanceof FileChannel) {
+			this.file = (FileChannel) in;
+		}
 		this.cin = new AutoCloseChannel(in) {
 			public void close() throws IOException {
 				try {
@@ -94,6 +103,47 @@ public class ReadableHttpEntityChannel implements HttpEntity, HttpAsyncContentPr
 		};
 	}
 
+	/**
+	 * If {@link #range(long, long)} can be used to produce part of this entity
+	 * without reading the bytes before it.
+	 */
+	public boolean isSeekable() {
+		return file != null && file.isOpen() && buf.position() == 0
+				&& contentLength >= 0 && end < 0;
+	}
+
+	/**
+	 * Creates an entity of part of this entity. Closing the returned entity
+	 * also closes this entity.
+	 * 
+	 * @param offset
+	 *            number of bytes to skip
+	 * @param length
+	 *            number of bytes in the returned entity
+	 * @return an entity of the given range or null if this entity is not
+	 *         seekable
+	 */
+	public HttpEntity range(long offset, long length) throws IOException {
+		if (!isSeekable())
+			return null;
+		long start = file.position() + offset;
+		file.position(start);
+		ReadableHttpEntityChannel range = new ReadableHttpEntityChannel(
+				contentType, length, new FileRangeChannel(file, start + length),
+				new Runnable() {
+					public void run() {
+						try {
+							close();
+						} catch (IOException e) {
+							// the file is closed either way
+						}
+					}
+				});
+		range.file = file;
+		range.end = start + length;
+		return range;
+	}
+
 	@Override
 	public String toString() {
 		return cin.toString();
@@ -138,6 +188,14 @@ public class ReadableHttpEntityChannel implements HttpEntity, HttpAsyncContentPr
 	}
 
 	public void writeTo(OutputStream out) throws IOException {
+		if (file != null && buf.position() == 0 && end < 0) {
+			try {
+				ChannelUtil.transfer(file, out);
+			} finally {
+				close();
+			}
+			return;
+		}
 		InputStream in = getContent();
 		try {
 			byte[] buf = new byte[1024];
@@ -164,6 +222,20 @@ public class ReadableHttpEntityChannel implements HttpEntity, HttpAsyncContentPr
 
 	public void produceContent(ContentEncoder encoder, IOControl ioctrl)
 			throws IOException {
+		if (file != null && buf.position() == 0
+				&& encoder instanceof FileContentEncoder && file.isOpen()) {
+			long position = file.position();
+			long remaining = file.size() - position;
+			if (end >= 0) {
+				remaining = Math.min(remaining, end - position);
+			}
+			if (remaining > 0) {
+				FileContentEncoder fencoder = (FileContentEncoder) encoder;
+				long sent = fencoder.transfer(file, position, remaining);
+				file.position(position + sent);
+				return;
+			}
+		}
 		if (cin.read(buf) < 0 && buf.position() == 0) {
 			close();
 			if (!encoder.isCompleted()) {
@@ -180,4 +252,40 @@ public class ReadableHttpEntityChannel implements HttpEntity, HttpAsyncContentPr
 	public void close() throws IOException {
 		cin.close();
 	}
+
+	/**
+	 * Reads a file up to a fixed position.
+	 */
+	private static class FileRangeChannel implements ReadableByteChannel {
+		private final FileChannel file;
+		private final long end;
+
+		FileRangeChannel(FileChannel file, long end) {
+			this.file = file;
+			this.end = end;
+		}
+
+		public boolean isOpen() {
+			return file.isOpen();
+		}
+
+		public void close() throws IOException {
+			file.close();
+		}
+
+		public int read(ByteBuffer dst) throws IOException {
+			long remaining = end - file.position();
+			if (remaining <= 0)
+				return -1;
+			if (dst.remaining() <= remaining)
+				return file.read(dst);
+			int limit = dst.limit();
+			dst.limit(dst.position() + (int) remaining);
+			try {
+				return file.read(dst);
+			} finally {
+				dst.limit(limit);
+			}
+		}
+	}
 }
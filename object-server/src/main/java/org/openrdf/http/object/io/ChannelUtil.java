@@ -41,6 +41,9 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
@@ -65,6 +68,8 @@ public final class ChannelUtil {
 			return null;
 		if (in instanceof ChannelInputStream)
 			return ((ChannelInputStream) in).getChannel();
+		if (FileInputStream.class.equals(in.getClass()))
+			return ((FileInputStream) in).getChannel();
 		return Channels.newChannel(in);
 	}
 
@@ -142,7 +147,25 @@ public final class ChannelUtil {
 	public static long transfer(ReadableByteChannel in,
 			WritableByteChannel out, MessageDigest digest) throws IOException {
 		if (digest == null && in instanceof FileChannel) {
-			return ((FileChannel) in).transferTo(0, Long.MAX_VALUE, out);
+			FileChannel file = (FileChannel) in;
+			long start = file.position();
+			long position = start;
+			long size = file.size();
+			while (position < size) {
+				long sent = file.transferTo(position, size - position, out);
+				if (sent > 0) {
+					position += sent;
+				} else if (out instanceof SelectableChannel
+						&& !((SelectableChannel) out).isBlocking()) {
+					awaitWritable((SelectableChannel) out);
+				} else {
+					file.position(position);
+					throw new IOException("Could not transfer "
+							+ (size - position) + " of " + size + " bytes");
+				}
+			}
+			file.position(position);
+			return position - start;
 		} else if (digest == null && out instanceof FileChannel) {
 			return ((FileChannel) out).transferFrom(in, 0, Long.MAX_VALUE);
 		} else {
@@ -201,6 +224,21 @@ public final class ChannelUtil {
 		};
 	}
 
+	private static void awaitWritable(SelectableChannel out)
+			throws IOException {
+		Selector selector = Selector.open();
+		try {
+			SelectionKey key = out.register(selector, SelectionKey.OP_WRITE);
+			try {
+				selector.select();
+			} finally {
+				key.cancel();
+			}
+		} finally {
+			selector.close();
+		}
+	}
+
 	private static class ChannelInputStream extends FilterInputStream {
 		private ReadableByteChannel ch;
 
@@ -1,8 +1,12 @@
 package org.openrdf.http.object.chain;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Array;
 import java.nio.ByteBuffer;
@@ -48,8 +52,13 @@ import org.openrdf.repository.object.ObjectConnection;
 import org.openrdf.repository.object.ObjectRepository;
 import org.openrdf.repository.object.config.ObjectRepositoryConfig;
 import org.openrdf.repository.object.config.ObjectRepositoryFactory;
+import org.openrdf.repository.object.managers.helpers.DirUtil;
 import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.sail.memory.MemoryStore;
+import org.openrdf.store.blob.BlobObject;
+import org.openrdf.store.blob.BlobStore;
+import org.openrdf.store.blob.BlobStoreFactory;
+import org.openrdf.store.blob.BlobVersion;
 
 public class TestRequestExecChain extends TestCase {
 	private static final String RESOURCE = "http://example.org/";
@@ -73,6 +82,28 @@ public class TestRequestExecChain extends TestCase {
 			return resp;
 		}
 
+		@Method("GET")
+		@Path("?range")
+		@Type("application/octet-stream")
+		public ReadableByteChannel range() throws IOException {
+			File file = File.createTempFile("range", ".bin");
+			file.deleteOnExit();
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write("Hello World!".getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+			return new FileInputStream(file).getChannel();
+		}
+
+		@Method("GET")
+		@Path("?blob")
+		@Type("application/octet-stream")
+		public BlobObject blob() throws IOException {
+			return blobs.open(RESOURCE + "blob");
+		}
+
 		@Method("POST")
 		@Path("?json")
 		@Type("text/json")
@@ -198,6 +229,7 @@ public class TestRequestExecChain extends TestCase {
 	private ObjectRepository repository;
 	private RequestExecChain chain;
 	static InputStream body;
+	static BlobStore blobs;
 
 	public void setUp() throws Exception {
 		context = ObjectContext.create();
@@ -222,6 +254,17 @@ public class TestRequestExecChain extends TestCase {
 		con.add(vf.createURI(VERSION), RDF.TYPE,
 				vf.createURI("urn:test:test-version-response"));
 		con.close();
+		File blobDir = DirUtil.createTempDir("blobs");
+		DirUtil.deleteOnExit(blobDir);
+		blobs = BlobStoreFactory.newInstance().openBlobStore(blobDir);
+		BlobVersion version = blobs.newVersion();
+		OutputStream out = version.open(RESOURCE + "blob").openOutputStream();
+		try {
+			out.write("Hello World!".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		version.commit();
 		chain = new RequestExecChain(new HeapResourceFactory());
 		chain.addRepository(RESOURCE, repository);
 		chain.addRepository(SECURE, repository);
@@ -231,6 +274,7 @@ public class TestRequestExecChain extends TestCase {
 		chain.shutdown();
 		repository.shutDown();
 		chain.awaitTermination(1, TimeUnit.SECONDS);
+		blobs.erase();
 	}
 
 	public void testHelloWorld() throws Exception {
@@ -288,6 +332,53 @@ public class TestRequestExecChain extends TestCase {
 		}
 	}
 
+	public void testRangeRequest() throws Exception {
+		BasicHttpRequest request = new BasicHttpRequest("GET", RESOURCE
+				+ "?range", HttpVersion.HTTP_1_1);
+		request.setHeader("Range", "bytes=6-10");
+		HttpResponse resp = execute(request);
+		assertEquals(resp.getStatusLine().getReasonPhrase(), 206, resp
+				.getStatusLine().getStatusCode());
+		assertEquals("bytes 6-10/12", resp.getFirstHeader("Content-Range")
+				.getValue());
+		assertEquals("5", resp.getFirstHeader("Content-Length").getValue());
+		assertEquals("World", EntityUtils.toString(resp.getEntity()));
+	}
+
+	public void testBlobRequest() throws Exception {
+		BasicHttpRequest request = new BasicHttpRequest("GET", RESOURCE
+				+ "?blob", HttpVersion.HTTP_1_1);
+		HttpResponse resp = execute(request);
+		assertEquals(resp.getStatusLine().getReasonPhrase(), 200, resp
+				.getStatusLine().getStatusCode());
+		assertEquals("12", resp.getFirstHeader("Content-Length").getValue());
+		assertEquals("Hello World!", EntityUtils.toString(resp.getEntity()));
+	}
+
+	public void testBlobRangeRequest() throws Exception {
+		BasicHttpRequest request = new BasicHttpRequest("GET", RESOURCE
+				+ "?blob", HttpVersion.HTTP_1_1);
+		request.setHeader("Range", "bytes=6-10");
+		HttpResponse resp = execute(request);
+		assertEquals(resp.getStatusLine().getReasonPhrase(), 206, resp
+				.getStatusLine().getStatusCode());
+		assertEquals("bytes 6-10/12", resp.getFirstHeader("Content-Range")
+				.getValue());
+		assertEquals("5", resp.getFirstHeader("Content-Length").getValue());
+		assertEquals("World", EntityUtils.toString(resp.getEntity()));
+	}
+
+	public void testUnsatisfiableRangeRequest() throws Exception {
+		BasicHttpRequest request = new BasicHttpRequest("GET", RESOURCE
+				+ "?range", HttpVersion.HTTP_1_1);
+		request.setHeader("Range", "bytes=20-");
+		HttpResponse resp = execute(request);
+		assertEquals(resp.getStatusLine().getReasonPhrase(), 416, resp
+				.getStatusLine().getStatusCode());
+		assertEquals("bytes */12", resp.getFirstHeader("Content-Range")
+				.getValue());
+	}
+
 	public void testOptions() throws Exception {
 		BasicHttpRequest request = new BasicHttpRequest("OPTIONS", RESOURCE,
 				HttpVersion.HTTP_1_1);